@@ -0,0 +1,99 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.onepf.opfiab;
+
+import android.os.Looper;
+
+import org.onepf.opfiab.benchmark.Payloads;
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.event.SetupResponse;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.ConsumeRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link BillingRequestScheduler} queue operations.
+ * <br>
+ * Setup is reported as failed, so every dispatched request is answered right away by
+ * {@link BillingBase} and never occupies its lane. Consume requests for distinct purchases don't
+ * conflict with each other, so a single dispatch drains the whole queue.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class BillingRequestSchedulerBenchmark {
+
+    @Param({"1", "100"})
+    public int helpers;
+
+    @Param({"100", "1000"})
+    public int requests;
+
+    private BillingRequestScheduler scheduler;
+    private SetupResponse setupResponse;
+    private IabHelperImpl[] iabHelpers;
+    private BillingRequest[] billingRequests;
+
+    @Setup
+    public void setup() {
+        // Scheduler is expected to be used from the main thread only
+        Looper.prepareMainLooper();
+        final Configuration configuration = new Configuration.Builder().build();
+        setupResponse = new SetupResponse(configuration, SetupResponse.Status.FAILED, null);
+        BillingBase.getInstance().onEventMainThread(setupResponse);
+        scheduler = BillingRequestScheduler.getInstance();
+        scheduler.dropQueue();
+
+        iabHelpers = new IabHelperImpl[helpers];
+        for (int i = 0; i < helpers; i++) {
+            iabHelpers[i] = new IabHelperImpl();
+        }
+        billingRequests = new BillingRequest[requests];
+        for (int i = 0; i < requests; i++) {
+            billingRequests[i] = new ConsumeRequest(Payloads.purchase(i, null));
+        }
+    }
+
+    private void schedule() {
+        for (int i = 0; i < requests; i++) {
+            scheduler.schedule(iabHelpers[i % helpers], billingRequests[i]);
+        }
+    }
+
+    @Benchmark
+    public void scheduleAndDrop() {
+        schedule();
+        scheduler.dropQueue();
+    }
+
+    @Benchmark
+    public void scheduleAndDrain() {
+        schedule();
+        // Same as setup finishing while requests were waiting in queue
+        scheduler.onEventMainThread(setupResponse);
+    }
+}
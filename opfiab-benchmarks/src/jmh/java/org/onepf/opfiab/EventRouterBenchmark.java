@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.onepf.opfiab;
+
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.benchmark.Payloads;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import de.greenrobot.event.EventBus;
+
+/**
+ * Compares main thread event delivery by {@link EventRouter} and {@link EventBus}.
+ * <br>
+ * Events are posted from the main thread, so both deliver them synchronously. Run with
+ * {@code -prof gc} to see allocation per event.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class EventRouterBenchmark {
+
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull final Runnable command) {
+            command.run();
+        }
+    };
+
+    @Param({"1", "10"})
+    public int handlers;
+
+    private final PurchaseResponse event =
+            new PurchaseResponse(Status.SUCCESS, Payloads.PROVIDER_INFO,
+                                 Payloads.purchase(0, null), null);
+    private EventRouter eventRouter;
+    private EventBus eventBus;
+
+    @Setup
+    public void setup() {
+        Looper.prepareMainLooper();
+        eventRouter = new EventRouter(DIRECT_EXECUTOR);
+        eventBus = EventBus.builder()
+                .throwSubscriberException(true)
+                .eventInheritance(true)
+                .logNoSubscriberMessages(false)
+                .build();
+        for (int i = 0; i < handlers; i++) {
+            final Subscriber subscriber = new Subscriber();
+            eventRouter.register(subscriber, PurchaseResponse.class, false, 0,
+                                 new EventRouter.EventHandler<PurchaseResponse>() {
+                                     @Override
+                                     public void onEvent(@NonNull final PurchaseResponse event) {
+                                         subscriber.onEventMainThread(event);
+                                     }
+                                 });
+            eventBus.register(subscriber);
+        }
+    }
+
+    @Benchmark
+    public boolean eventRouter() {
+        return eventRouter.post(event);
+    }
+
+    @Benchmark
+    public void eventBus() {
+        eventBus.post(event);
+    }
+
+    public static final class Subscriber {
+
+        private int events;
+
+        public void onEventMainThread(@NonNull final PurchaseResponse event) {
+            events++;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.onepf.opfiab.benchmark;
+
+import org.json.JSONException;
+import org.onepf.opfiab.google.model.GooglePurchase;
+import org.onepf.opfiab.google.model.GoogleSkuDetails;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares streaming parsers of Google Play data with the {@code JSONObject} based constructors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class GoogleModelBenchmark {
+
+    private static final int PAYLOADS = 256;
+
+    private final String[] purchases = new String[PAYLOADS];
+    private final String[] skusDetails = new String[PAYLOADS];
+    private int index;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < PAYLOADS; i++) {
+            purchases[i] = Payloads.googlePurchaseJson(i);
+            skusDetails[i] = Payloads.googleSkuDetailsJson(i);
+        }
+    }
+
+    private int next() {
+        return index = (index + 1) % PAYLOADS;
+    }
+
+    @Benchmark
+    public GooglePurchase purchaseStreaming() throws JSONException {
+        return GooglePurchase.fromJson(purchases[next()]);
+    }
+
+    @Benchmark
+    public GooglePurchase purchaseJsonObject() throws JSONException {
+        return new GooglePurchase(purchases[next()]);
+    }
+
+    @Benchmark
+    public GoogleSkuDetails skuDetailsStreaming() throws JSONException {
+        return GoogleSkuDetails.fromJson(skusDetails[next()]);
+    }
+
+    @Benchmark
+    public GoogleSkuDetails skuDetailsJsonObject() throws JSONException {
+        return new GoogleSkuDetails(skusDetails[next()]);
+    }
+}
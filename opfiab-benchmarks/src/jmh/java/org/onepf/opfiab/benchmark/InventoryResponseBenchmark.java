@@ -0,0 +1,62 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.onepf.opfiab.benchmark;
+
+import org.json.JSONObject;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serialization of inventory, which happens every time response is logged or stored.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class InventoryResponseBenchmark {
+
+    @Param({"10", "100", "1000", "10000"})
+    public int size;
+
+    private InventoryResponse response;
+
+    @Setup
+    public void setup() {
+        response = new InventoryResponse(Status.SUCCESS, Payloads.PROVIDER_INFO,
+                                         Payloads.inventory(size), false);
+    }
+
+    @Benchmark
+    public JSONObject toJson() {
+        return response.toJson();
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return response.toJson().toString();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.onepf.opfiab.benchmark;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.listener.BillingListenerCompositor;
+import org.onepf.opfiab.listener.OnInventoryListener;
+import org.onepf.opfiab.listener.SimpleBillingListener;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures response dispatch to listeners registered with {@link BillingListenerCompositor}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class ListenerCompositorBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int listeners;
+
+    private final BillingListenerCompositor compositor = new BillingListenerCompositor();
+    private final InventoryResponse response =
+            new InventoryResponse(Status.SUCCESS, Payloads.PROVIDER_INFO, Payloads.inventory(10),
+                                  false);
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < listeners; i++) {
+            compositor.addBillingListener(new CountingBillingListener());
+            compositor.addInventoryListener(new CountingInventoryListener());
+        }
+    }
+
+    @Benchmark
+    public void onResponse() {
+        compositor.onResponse(response);
+    }
+
+    @Benchmark
+    public void onInventory() {
+        compositor.onInventory(response);
+    }
+
+    private static final class CountingBillingListener extends SimpleBillingListener {
+
+        private int responses;
+
+        @Override
+        public void onResponse(@NonNull final BillingResponse billingResponse) {
+            responses++;
+        }
+    }
+
+    private static final class CountingInventoryListener implements OnInventoryListener {
+
+        private int responses;
+
+        @Override
+        public void onInventory(@NonNull final InventoryResponse inventoryResponse) {
+            responses++;
+        }
+    }
+}
@@ -0,0 +1,524 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.benchmark;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.OPFIab;
+import org.onepf.opfiab.api.AdvancedIabHelper;
+import org.onepf.opfiab.listener.SimpleBillingListener;
+import org.onepf.opfiab.metrics.BillingStage;
+import org.onepf.opfiab.metrics.HistogramBillingMetrics;
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.SkuDetails;
+import org.onepf.opfiab.model.billing.SkuType;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeResponse;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.model.event.billing.PurchaseResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.simulated.Latency;
+import org.onepf.opfiab.simulated.SimulatedBillingProvider;
+import org.onepf.opfiab.simulated.SimulatedStore;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless load test of the whole OPFIab pipeline backed by {@link SimulatedBillingProvider}.
+ * <br>
+ * Keeps fixed number of requests in flight through {@link AdvancedIabHelper}, each response
+ * triggers the next request. Inventory is loaded page by page, successful purchases are consumed.
+ * Requests of exclusive lanes are never issued while lane is busy, so helper queue isn't flooded
+ * with duplicates. Reports requests per second, exact end-to-end latency percentiles and per stage
+ * percentiles from {@link HistogramBillingMetrics}.
+ * <br>
+ * Options are passed as {@code name=value} arguments, see {@link Options}.
+ */
+public final class LoadDriver extends SimpleBillingListener {
+
+    private static final String USER_ID = "load-test-user";
+    private static final double[] PERCENTILES = {50d, 90d, 99d, 99.9d};
+    /**
+     * Time to wait for requests in flight when test is over.
+     */
+    private static final long GRACE_PERIOD = 5000L; // 5 seconds
+
+    /**
+     * Test parameters.
+     */
+    static final class Options {
+
+        int concurrency = 16;
+        long warmup = 5L;
+        long duration = 30L;
+        int catalog = 1000;
+        int inventory = 200;
+        int pageSize = 50;
+        int skus = 20;
+        int[] mix = {70, 10, 20};
+        String latency = "exp:5";
+        float errorRate = 0.01f;
+        double throttle;
+        long seed = 42L;
+
+        @NonNull
+        static Options parse(@NonNull final String... args) {
+            final Options options = new Options();
+            for (final String arg : args) {
+                final int separator = arg.indexOf('=');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("Expected name=value, got: " + arg);
+                }
+                final String name = arg.substring(0, separator);
+                final String value = arg.substring(separator + 1);
+                switch (name) {
+                    case "concurrency":
+                        options.concurrency = Integer.parseInt(value);
+                        break;
+                    case "warmup":
+                        options.warmup = Long.parseLong(value);
+                        break;
+                    case "duration":
+                        options.duration = Long.parseLong(value);
+                        break;
+                    case "catalog":
+                        options.catalog = Integer.parseInt(value);
+                        break;
+                    case "inventory":
+                        options.inventory = Integer.parseInt(value);
+                        break;
+                    case "pageSize":
+                        options.pageSize = Integer.parseInt(value);
+                        break;
+                    case "skus":
+                        options.skus = Integer.parseInt(value);
+                        break;
+                    case "mix":
+                        final String[] weights = value.split(":");
+                        options.mix = new int[weights.length];
+                        for (int i = 0; i < weights.length; i++) {
+                            options.mix[i] = Integer.parseInt(weights[i]);
+                        }
+                        break;
+                    case "latency":
+                        options.latency = value;
+                        break;
+                    case "errorRate":
+                        options.errorRate = Float.parseFloat(value);
+                        break;
+                    case "throttle":
+                        options.throttle = Double.parseDouble(value);
+                        break;
+                    case "seed":
+                        options.seed = Long.parseLong(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + name);
+                }
+            }
+            if (options.mix.length != 3 || options.catalog < 2 || options.skus > options.catalog
+                    || options.inventory > options.catalog / 2) {
+                throw new IllegalArgumentException("Inconsistent options.");
+            }
+            return options;
+        }
+
+        /**
+         * Parses latency specification: {@code none}, {@code fixed:ms}, {@code uniform:min:max},
+         * {@code exp:mean} or {@code lognormal:median:sigma}.
+         */
+        @NonNull
+        Latency latency() {
+            final String[] parts = latency.split(":");
+            switch (parts[0]) {
+                case "none":
+                    return Latency.NONE;
+                case "fixed":
+                    return Latency.fixed(Long.parseLong(parts[1]));
+                case "uniform":
+                    return Latency.uniform(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                case "exp":
+                    return Latency.exponential(Long.parseLong(parts[1]));
+                case "lognormal":
+                    return Latency.logNormal(Long.parseLong(parts[1]),
+                                             Double.parseDouble(parts[2]));
+                default:
+                    throw new IllegalArgumentException("Unknown latency: " + latency);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "concurrency=%d warmup=%ds duration=%ds catalog=%d "
+                                         + "inventory=%d pageSize=%d skus=%d mix=%s latency=%s "
+                                         + "errorRate=%.3f throttle=%.0f seed=%d",
+                                 concurrency, warmup, duration, catalog, inventory, pageSize,
+                                 skus, Arrays.toString(mix), latency, errorRate, throttle, seed);
+        }
+    }
+
+    /**
+     * Growable array of latency samples.
+     */
+    private static final class Samples {
+
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(final long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * Sorts samples, must be called before {@link #percentile(double)}.
+         */
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+
+        long percentile(final double percentile) {
+            if (size == 0) {
+                return 0L;
+            }
+            final int rank = (int) Math.ceil(size * percentile / 100d);
+            return values[Math.max(rank, 1) - 1];
+        }
+    }
+
+    /**
+     * Application stand-in, framework one requires base context.
+     */
+    private static final class LoadTestApplication extends Application {
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+    }
+
+
+    private final Options options;
+    private final HistogramBillingMetrics metrics;
+    private final Random random;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Map<Long, Long> requestTimes = new HashMap<>();
+    private final Map<BillingRequest.Type, Samples> latencies =
+            new EnumMap<>(BillingRequest.Type.class);
+    private final Map<BillingRequest.Type, Map<Status, Integer>> statuses =
+            new EnumMap<>(BillingRequest.Type.class);
+    private final Queue<Purchase> pendingConsumes = new ArrayDeque<>();
+    private AdvancedIabHelper helper;
+    private int outstanding;
+    private boolean inventoryBusy;
+    private boolean purchaseBusy;
+    private boolean measuring;
+    private boolean stopped;
+    private long measureStart;
+    private long measureEnd;
+
+    private LoadDriver(@NonNull final Options options,
+                       @NonNull final HistogramBillingMetrics metrics) {
+        super();
+        this.options = options;
+        this.metrics = metrics;
+        this.random = new Random(options.seed);
+        for (final BillingRequest.Type type : BillingRequest.Type.values()) {
+            latencies.put(type, new Samples());
+            statuses.put(type, new EnumMap<Status, Integer>(Status.class));
+        }
+    }
+
+    @NonNull
+    private static String sku(final int index) {
+        return Payloads.sku(index);
+    }
+
+    /**
+     * Fills catalog with consumable SKUs in the first half and entitlements in the second one,
+     * user owns first entitlements.
+     */
+    @NonNull
+    private static SimulatedStore createStore(@NonNull final Options options) {
+        final SimulatedStore store = new SimulatedStore();
+        for (int i = 0; i < options.catalog; i++) {
+            final SkuType type = i < options.catalog / 2 ? SkuType.CONSUMABLE : SkuType.ENTITLEMENT;
+            store.putSkuDetails(new SkuDetails.Builder(sku(i))
+                                        .setType(type)
+                                        .setProviderInfo(SimulatedBillingProvider.INFO)
+                                        .setTitle("Item " + i)
+                                        .setDescription("Simulated item number " + i)
+                                        .setPrice(String.format(Locale.US, "$%d.99", i % 100))
+                                        .build());
+        }
+        for (int i = 0; i < options.inventory; i++) {
+            store.grant(USER_ID, sku(options.catalog / 2 + i));
+        }
+        return store;
+    }
+
+    @NonNull
+    private static SimulatedBillingProvider createProvider(@NonNull final Context context,
+                                                           @NonNull final Options options) {
+        final SimulatedBillingProvider.Builder builder =
+                new SimulatedBillingProvider.Builder(context, createStore(options))
+                        .setUserId(USER_ID)
+                        .setLatency(options.latency())
+                        .setPageSize(options.pageSize)
+                        .setSeed(options.seed);
+        if (options.throttle > 0d) {
+            builder.setThrottle(options.throttle, options.concurrency);
+        }
+        if (options.errorRate > 0f) {
+            for (final BillingRequest.Type type : BillingRequest.Type.values()) {
+                builder.setErrorRate(type, Status.SERVICE_UNAVAILABLE, options.errorRate / 2f);
+                builder.setErrorRate(type, Status.UNKNOWN_ERROR, options.errorRate / 2f);
+            }
+        }
+        return builder.build();
+    }
+
+    private void post(final long delay, @NonNull final Runnable runnable,
+                      @NonNull final ScheduledExecutorService timer) {
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                handler.post(runnable);
+            }
+        }, delay, TimeUnit.SECONDS);
+    }
+
+    private void start(@NonNull final ScheduledExecutorService timer) {
+        post(options.warmup, new Runnable() {
+            @Override
+            public void run() {
+                metrics.reset();
+                measuring = true;
+                measureStart = System.nanoTime();
+            }
+        }, timer);
+        post(options.warmup + options.duration, new Runnable() {
+            @Override
+            public void run() {
+                measuring = false;
+                stopped = true;
+                measureEnd = System.nanoTime();
+                if (outstanding == 0) {
+                    Looper.getMainLooper().quit();
+                }
+            }
+        }, timer);
+        timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                Looper.getMainLooper().quit();
+            }
+        }, TimeUnit.SECONDS.toMillis(options.warmup + options.duration) + GRACE_PERIOD,
+                       TimeUnit.MILLISECONDS);
+
+        helper = OPFIab.getAdvancedHelper();
+        for (int i = 0; i < options.concurrency; i++) {
+            issue();
+        }
+    }
+
+    private void skuDetails() {
+        final Set<String> skus = new HashSet<>();
+        while (skus.size() < options.skus) {
+            skus.add(sku(random.nextInt(options.catalog)));
+        }
+        helper.skuDetails(skus);
+    }
+
+    /**
+     * Issues next request according to configured mix.
+     */
+    private void issue() {
+        outstanding++;
+        final int[] mix = options.mix;
+        final int roll = random.nextInt(mix[0] + mix[1] + mix[2]);
+        if (roll < mix[0]) {
+            skuDetails();
+        } else if (roll < mix[0] + mix[1]) {
+            if (inventoryBusy) {
+                skuDetails();
+            } else {
+                inventoryBusy = true;
+                helper.inventory(true);
+            }
+        } else if (!pendingConsumes.isEmpty()) {
+            helper.consume(pendingConsumes.poll());
+        } else if (purchaseBusy) {
+            skuDetails();
+        } else {
+            purchaseBusy = true;
+            helper.purchase(sku(random.nextInt(options.catalog / 2)));
+        }
+    }
+
+    @Override
+    public void onRequest(@NonNull final BillingRequest billingRequest) {
+        requestTimes.put(billingRequest.getId(), System.nanoTime());
+    }
+
+    @Override
+    public void onResponse(@NonNull final BillingResponse billingResponse) {
+        final long now = System.nanoTime();
+        final Long requestTime = requestTimes.remove(billingResponse.getRequestId());
+        final BillingRequest.Type type = billingResponse.getType();
+        final Status status = billingResponse.getStatus();
+        if (measuring && requestTime != null) {
+            latencies.get(type).add(now - requestTime);
+            final Map<Status, Integer> typeStatuses = statuses.get(type);
+            final Integer count = typeStatuses.get(status);
+            typeStatuses.put(status, count == null ? 1 : count + 1);
+        }
+        outstanding--;
+        if (stopped) {
+            if (outstanding == 0) {
+                Looper.getMainLooper().quit();
+            }
+            return;
+        }
+        switch (type) {
+            case INVENTORY:
+                final InventoryResponse inventoryResponse = (InventoryResponse) billingResponse;
+                if (status == Status.SUCCESS && inventoryResponse.hasMore()) {
+                    // Next page occupies the same slot
+                    outstanding++;
+                    helper.inventory(false);
+                    return;
+                }
+                inventoryBusy = false;
+                break;
+            case PURCHASE:
+                purchaseBusy = false;
+                final Purchase purchase = ((PurchaseResponse) billingResponse).getPurchase();
+                if (status == Status.SUCCESS && purchase != null) {
+                    outstanding++;
+                    helper.consume(purchase);
+                    return;
+                }
+                break;
+            case CONSUME:
+                final Purchase consumed = ((ConsumeResponse) billingResponse).getPurchase();
+                if (status != Status.SUCCESS && status != Status.ITEM_UNAVAILABLE) {
+                    // Item is still owned, it has to be consumed before next purchase
+                    pendingConsumes.add(consumed);
+                }
+                break;
+            default:
+                break;
+        }
+        issue();
+    }
+
+    private void report(@NonNull final PrintStream out) {
+        final double seconds = (measureEnd - measureStart) / 1e9d;
+        out.println("Options: " + options);
+        out.printf(Locale.US, "%-12s %8s %9s %9s %9s %9s %9s %9s  %s%n", "type", "count", "rps",
+                   "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "statuses");
+        int total = 0;
+        for (final BillingRequest.Type type : BillingRequest.Type.values()) {
+            final Samples samples = latencies.get(type);
+            samples.sort();
+            total += samples.size();
+            out.printf(Locale.US, "%-12s %8d %9.1f", type, samples.size(),
+                       samples.size() / seconds);
+            for (final double percentile : PERCENTILES) {
+                out.printf(Locale.US, " %9.3f", samples.percentile(percentile) / 1e6d);
+            }
+            out.printf(Locale.US, " %9.3f  %s%n", samples.percentile(100d) / 1e6d,
+                       statuses.get(type));
+        }
+        out.printf(Locale.US, "%-12s %8d %9.1f%n", "TOTAL", total, total / seconds);
+        out.println();
+        out.println("Stage p50/p99 upper bounds, us:");
+        for (final BillingRequest.Type type : BillingRequest.Type.values()) {
+            if (metrics.getCount(type) == 0L) {
+                continue;
+            }
+            final StringBuilder builder = new StringBuilder(String.format(Locale.US, "%-12s", type));
+            for (final BillingStage stage : BillingStage.values()) {
+                builder.append(String.format(Locale.US, " %s=%d/%d", stage,
+                                             metrics.getPercentile(type, stage, 50d),
+                                             metrics.getPercentile(type, stage, 99d)));
+            }
+            out.println(builder);
+        }
+    }
+
+    @SuppressWarnings("PMD.DoNotCallSystemExit")
+    public static void main(@Nullable final String... args) {
+        final Options options = Options.parse(args == null ? new String[0] : args);
+        Looper.prepareMainLooper();
+
+        final Application application = new LoadTestApplication();
+        final HistogramBillingMetrics metrics = new HistogramBillingMetrics();
+        final LoadDriver driver = new LoadDriver(options, metrics);
+        final Configuration configuration = new Configuration.Builder()
+                .addBillingProvider(createProvider(application, options))
+                .setBillingListener(driver)
+                .setBillingMetrics(metrics)
+                .build();
+        OPFIab.init(application, configuration);
+
+        final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "LoadDriverTimer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        driver.start(timer);
+        Looper.loop();
+        timer.shutdownNow();
+
+        driver.report(System.out);
+        // Library worker threads are not daemons
+        System.exit(0);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.onepf.opfiab.benchmark;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.model.BillingProviderInfo;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.SkuType;
+import org.onepf.opfiab.verification.VerificationResult;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Realistic data shared by benchmarks.
+ * <br>
+ * Google Play JSON mimics data returned by In-App Billing v3, including long purchase tokens.
+ */
+public final class Payloads {
+
+    public static final BillingProviderInfo PROVIDER_INFO =
+            new BillingProviderInfo("Google", "com.android.vending");
+
+    private static final String PACKAGE_NAME = "org.onepf.opfiab.trivialdrive";
+    private static final long PURCHASE_TIME = 1434000000000L;
+    private static final int TOKEN_LENGTH = 170;
+
+    private Payloads() {
+        throw new UnsupportedOperationException();
+    }
+
+    @NonNull
+    public static String sku(final int index) {
+        return String.format(Locale.US, "%s.sku_%05d", PACKAGE_NAME, index);
+    }
+
+    @NonNull
+    private static String token(final int index) {
+        final StringBuilder builder = new StringBuilder(TOKEN_LENGTH);
+        builder.append(String.format(Locale.US, "%08x", index));
+        while (builder.length() < TOKEN_LENGTH) {
+            builder.append("pgbmfcfjmnlgkbgjmdpejfng.AO-J1OyOnRHhS9sKLXd6y1XmFCd4fo");
+        }
+        builder.setLength(TOKEN_LENGTH);
+        return builder.toString();
+    }
+
+    /**
+     * Builds purchase data in Google Play format.
+     *
+     * @param index Index of the purchase, used to make purchase unique.
+     * @return JSON string.
+     */
+    @NonNull
+    public static String googlePurchaseJson(final int index) {
+        return "{\"orderId\":\"12999763169054705758." + (1371079406387615L + index) + "\","
+                + "\"packageName\":\"" + PACKAGE_NAME + "\","
+                + "\"productId\":\"" + sku(index) + "\","
+                + "\"purchaseTime\":" + (PURCHASE_TIME + index) + ","
+                + "\"purchaseState\":0,"
+                + "\"developerPayload\":\"bGoa+V7g/yqDXvKRqq+JTFn4uQZbPiQJo4pf9RzJ\","
+                + "\"purchaseToken\":\"" + token(index) + "\","
+                + "\"autoRenewing\":false}";
+    }
+
+    /**
+     * Builds SKU details data in Google Play format.
+     *
+     * @param index Index of the SKU, used to make SKU unique.
+     * @return JSON string.
+     */
+    @NonNull
+    public static String googleSkuDetailsJson(final int index) {
+        return "{\"productId\":\"" + sku(index) + "\","
+                + "\"type\":\"inapp\","
+                + "\"price\":\"$7.99\","
+                + "\"price_amount_micros\":7990000,"
+                + "\"price_currency_code\":\"USD\","
+                + "\"title\":\"Premium upgrade " + index + " (TrivialDrive)\","
+                + "\"description\":\"Unlocks premium features, like fancy cars and tracks.\"}";
+    }
+
+    /**
+     * Builds purchase with the supplied data and signature.
+     *
+     * @param index     Index of the purchase, used to make purchase unique.
+     * @param signature Signature to store as purchase token, can be null.
+     * @return New purchase object.
+     */
+    @NonNull
+    public static Purchase purchase(final int index, final String signature) {
+        return new Purchase.Builder(sku(index))
+                .setType(SkuType.CONSUMABLE)
+                .setProviderInfo(PROVIDER_INFO)
+                .setOriginalJson(googlePurchaseJson(index))
+                .setToken(signature == null ? token(index) : signature)
+                .setPurchaseTime(PURCHASE_TIME + index)
+                .build();
+    }
+
+    @NonNull
+    public static List<Purchase> purchases(final int size) {
+        final List<Purchase> purchases = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            purchases.add(purchase(i, null));
+        }
+        return purchases;
+    }
+
+    @NonNull
+    public static Map<Purchase, VerificationResult> inventory(final int size) {
+        final Map<Purchase, VerificationResult> inventory = new LinkedHashMap<>(size);
+        for (final Purchase purchase : purchases(size)) {
+            inventory.put(purchase, VerificationResult.SUCCESS);
+        }
+        return inventory;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.onepf.opfiab.benchmark;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Base64;
+
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.verification.PublicKeyPurchaseVerifier;
+import org.onepf.opfiab.verification.VerificationResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures signature verification with {@link PublicKeyPurchaseVerifier}.
+ * <br>
+ * Purchases are signed with a key pair generated for the benchmark, signature is stored as
+ * purchase token.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class PurchaseVerifierBenchmark {
+
+    private static final String KEY_ALGORITHM = "RSA";
+    private static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+    private static final int KEY_SIZE = 2048;
+    /**
+     * Exceeds verifier's memo size, so cycling through all purchases never hits memoized results.
+     */
+    private static final int DISTINCT_PURCHASES = 2048;
+
+    private final List<Purchase> purchases = new ArrayList<>(DISTINCT_PURCHASES);
+    private String publicKey;
+    private PublicKeyPurchaseVerifier verifier;
+    private int index;
+
+    @NonNull
+    private static String sign(@NonNull final KeyPair keyPair, @NonNull final String data)
+            throws GeneralSecurityException {
+        final Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+        signature.initSign(keyPair.getPrivate());
+        signature.update(data.getBytes(Charset.forName("UTF-8")));
+        return Base64.encodeToString(signature.sign(), Base64.NO_WRAP);
+    }
+
+    @Setup
+    public void setup() throws GeneralSecurityException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_ALGORITHM);
+        generator.initialize(KEY_SIZE);
+        final KeyPair keyPair = generator.generateKeyPair();
+        publicKey = Base64.encodeToString(keyPair.getPublic().getEncoded(), Base64.NO_WRAP);
+        for (int i = 0; i < DISTINCT_PURCHASES; i++) {
+            final String data = Payloads.googlePurchaseJson(i);
+            purchases.add(Payloads.purchase(i, sign(keyPair, data)));
+        }
+        verifier = new TokenPurchaseVerifier(publicKey, false);
+    }
+
+    @Benchmark
+    public VerificationResult verify() {
+        index = (index + 1) % DISTINCT_PURCHASES;
+        return verifier.verify(purchases.get(index));
+    }
+
+    @Benchmark
+    public VerificationResult verifyMemoized() {
+        verifier.verify(purchases.get(0));
+        return verifier.verify(purchases.get(0));
+    }
+
+    /**
+     * Verifies inventory with a fresh verifier, so no results are memoized.
+     * <br>
+     * Includes public key decoding, which happens once per verifier.
+     */
+    @Benchmark
+    public List<VerificationResult> verifyAll(final Batch batch) {
+        return new TokenPurchaseVerifier(publicKey, batch.parallel)
+                .verifyAll(purchases.subList(0, batch.size));
+    }
+
+    @State(Scope.Thread)
+    public static class Batch {
+
+        @Param({"10", "100", "1000"})
+        public int size;
+
+        @Param({"false", "true"})
+        public boolean parallel;
+    }
+
+    private static final class TokenPurchaseVerifier extends PublicKeyPurchaseVerifier {
+
+        @NonNull
+        private final String publicKey;
+
+        TokenPurchaseVerifier(@NonNull final String publicKey, final boolean parallel) {
+            super(parallel);
+            this.publicKey = publicKey;
+        }
+
+        @NonNull
+        @Override
+        protected String getPublicKey() {
+            return publicKey;
+        }
+
+        @Nullable
+        @Override
+        protected String getData(@NonNull final Purchase purchase) {
+            return purchase.getOriginalJson();
+        }
+
+        @Nullable
+        @Override
+        protected String getSignature(@NonNull final Purchase purchase) {
+            return purchase.getToken();
+        }
+    }
+}
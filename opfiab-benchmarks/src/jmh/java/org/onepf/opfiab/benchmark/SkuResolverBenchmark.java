@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.onepf.opfiab.benchmark;
+
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.SkuDetails;
+import org.onepf.opfiab.sku.MapSkuResolver;
+import org.onepf.opfiab.util.OPFIabUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures SKU mapping done by providers for every request and response.
+ * <br>
+ * Only half of the SKUs have a mapping, the rest are passed through unchanged.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class SkuResolverBenchmark {
+
+    private static final String RESOLVED_PREFIX = "com.example.store.";
+
+    @Param({"10", "100", "1000"})
+    public int size;
+
+    private final MapSkuResolver resolver = new MapSkuResolver();
+    private final List<String> skus = new ArrayList<>();
+    private final List<Purchase> purchases = new ArrayList<>();
+    private final List<SkuDetails> skusDetails = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < size; i++) {
+            final String sku = Payloads.sku(i);
+            final boolean mapped = i % 2 == 0;
+            if (mapped) {
+                resolver.add(sku, RESOLVED_PREFIX + sku);
+            }
+            final String resolvedSku = mapped ? RESOLVED_PREFIX + sku : sku;
+            skus.add(sku);
+            purchases.add(new Purchase.Builder(resolvedSku)
+                                  .setPurchase(Payloads.purchase(i, null))
+                                  .build());
+            skusDetails.add(new SkuDetails.Builder(resolvedSku)
+                                    .setProviderInfo(Payloads.PROVIDER_INFO)
+                                    .setTitle("Title " + i)
+                                    .setPrice("$0.99")
+                                    .build());
+        }
+    }
+
+    @Benchmark
+    public Object resolveSkus() {
+        return OPFIabUtils.resolveSkus(resolver, skus);
+    }
+
+    @Benchmark
+    public void revertPurchases(final Blackhole blackhole) {
+        for (final Purchase purchase : purchases) {
+            blackhole.consume(OPFIabUtils.revert(resolver, purchase));
+        }
+    }
+
+    @Benchmark
+    public void revertSkusDetails(final Blackhole blackhole) {
+        for (final SkuDetails skuDetails : skusDetails) {
+            blackhole.consume(OPFIabUtils.revert(resolver, skuDetails));
+        }
+    }
+}
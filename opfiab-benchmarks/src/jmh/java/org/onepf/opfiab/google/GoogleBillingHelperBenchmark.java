@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.google;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.benchmark.Payloads;
+import org.onepf.opfiab.billing.ServiceBinder;
+import org.onepf.opfiab.google.model.ItemType;
+import org.onepf.opfiab.simulated.Latency;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link GoogleBillingHelper} loads against {@link LocalBillingService}, the whole AIDL
+ * call path is exercised except Binder marshalling.
+ * <br>
+ * Use {@code -prof gc} to see allocation of inventory aggregation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class GoogleBillingHelperBenchmark {
+
+    private static final String PACKAGE_NAME = "org.onepf.opfiab.trivialdrive";
+    /**
+     * Length of Base64 encoded SHA1withRSA signature made with 2048 bit key.
+     */
+    private static final int SIGNATURE_LENGTH = 344;
+
+    /**
+     * Application stand-in, framework one requires base context.
+     */
+    private static final class BenchmarkApplication extends Application {
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+
+        @Override
+        public String getPackageName() {
+            return PACKAGE_NAME;
+        }
+    }
+
+    @NonNull
+    private static GoogleBillingHelper createHelper(final int concurrency,
+                                                    @NonNull final ServiceBinder serviceBinder) {
+        return new GoogleBillingHelper(new BenchmarkApplication(), concurrency, true,
+                                       serviceBinder);
+    }
+
+    /**
+     * Catalog of consumable SKUs, details of every SKU are requested.
+     */
+    @State(Scope.Thread)
+    public static class SkuDetailsState {
+
+        @Param({"20", "200", "1000"})
+        public int skus;
+
+        @Param({"1", "4"})
+        public int concurrency;
+
+        /**
+         * Latency of a single AIDL call in milliseconds.
+         */
+        @Param({"0", "2"})
+        public long latency;
+
+        private final List<String> skuList = new ArrayList<>();
+        private GoogleBillingHelper helper;
+
+        @Setup
+        public void setup() {
+            final LocalBillingService service = new LocalBillingService();
+            service.setLatency(Latency.fixed(latency));
+            for (int i = 0; i < skus; i++) {
+                final String sku = Payloads.sku(i);
+                service.putSkuDetails(ItemType.CONSUMABLE_OR_ENTITLEMENT, sku,
+                                      Payloads.googleSkuDetailsJson(i));
+                skuList.add(sku);
+            }
+            helper = createHelper(concurrency, service);
+        }
+    }
+
+    /**
+     * Inventory of owned purchases, loaded page by page with continuation token.
+     */
+    @State(Scope.Thread)
+    public static class InventoryState {
+
+        @Param({"1000", "10000", "50000"})
+        public int purchases;
+
+        @Param({"200"})
+        public int pageSize;
+
+        private GoogleBillingHelper helper;
+
+        @Setup
+        public void setup() {
+            final StringBuilder signature = new StringBuilder(SIGNATURE_LENGTH);
+            while (signature.length() < SIGNATURE_LENGTH) {
+                signature.append("bGoa+V7g/yqDXvKRqq+JTFn4uQZbPiQJo4pf9RzJ");
+            }
+            signature.setLength(SIGNATURE_LENGTH);
+            final LocalBillingService service = new LocalBillingService();
+            service.setPageSize(pageSize);
+            for (int i = 0; i < purchases; i++) {
+                service.addPurchase(ItemType.CONSUMABLE_OR_ENTITLEMENT, Payloads.sku(i),
+                                    String.valueOf(i), Payloads.googlePurchaseJson(i),
+                                    signature.toString());
+            }
+            helper = createHelper(1, service);
+        }
+    }
+
+    @Benchmark
+    public Bundle skuDetails(@NonNull final SkuDetailsState state) {
+        return state.helper.getSkuDetails(state.skuList);
+    }
+
+    @Benchmark
+    public int inventory(@NonNull final InventoryState state) {
+        final GoogleBillingHelper helper = state.helper;
+        Bundle page = helper.getPurchases(true);
+        int size = 0;
+        while (GoogleUtils.getResponse(page) == Response.OK) {
+            final List<String> dataList = GoogleUtils.getDataList(page);
+            size += dataList == null ? 0 : dataList.size();
+            if (GoogleUtils.getContinuationToken(page) == null) {
+                return size;
+            }
+            page = helper.getPurchases(false);
+        }
+        throw new IllegalStateException("Inventory request failed: " + GoogleUtils.getResponse(page));
+    }
+}
@@ -0,0 +1,420 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.google;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.TransactionTooLargeException;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.android.vending.billing.IInAppBillingService;
+
+import org.onepf.opfiab.billing.ServiceBinder;
+import org.onepf.opfiab.google.model.ItemType;
+import org.onepf.opfiab.simulated.Latency;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-process {@link IInAppBillingService} implementation, allows to run {@link GoogleBillingHelper}
+ * without Google Play.
+ * <br>
+ * Serves SKU details and purchases supplied up front, pages purchases with
+ * {@code INAPP_CONTINUATION_TOKEN} and simulates latency of every call. Unless scripted otherwise
+ * with {@link #script(Call, Response...)}, every call succeeds. Replies which wouldn't fit in a
+ * single Binder transaction fail with {@link TransactionTooLargeException}.
+ * <br>
+ * Also serves as a {@link ServiceBinder}, connecting helper to this service right away.
+ */
+public class LocalBillingService extends IInAppBillingService.Stub implements ServiceBinder {
+
+    /**
+     * Size of Binder transaction buffer, shared by all transactions of a process.
+     */
+    public static final int TRANSACTION_LIMIT = 1024 * 1024; // 1 MB
+
+    private static final ComponentName COMPONENT =
+            new ComponentName("com.android.vending", LocalBillingService.class.getName());
+
+    private static final String RESPONSE_CODE = "RESPONSE_CODE";
+    private static final String SKU_LIST = "ITEM_ID_LIST";
+    private static final String SKU_DETAILS_LIST = "DETAILS_LIST";
+    private static final String ITEM_LIST = "INAPP_PURCHASE_ITEM_LIST";
+    private static final String PURCHASE_DATA_LIST = "INAPP_PURCHASE_DATA_LIST";
+    private static final String SIGNATURE_LIST = "INAPP_DATA_SIGNATURE_LIST";
+    private static final String CONTINUATION_TOKEN = "INAPP_CONTINUATION_TOKEN";
+    /**
+     * Maximum number of SKUs Google Play accepts in a single details request.
+     */
+    private static final int MAX_SKUS = 20;
+
+    /**
+     * Calls of {@link IInAppBillingService} which responses can be scripted.
+     */
+    public enum Call {
+        IS_BILLING_SUPPORTED,
+        GET_SKU_DETAILS,
+        GET_BUY_INTENT,
+        GET_PURCHASES,
+        CONSUME_PURCHASE,
+    }
+
+    /**
+     * Owned purchase as it's returned by {@link #getPurchases(int, String, String, String)}.
+     */
+    private static final class OwnedPurchase {
+
+        @NonNull
+        private final String sku;
+        @NonNull
+        private final String token;
+        @NonNull
+        private final String purchaseData;
+        @NonNull
+        private final String signature;
+
+        OwnedPurchase(@NonNull final String sku,
+                      @NonNull final String token,
+                      @NonNull final String purchaseData,
+                      @NonNull final String signature) {
+            this.sku = sku;
+            this.token = token;
+            this.purchaseData = purchaseData;
+            this.signature = signature;
+        }
+    }
+
+
+    private final Map<Call, Queue<Response>> scripts = new EnumMap<>(Call.class);
+    private final Map<ItemType, Map<String, String>> skuDetails = new EnumMap<>(ItemType.class);
+    private final Map<ItemType, List<OwnedPurchase>> purchases = new EnumMap<>(ItemType.class);
+    @NonNull
+    private volatile Latency latency = Latency.NONE;
+    private volatile int pageSize = 100;
+    private volatile int transactionLimit = TRANSACTION_LIMIT;
+
+    /**
+     * Estimates size of a string written to {@code Parcel}: length followed by UTF-16 characters
+     * with terminating zero, padded to 4 bytes.
+     */
+    private static int parcelSize(@Nullable final String string) {
+        return string == null ? 4 : 4 + ((string.length() + 1) * 2 + 3 & ~3);
+    }
+
+    /**
+     * Estimates size of a bundle written to {@code Parcel}.
+     */
+    private static int parcelSize(@NonNull final Bundle bundle) {
+        // Length, magic and number of entries
+        int size = 12;
+        for (final String key : bundle.keySet()) {
+            final Object value = bundle.get(key);
+            // Key and value type
+            size += parcelSize(key) + 4;
+            if (value instanceof String) {
+                size += parcelSize((String) value);
+            } else if (value instanceof Collection) {
+                size += 4;
+                for (final Object item : (Collection<?>) value) {
+                    size += 4 + parcelSize((String) item);
+                }
+            } else {
+                size += 4;
+            }
+        }
+        return size;
+    }
+
+    public LocalBillingService() {
+        super();
+        for (final Call call : Call.values()) {
+            scripts.put(call, new ConcurrentLinkedQueue<Response>());
+        }
+        for (final ItemType itemType : ItemType.values()) {
+            skuDetails.put(itemType, new ConcurrentHashMap<String, String>());
+            purchases.put(itemType, new ArrayList<OwnedPurchase>());
+        }
+    }
+
+    /**
+     * Sets latency of every call.
+     *
+     * @param latency Latency of a single call.
+     */
+    public void setLatency(@NonNull final Latency latency) {
+        this.latency = latency;
+    }
+
+    /**
+     * Sets maximum number of purchases returned by a single
+     * {@link #getPurchases(int, String, String, String)} call.
+     *
+     * @param pageSize Purchases page size.
+     */
+    public void setPageSize(final int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("Page size must be positive.");
+        }
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Sets size of a reply after which call fails with {@link TransactionTooLargeException}.
+     * Default value is {@link #TRANSACTION_LIMIT}.
+     *
+     * @param transactionLimit Maximum reply size in bytes.
+     */
+    public void setTransactionLimit(final int transactionLimit) {
+        this.transactionLimit = transactionLimit;
+    }
+
+    /**
+     * Makes next calls of supplied type return supplied responses, one response per call.
+     *
+     * @param call      Type of scripted calls.
+     * @param responses Responses to return instead of {@link Response#OK}.
+     */
+    public void script(@NonNull final Call call, @NonNull final Response... responses) {
+        final Queue<Response> script = scripts.get(call);
+        for (final Response response : responses) {
+            script.add(response);
+        }
+    }
+
+    /**
+     * Adds SKU details available for purchase.
+     *
+     * @param itemType Type of the SKU.
+     * @param sku      SKU.
+     * @param json     SKU details JSON in Google Play format.
+     */
+    public void putSkuDetails(@NonNull final ItemType itemType,
+                              @NonNull final String sku,
+                              @NonNull final String json) {
+        skuDetails.get(itemType).put(sku, json);
+    }
+
+    /**
+     * Adds purchase owned by user.
+     *
+     * @param itemType     Type of the purchased SKU.
+     * @param sku          Purchased SKU.
+     * @param token        Token used to consume purchase.
+     * @param purchaseData Purchase JSON in Google Play format.
+     * @param signature    Signature of the purchase JSON.
+     */
+    public void addPurchase(@NonNull final ItemType itemType,
+                            @NonNull final String sku,
+                            @NonNull final String token,
+                            @NonNull final String purchaseData,
+                            @NonNull final String signature) {
+        final List<OwnedPurchase> list = purchases.get(itemType);
+        synchronized (list) {
+            list.add(new OwnedPurchase(sku, token, purchaseData, signature));
+        }
+    }
+
+    /**
+     * Removes all owned purchases.
+     */
+    public void clearPurchases() {
+        for (final List<OwnedPurchase> list : purchases.values()) {
+            synchronized (list) {
+                list.clear();
+            }
+        }
+    }
+
+    /**
+     * Simulates call latency and picks its response.
+     *
+     * @param call Type of the call.
+     * @return Scripted response, {@link Response#OK} if there's none.
+     */
+    @NonNull
+    private Response call(@NonNull final Call call) {
+        final long nanos = latency.next(ThreadLocalRandom.current());
+        if (nanos > 0L) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(nanos);
+            } catch (InterruptedException exception) {
+                OPFLog.e("Simulated latency interrupted.", exception);
+                Thread.currentThread().interrupt();
+            }
+        }
+        final Response response = scripts.get(call).poll();
+        return response == null ? Response.OK : response;
+    }
+
+    /**
+     * Checks if bundle fits in a single Binder transaction.
+     *
+     * @param bundle Bundle to check.
+     * @return Supplied bundle.
+     * @throws TransactionTooLargeException if bundle exceeds transaction limit.
+     */
+    @NonNull
+    private Bundle checkSize(@NonNull final Bundle bundle) throws RemoteException {
+        final int size = parcelSize(bundle);
+        if (size > transactionLimit) {
+            OPFLog.e("Transaction is too large: %d bytes.", size);
+            throw new TransactionTooLargeException();
+        }
+        return bundle;
+    }
+
+    @NonNull
+    private Bundle reply(@NonNull final Response response) {
+        final Bundle bundle = new Bundle();
+        bundle.putInt(RESPONSE_CODE, response.code());
+        return bundle;
+    }
+
+    @Override
+    public int isBillingSupported(final int apiVersion, final String packageName,
+                                  final String type) {
+        return call(Call.IS_BILLING_SUPPORTED).code();
+    }
+
+    @Override
+    public Bundle getSkuDetails(final int apiVersion, final String packageName,
+                                final String type, final Bundle skusBundle)
+            throws RemoteException {
+        checkSize(skusBundle);
+        final Response response = call(Call.GET_SKU_DETAILS);
+        final ItemType itemType = ItemType.fromCode(type);
+        final ArrayList<String> skus = skusBundle.getStringArrayList(SKU_LIST);
+        if (response != Response.OK) {
+            return reply(response);
+        } else if (itemType == null || skus == null || skus.size() > MAX_SKUS) {
+            return reply(Response.DEVELOPER_ERROR);
+        }
+        final Map<String, String> catalog = skuDetails.get(itemType);
+        final ArrayList<String> details = new ArrayList<>(skus.size());
+        for (final String sku : skus) {
+            final String json = catalog.get(sku);
+            if (json != null) {
+                details.add(json);
+            }
+        }
+        final Bundle bundle = reply(Response.OK);
+        bundle.putStringArrayList(SKU_DETAILS_LIST, details);
+        return checkSize(bundle);
+    }
+
+    /**
+     * Buy intent can't be launched without Google Play, only unsuccessful responses are supported.
+     * <br>
+     * Use {@link #addPurchase(ItemType, String, String, String, String)} to grant purchases.
+     */
+    @Override
+    public Bundle getBuyIntent(final int apiVersion, final String packageName, final String sku,
+                               final String type, final String developerPayload) {
+        final Response response = call(Call.GET_BUY_INTENT);
+        return reply(response == Response.OK ? Response.ERROR : response);
+    }
+
+    @Override
+    public Bundle getPurchases(final int apiVersion, final String packageName, final String type,
+                               final String continuationToken) throws RemoteException {
+        final Response response = call(Call.GET_PURCHASES);
+        final ItemType itemType = ItemType.fromCode(type);
+        final int offset;
+        try {
+            offset = continuationToken == null ? 0 : Integer.parseInt(continuationToken);
+        } catch (NumberFormatException exception) {
+            return reply(Response.DEVELOPER_ERROR);
+        }
+        if (response != Response.OK) {
+            return reply(response);
+        } else if (itemType == null || offset < 0) {
+            return reply(Response.DEVELOPER_ERROR);
+        }
+        final ArrayList<String> itemList = new ArrayList<>();
+        final ArrayList<String> purchaseDataList = new ArrayList<>();
+        final ArrayList<String> signatureList = new ArrayList<>();
+        final List<OwnedPurchase> list = purchases.get(itemType);
+        final int size;
+        final int end;
+        synchronized (list) {
+            size = list.size();
+            end = Math.min(offset + pageSize, size);
+            for (int i = offset; i < end; i++) {
+                final OwnedPurchase purchase = list.get(i);
+                itemList.add(purchase.sku);
+                purchaseDataList.add(purchase.purchaseData);
+                signatureList.add(purchase.signature);
+            }
+        }
+        final Bundle bundle = reply(Response.OK);
+        bundle.putStringArrayList(ITEM_LIST, itemList);
+        bundle.putStringArrayList(PURCHASE_DATA_LIST, purchaseDataList);
+        bundle.putStringArrayList(SIGNATURE_LIST, signatureList);
+        if (end < size) {
+            bundle.putString(CONTINUATION_TOKEN, String.valueOf(end));
+        }
+        return checkSize(bundle);
+    }
+
+    @Override
+    public int consumePurchase(final int apiVersion, final String packageName,
+                               final String purchaseToken) {
+        final Response response = call(Call.CONSUME_PURCHASE);
+        if (response != Response.OK) {
+            return response.code();
+        }
+        final List<OwnedPurchase> list = purchases.get(ItemType.CONSUMABLE_OR_ENTITLEMENT);
+        synchronized (list) {
+            for (int i = 0; i < list.size(); i++) {
+                if (list.get(i).token.equals(purchaseToken)) {
+                    list.remove(i);
+                    return Response.OK.code();
+                }
+            }
+        }
+        return Response.ITEM_NOT_OWNED.code();
+    }
+
+    @Override
+    public boolean bind(@NonNull final Context context,
+                        @NonNull final Intent serviceIntent,
+                        @NonNull final ServiceConnection connection) {
+        connection.onServiceConnected(COMPONENT, this);
+        return true;
+    }
+
+    @Override
+    public void unbind(@NonNull final Context context,
+                       @NonNull final ServiceConnection connection) {
+        // Local service is never disconnected
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.io.FileDescriptor;
+
+/**
+ * JVM stand-in for the framework {@code Binder}, which is backed by native code.
+ * <br>
+ * Only in-process usage is supported: AIDL stubs are returned from {@link #queryLocalInterface}
+ * and called directly, same as framework does for local services. Nothing is ever marshalled.
+ */
+public class Binder implements IBinder {
+
+    private IInterface owner;
+    private String descriptor;
+
+    public static int getCallingPid() {
+        return 0;
+    }
+
+    public static int getCallingUid() {
+        return 0;
+    }
+
+    public static long clearCallingIdentity() {
+        return 0L;
+    }
+
+    public static void restoreCallingIdentity(final long token) {
+        // Nothing to restore
+    }
+
+    public static void flushPendingCommands() {
+        // Nothing to flush
+    }
+
+    public void attachInterface(final IInterface owner, final String descriptor) {
+        this.owner = owner;
+        this.descriptor = descriptor;
+    }
+
+    @Override
+    public String getInterfaceDescriptor() {
+        return descriptor;
+    }
+
+    @Override
+    public boolean pingBinder() {
+        return true;
+    }
+
+    @Override
+    public boolean isBinderAlive() {
+        return true;
+    }
+
+    @Override
+    public IInterface queryLocalInterface(final String descriptor) {
+        return descriptor != null && descriptor.equals(this.descriptor) ? owner : null;
+    }
+
+    protected boolean onTransact(final int code, final Parcel data, final Parcel reply,
+                                 final int flags) throws RemoteException {
+        return false;
+    }
+
+    @Override
+    public final boolean transact(final int code, final Parcel data, final Parcel reply,
+                                  final int flags) throws RemoteException {
+        return onTransact(code, data, reply, flags);
+    }
+
+    @Override
+    public void dump(final FileDescriptor fd, final String[] args) {
+        // Nothing to dump
+    }
+
+    @Override
+    public void dumpAsync(final FileDescriptor fd, final String[] args) {
+        // Nothing to dump
+    }
+
+    @Override
+    public void linkToDeath(final DeathRecipient recipient, final int flags) {
+        // Local binder never dies
+    }
+
+    @Override
+    public boolean unlinkToDeath(final DeathRecipient recipient, final int flags) {
+        return true;
+    }
+}
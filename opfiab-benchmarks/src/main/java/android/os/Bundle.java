@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JVM stand-in for the framework {@code Bundle}, which relies on libcore only APIs.
+ * <br>
+ * Values are kept in a plain map, only accessors used by the library are provided.
+ */
+public final class Bundle {
+
+    private final Map<String, Object> map = new HashMap<>();
+
+    public int size() {
+        return map.size();
+    }
+
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    public boolean containsKey(final String key) {
+        return map.containsKey(key);
+    }
+
+    public Object get(final String key) {
+        return map.get(key);
+    }
+
+    public void remove(final String key) {
+        map.remove(key);
+    }
+
+    public Set<String> keySet() {
+        return map.keySet();
+    }
+
+    public void putInt(final String key, final int value) {
+        map.put(key, value);
+    }
+
+    public int getInt(final String key) {
+        return getInt(key, 0);
+    }
+
+    public int getInt(final String key, final int defaultValue) {
+        final Object value = map.get(key);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public void putString(final String key, final String value) {
+        map.put(key, value);
+    }
+
+    public String getString(final String key) {
+        final Object value = map.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    public void putStringArrayList(final String key, final ArrayList<String> value) {
+        map.put(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ArrayList<String> getStringArrayList(final String key) {
+        final Object value = map.get(key);
+        return value instanceof ArrayList ? (ArrayList<String>) value : null;
+    }
+
+    public void putParcelable(final String key, final Parcelable value) {
+        map.put(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> T getParcelable(final String key) {
+        final Object value = map.get(key);
+        return value instanceof Parcelable ? (T) value : null;
+    }
+
+    public void putSerializable(final String key, final Serializable value) {
+        map.put(key, value);
+    }
+
+    public Serializable getSerializable(final String key) {
+        final Object value = map.get(key);
+        return value instanceof Serializable ? (Serializable) value : null;
+    }
+
+    @Override
+    public String toString() {
+        return "Bundle[" + map + "]";
+    }
+}
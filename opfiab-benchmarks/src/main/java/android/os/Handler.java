@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.os;
+
+/**
+ * JVM stand-in for the framework {@code Handler}.
+ * <br>
+ * Posted messages are executed on the {@link Looper} thread, see {@link Looper}.
+ * Delayed messages are never executed, timeouts are not expected to fire in benchmarks.
+ */
+public class Handler {
+
+    private final Looper looper;
+
+    public Handler() {
+        this(Looper.getMainLooper());
+    }
+
+    public Handler(final Looper looper) {
+        this.looper = looper;
+    }
+
+    private boolean enqueue(final Runnable runnable) {
+        looper.enqueue(runnable);
+        return true;
+    }
+
+    public void handleMessage(final Message msg) {
+        // Intended to be overridden
+    }
+
+    public void dispatchMessage(final Message msg) {
+        handleMessage(msg);
+    }
+
+    public final Message obtainMessage() {
+        return Message.obtain(this);
+    }
+
+    public final Message obtainMessage(final int what) {
+        return Message.obtain(this, what);
+    }
+
+    public final Looper getLooper() {
+        return looper;
+    }
+
+    public final boolean sendMessage(final Message msg) {
+        return enqueue(new Runnable() {
+            @Override
+            public void run() {
+                dispatchMessage(msg);
+            }
+        });
+    }
+
+    public final boolean sendEmptyMessage(final int what) {
+        return sendMessage(obtainMessage(what));
+    }
+
+    public final boolean post(final Runnable runnable) {
+        return enqueue(runnable);
+    }
+
+    public final boolean postDelayed(final Runnable runnable, final long delayMillis) {
+        return delayMillis <= 0L ? post(runnable) : true;
+    }
+
+    public final void removeCallbacks(final Runnable runnable) {
+        looper.remove(runnable);
+    }
+
+    public final void removeCallbacksAndMessages(final Object token) {
+        if (token == null) {
+            looper.clear();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.os;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * JVM stand-in for the framework {@code Looper}, which depends on native message queue.
+ * <br>
+ * There's only one looper, bound to the thread that called {@link #prepareMainLooper()} last.
+ * Messages posted from that thread are executed right away, messages posted from other threads
+ * wait until {@link #loop()} picks them up or until the next post from the looper thread.
+ */
+public final class Looper {
+
+    private static final Looper MAIN_LOOPER = new Looper();
+    private static final ThreadLocal<Boolean> DISPATCHING = new ThreadLocal<>();
+
+    private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+
+    private volatile Thread thread;
+    private volatile boolean quitting;
+
+    private Looper() {
+        super();
+    }
+
+    /**
+     * Binds main looper to the current thread.
+     * <br>
+     * Unlike the framework version can be called more than once, e.g. by each benchmark fork.
+     */
+    public static void prepareMainLooper() {
+        MAIN_LOOPER.thread = Thread.currentThread();
+        MAIN_LOOPER.quitting = false;
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN_LOOPER;
+    }
+
+    public static Looper myLooper() {
+        return MAIN_LOOPER.thread == Thread.currentThread() ? MAIN_LOOPER : null;
+    }
+
+    /**
+     * Executes posted messages on the current thread until {@link #quit()} is called.
+     */
+    public static void loop() {
+        final Looper looper = myLooper();
+        if (looper == null) {
+            throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+        }
+        DISPATCHING.set(Boolean.TRUE);
+        try {
+            while (!looper.quitting) {
+                looper.queue.take().run();
+            }
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        } finally {
+            DISPATCHING.remove();
+        }
+    }
+
+    /**
+     * Executes posted messages on the current thread until the queue is empty.
+     */
+    private void drain() {
+        if (DISPATCHING.get() != null) {
+            // Nested post, message will be picked up by the outer loop
+            return;
+        }
+        DISPATCHING.set(Boolean.TRUE);
+        try {
+            Runnable runnable;
+            while ((runnable = queue.poll()) != null) {
+                runnable.run();
+            }
+        } finally {
+            DISPATCHING.remove();
+        }
+    }
+
+    void enqueue(final Runnable runnable) {
+        queue.add(runnable);
+        if (thread == Thread.currentThread()) {
+            drain();
+        }
+    }
+
+    void remove(final Runnable runnable) {
+        queue.remove(runnable);
+    }
+
+    void clear() {
+        queue.clear();
+    }
+
+    public void quit() {
+        quitting = true;
+        // Wake up the loop
+        queue.add(new Runnable() {
+            @Override
+            public void run() {
+                // Nothing to do
+            }
+        });
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package android.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * JVM stand-in for the framework {@code Base64}, which relies on libcore specific methods.
+ * <br>
+ * Delegates to {@link java.util.Base64}.
+ */
+public final class Base64 {
+
+    public static final int DEFAULT = 0;
+    public static final int NO_PADDING = 1;
+    public static final int NO_WRAP = 2;
+    public static final int CRLF = 4;
+    public static final int URL_SAFE = 8;
+    public static final int NO_CLOSE = 16;
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final int LINE_LENGTH = 76;
+
+    private Base64() {
+        throw new UnsupportedOperationException();
+    }
+
+    private static java.util.Base64.Encoder encoder(final int flags) {
+        java.util.Base64.Encoder encoder;
+        if ((flags & URL_SAFE) != 0) {
+            encoder = java.util.Base64.getUrlEncoder();
+        } else if ((flags & NO_WRAP) != 0) {
+            encoder = java.util.Base64.getEncoder();
+        } else {
+            final byte[] separator = (flags & CRLF) != 0 ? new byte[]{'\r', '\n'} : new byte[]{'\n'};
+            encoder = java.util.Base64.getMimeEncoder(LINE_LENGTH, separator);
+        }
+        if ((flags & NO_PADDING) != 0) {
+            encoder = encoder.withoutPadding();
+        }
+        return encoder;
+    }
+
+    public static byte[] decode(final String str, final int flags) {
+        return decode(str.getBytes(US_ASCII), flags);
+    }
+
+    public static byte[] decode(final byte[] input, final int flags) {
+        return (flags & URL_SAFE) != 0
+                ? java.util.Base64.getUrlDecoder().decode(input)
+                : java.util.Base64.getMimeDecoder().decode(input);
+    }
+
+    public static byte[] encode(final byte[] input, final int flags) {
+        final byte[] output = encoder(flags).encode(input);
+        if ((flags & NO_WRAP) != 0 || output.length == 0) {
+            return output;
+        }
+        // Framework version terminates wrapped output with line separator
+        final byte[] separator = (flags & CRLF) != 0 ? new byte[]{'\r', '\n'} : new byte[]{'\n'};
+        final byte[] terminated = new byte[output.length + separator.length];
+        System.arraycopy(output, 0, terminated, 0, output.length);
+        System.arraycopy(separator, 0, terminated, output.length, separator.length);
+        return terminated;
+    }
+
+    public static String encodeToString(final byte[] input, final int flags) {
+        return new String(encode(input, flags), US_ASCII);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.onepf.opfutils;
+
+import android.content.Context;
+import android.os.Looper;
+
+/**
+ * JVM stand-in for OPFUtils checks.
+ */
+public final class OPFChecks {
+
+    private OPFChecks() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Checks whether current thread is the {@link Looper} thread.
+     *
+     * @param main True if current thread must be the main one, false otherwise.
+     * @throws IllegalStateException If check fails.
+     */
+    public static void checkThread(final boolean main) {
+        if (main != (Looper.myLooper() == Looper.getMainLooper())) {
+            throw new IllegalStateException("Wrong thread: " + Thread.currentThread());
+        }
+    }
+
+    public static void checkPermission(final Context context, final String permission) {
+        // There're no permissions on JVM
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.onepf.opfutils;
+
+/**
+ * JVM stand-in for OPFUtils logger.
+ * <br>
+ * Logging is always disabled, benchmarks measure library code rather than log formatting.
+ */
+public final class OPFLog {
+
+    private OPFLog() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static boolean isEnabled() {
+        return false;
+    }
+
+    public static void setEnabled(final boolean enabled) {
+        // Logging is always disabled
+    }
+
+    public static void setEnabled(final boolean enabled, final boolean debug) {
+        // Logging is always disabled
+    }
+
+    public static void logMethod(final Object... args) {
+        // Logging is always disabled
+    }
+
+    public static void d(final String message, final Object... args) {
+        // Logging is always disabled
+    }
+
+    public static void i(final String message, final Object... args) {
+        // Logging is always disabled
+    }
+
+    public static void w(final String message, final Object... args) {
+        // Logging is always disabled
+    }
+
+    public static void e(final String message, final Object... args) {
+        // Logging is always disabled
+    }
+
+    public static void e(final String message, final Throwable throwable) {
+        // Logging is always disabled
+    }
+}
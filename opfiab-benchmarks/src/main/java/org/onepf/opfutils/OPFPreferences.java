@@ -0,0 +1,257 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfutils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM stand-in for OPFUtils preferences, values are kept in memory for the lifetime of process.
+ */
+public class OPFPreferences {
+
+    /**
+     * Values of all preferences mapped by their names, shared like files would be.
+     */
+    private static final Map<String, Map<String, Object>> FILES = new ConcurrentHashMap<>();
+
+    private final Map<String, Object> values;
+    private final SharedPreferences preferences = new MemoryPreferences();
+
+    public OPFPreferences(final Context context) {
+        this(context, null);
+    }
+
+    public OPFPreferences(final Context context, final String postfix) {
+        super();
+        final String name = String.valueOf(postfix);
+        final Map<String, Object> newValues = new ConcurrentHashMap<>();
+        final Map<String, Object> oldValues = FILES.putIfAbsent(name, newValues);
+        this.values = oldValues == null ? newValues : oldValues;
+    }
+
+    public SharedPreferences getPreferences() {
+        return preferences;
+    }
+
+    public boolean contains(final String key) {
+        return values.containsKey(key);
+    }
+
+    public String getString(final String key) {
+        return getString(key, null);
+    }
+
+    public String getString(final String key, final String defValue) {
+        final Object value = values.get(key);
+        return value instanceof String ? (String) value : defValue;
+    }
+
+    public int getInt(final String key, final int defValue) {
+        final Object value = values.get(key);
+        return value instanceof Integer ? (Integer) value : defValue;
+    }
+
+    public long getLong(final String key, final long defValue) {
+        final Object value = values.get(key);
+        return value instanceof Long ? (Long) value : defValue;
+    }
+
+    public boolean getBoolean(final String key, final boolean defValue) {
+        final Object value = values.get(key);
+        return value instanceof Boolean ? (Boolean) value : defValue;
+    }
+
+    public void put(final String key, final String value) {
+        putValue(key, value);
+    }
+
+    public void put(final String key, final int value) {
+        putValue(key, value);
+    }
+
+    public void put(final String key, final long value) {
+        putValue(key, value);
+    }
+
+    public void put(final String key, final boolean value) {
+        putValue(key, value);
+    }
+
+    private void putValue(final String key, final Object value) {
+        if (value == null) {
+            values.remove(key);
+        } else {
+            values.put(key, value);
+        }
+    }
+
+    public void remove(final String... keys) {
+        for (final String key : keys) {
+            values.remove(key);
+        }
+    }
+
+    public void clear() {
+        values.clear();
+    }
+
+    public SharedPreferences.Editor edit() {
+        return preferences.edit();
+    }
+
+    private final class MemoryPreferences implements SharedPreferences {
+
+        @Override
+        public Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public String getString(final String key, final String defValue) {
+            return OPFPreferences.this.getString(key, defValue);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Set<String> getStringSet(final String key, final Set<String> defValues) {
+            final Object value = values.get(key);
+            return value instanceof Set ? (Set<String>) value : defValues;
+        }
+
+        @Override
+        public int getInt(final String key, final int defValue) {
+            return OPFPreferences.this.getInt(key, defValue);
+        }
+
+        @Override
+        public long getLong(final String key, final long defValue) {
+            return OPFPreferences.this.getLong(key, defValue);
+        }
+
+        @Override
+        public float getFloat(final String key, final float defValue) {
+            final Object value = values.get(key);
+            return value instanceof Float ? (Float) value : defValue;
+        }
+
+        @Override
+        public boolean getBoolean(final String key, final boolean defValue) {
+            return OPFPreferences.this.getBoolean(key, defValue);
+        }
+
+        @Override
+        public boolean contains(final String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public Editor edit() {
+            return new MemoryEditor();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(
+                final OnSharedPreferenceChangeListener listener) {
+            // Nobody else modifies these values
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(
+                final OnSharedPreferenceChangeListener listener) {
+            // Nobody else modifies these values
+        }
+    }
+
+    private final class MemoryEditor implements SharedPreferences.Editor {
+
+        private final Map<String, Object> changes = new HashMap<>();
+        private boolean clear;
+
+        private SharedPreferences.Editor change(final String key, final Object value) {
+            changes.put(key, value == null ? this : value);
+            return this;
+        }
+
+        @Override
+        public SharedPreferences.Editor putString(final String key, final String value) {
+            return change(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor putStringSet(final String key, final Set<String> values) {
+            return change(key, values);
+        }
+
+        @Override
+        public SharedPreferences.Editor putInt(final String key, final int value) {
+            return change(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor putLong(final String key, final long value) {
+            return change(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor putFloat(final String key, final float value) {
+            return change(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor putBoolean(final String key, final boolean value) {
+            return change(key, value);
+        }
+
+        @Override
+        public SharedPreferences.Editor remove(final String key) {
+            return change(key, null);
+        }
+
+        @Override
+        public SharedPreferences.Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            if (clear) {
+                values.clear();
+            }
+            for (final Map.Entry<String, Object> change : changes.entrySet()) {
+                // Editor itself marks removed values
+                if (change.getValue() == this) {
+                    values.remove(change.getKey());
+                } else {
+                    values.put(change.getKey(), change.getValue());
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            commit();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.onepf.opfutils;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Looper;
+
+/**
+ * JVM stand-in for OPFUtils helpers.
+ */
+public final class OPFUtils {
+
+    private OPFUtils() {
+        throw new UnsupportedOperationException();
+    }
+
+    public static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    public static String getPackageInstaller(final Context context) {
+        return null;
+    }
+
+    public static String toString(final Intent intent) {
+        return String.valueOf(intent);
+    }
+
+    public static String toString(final Bundle bundle) {
+        return String.valueOf(bundle);
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.onepf.opfiab.billing;
+
+import android.app.Application;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.support.annotation.NonNull;
+
+import com.android.vending.billing.IInAppBillingService;
+
+import org.junit.Test;
+
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link AidlBillingHelper} connection life cycle, service callbacks and timeout are
+ * emulated by calling helper directly.
+ */
+public class AidlBillingHelperTest {
+
+    private static final ComponentName COMPONENT =
+            new ComponentName("com.android.vending", "BillingService");
+
+    /**
+     * Application stand-in, framework one requires base context.
+     */
+    private static final class TestApplication extends Application {
+
+        @Override
+        public Context getApplicationContext() {
+            return this;
+        }
+    }
+
+    /**
+     * Binder which never connects on its own, only counts calls.
+     */
+    private static final class CountingBinder implements ServiceBinder {
+
+        private final boolean bindable;
+        private int binds;
+        private int unbinds;
+
+        CountingBinder(final boolean bindable) {
+            this.bindable = bindable;
+        }
+
+        @Override
+        public boolean bind(@NonNull final Context context,
+                            @NonNull final Intent serviceIntent,
+                            @NonNull final ServiceConnection connection) {
+            binds++;
+            return bindable;
+        }
+
+        @Override
+        public void unbind(@NonNull final Context context,
+                           @NonNull final ServiceConnection connection) {
+            unbinds++;
+        }
+    }
+
+    /**
+     * Local service which is never actually called.
+     */
+    private static final class IdleService extends IInAppBillingService.Stub {
+
+        @Override
+        public int isBillingSupported(final int apiVersion, final String packageName,
+                                      final String type) {
+            return 0;
+        }
+
+        @Override
+        public Bundle getSkuDetails(final int apiVersion, final String packageName,
+                                    final String type, final Bundle skusBundle) {
+            return null;
+        }
+
+        @Override
+        public Bundle getBuyIntent(final int apiVersion, final String packageName,
+                                   final String sku, final String type,
+                                   final String developerPayload) {
+            return null;
+        }
+
+        @Override
+        public Bundle getPurchases(final int apiVersion, final String packageName,
+                                   final String type, final String continuationToken) {
+            return null;
+        }
+
+        @Override
+        public int consumePurchase(final int apiVersion, final String packageName,
+                                   final String purchaseToken) {
+            return 0;
+        }
+    }
+
+    private static final class TestHelper extends AidlBillingHelper<IInAppBillingService> {
+
+        TestHelper(@NonNull final ServiceBinder serviceBinder) {
+            super(new TestApplication(), IInAppBillingService.class, serviceBinder);
+        }
+
+        @NonNull
+        @Override
+        protected Intent getServiceIntent() {
+            return new Intent();
+        }
+    }
+
+    @Test
+    public void unbindableServiceIsNotTimeout() throws Exception {
+        final CountingBinder binder = new CountingBinder(false);
+        final TestHelper helper = new TestHelper(binder);
+
+        final Future<IInAppBillingService> connection = helper.connect();
+        assertTrue(connection.isDone());
+        assertNull(connection.get());
+        assertFalse(helper.isTimedOut());
+        assertEquals(0, binder.unbinds);
+    }
+
+    @Test
+    public void disconnectTimeoutReconnect() throws Exception {
+        final CountingBinder binder = new CountingBinder(true);
+        final TestHelper helper = new TestHelper(binder);
+
+        final Future<IInAppBillingService> connection = helper.connect();
+        assertFalse(connection.isDone());
+        helper.onServiceConnected(COMPONENT, new IdleService());
+        assertNotNull(connection.get());
+        assertTrue(helper.isConnected());
+
+        // Service died, binding is kept and new callers wait for restart
+        helper.onServiceDisconnected(COMPONENT);
+        assertFalse(helper.isConnected());
+        final Future<IInAppBillingService> reconnection = helper.connect();
+        assertNotSame(connection, reconnection);
+        assertFalse(reconnection.isDone());
+        assertEquals(1, binder.binds);
+
+        // Service didn't restart in time
+        helper.onConnectionTimeout();
+        assertTrue(reconnection.isDone());
+        assertNull(reconnection.get());
+        assertTrue(helper.isTimedOut());
+        assertEquals(1, binder.unbinds);
+
+        // System restarted service anyway, binding is adopted instead of leaking
+        helper.onServiceConnected(COMPONENT, new IdleService());
+        assertTrue(helper.isConnected());
+        assertFalse(helper.isTimedOut());
+        final Future<IInAppBillingService> adopted = helper.connect();
+        assertTrue(adopted.isDone());
+        assertNotNull(adopted.get());
+        assertNotNull(helper.getService());
+        assertEquals(1, binder.binds);
+    }
+
+    @Test
+    public void lateTimeoutIsIgnored() throws Exception {
+        final CountingBinder binder = new CountingBinder(true);
+        final TestHelper helper = new TestHelper(binder);
+
+        final Future<IInAppBillingService> connection = helper.connect();
+        helper.onServiceConnected(COMPONENT, new IdleService());
+        helper.onConnectionTimeout();
+        assertNotNull(connection.get());
+        assertTrue(helper.isConnected());
+        assertFalse(helper.isTimedOut());
+        assertEquals(0, binder.unbinds);
+    }
+}
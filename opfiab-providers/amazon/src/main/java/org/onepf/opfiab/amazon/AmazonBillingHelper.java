@@ -16,8 +16,12 @@
 
 package org.onepf.opfiab.amazon;
 
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 
 import com.amazon.device.iap.PurchasingListener;
 import com.amazon.device.iap.PurchasingService;
@@ -28,11 +32,11 @@ import com.amazon.device.iap.model.UserData;
 import com.amazon.device.iap.model.UserDataResponse;
 
 import org.onepf.opfiab.OPFIab;
-import org.onepf.opfutils.OPFChecks;
+import org.onepf.opfiab.util.LatchFuture;
 import org.onepf.opfutils.OPFLog;
 
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * This class handles all communications between library and Amazon SDK.
@@ -42,58 +46,159 @@ import java.util.concurrent.TimeUnit;
  */
 final class AmazonBillingHelper implements PurchasingListener {
 
+    private static final Handler HANDLER = new Handler(Looper.getMainLooper());
     /**
      * Timeout to give up on waiting for user data.
      */
-    private static final int USER_DATA_TIMEOUT = 1000;
+    private static final long USER_DATA_TIMEOUT = 1000L;
+    /**
+     * Time during which received user data is used without asking Amazon SDK again.
+     */
+    private static final long USER_DATA_TIME_TO_LIVE = 5L * 60L * 1000L; // 5 minutes
 
-    // User data is requested from library thread, but delivered on main.
+    /**
+     * Task to give up on pending user data request.
+     */
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            OPFLog.e("User data request timed out.");
+            completeUserData(null);
+        }
+    };
+    /**
+     * Task to repeat library setup, so that listeners learn about new user or authorisation.
+     */
+    private final Runnable setup = new Runnable() {
+        @Override
+        public void run() {
+            OPFIab.setup();
+        }
+    };
+    /**
+     * User data request shared by all waiters, null if there's no request in flight.
+     */
     @Nullable
-    private volatile CountDownLatch userDataLatch;
+    private LatchFuture<UserData> pendingUserData;
     @Nullable
     private volatile UserData userData;
+    private volatile long userDataTime;
+    /**
+     * Authorisation reported before user data was received, null if there's none.
+     */
+    @Nullable
+    private volatile Boolean guessedAuthorisation;
 
     AmazonBillingHelper() {
         super();
     }
 
     /**
-     * Requests user data form Amazon SDK.
+     * Updates cached user data, repeats setup if another user has logged in.
      *
-     * @return User data if received withing {@link #USER_DATA_TIMEOUT}, null otherwise.
+     * @param userData Received user data, can be null.
+     */
+    private void setUserData(@Nullable final UserData userData) {
+        final UserData oldUserData = this.userData;
+        this.userData = userData;
+        userDataTime = SystemClock.elapsedRealtime();
+        if (oldUserData != null && userData != null
+                && !TextUtils.equals(oldUserData.getUserId(), userData.getUserId())) {
+            OPFLog.d("Amazon user has changed: %s", userData);
+            HANDLER.post(setup);
+        }
+    }
+
+    /**
+     * Gets last received user data without requesting it from Amazon SDK.
+     *
+     * @return Cached user data, null if there's none.
      */
     @Nullable
-    UserData getUserData() {
-        // TODO check re-login
-        OPFChecks.checkThread(false);
-        final UserData localUserData = userData;
-        if (localUserData != null) {
-            return localUserData;
+    UserData getCachedUserData() {
+        return userData;
+    }
+
+    /**
+     * Completes pending user data request and notifies library about it.
+     *
+     * @param userData Received user data, null if request failed or timed out.
+     */
+    private void completeUserData(@Nullable final UserData userData) {
+        final LatchFuture<UserData> future;
+        synchronized (this) {
+            future = pendingUserData;
+            pendingUserData = null;
+            HANDLER.removeCallbacks(timeout);
         }
+        if (future != null) {
+            future.complete(userData);
+            OPFIab.post(new UserDataEvent(userData));
+        }
+        final Boolean guessedAuthorisation = this.guessedAuthorisation;
+        this.guessedAuthorisation = null;
+        if (guessedAuthorisation != null && guessedAuthorisation != (userData != null)) {
+            OPFLog.d("Amazon authorisation has changed: %s", userData);
+            HANDLER.post(setup);
+        }
+    }
 
-        if (userDataLatch != null) {
-            // Might happen if library handles request in multithreaded pool
-            throw new IllegalStateException("There must be no concurrent requests.");
+    /**
+     * Requests user data form Amazon SDK without blocking.
+     * <br>
+     * All concurrent callers share the same request. Fresh user data received earlier is
+     * returned right away.
+     *
+     * @return Future holding user data, or null if request failed or timed out.
+     */
+    @NonNull
+    synchronized Future<UserData> requestUserData() {
+        if (pendingUserData != null) {
+            return pendingUserData;
         }
+        final UserData localUserData = userData;
+        final LatchFuture<UserData> future = new LatchFuture<>();
+        if (localUserData != null
+                && SystemClock.elapsedRealtime() - userDataTime < USER_DATA_TIME_TO_LIVE) {
+            future.complete(localUserData);
+            return future;
+        }
+        pendingUserData = future;
+        PurchasingService.getUserData();
+        HANDLER.postDelayed(timeout, USER_DATA_TIMEOUT);
+        return future;
+    }
 
+    /**
+     * Checks whether user is logged in without blocking.
+     * <br>
+     * If user data is not received yet, last known user data is used. Setup is repeated if
+     * received user data proves it wrong.
+     *
+     * @return True if user is logged in, false otherwise.
+     */
+    boolean isAuthorised() {
+        final Future<UserData> future = requestUserData();
+        if (!future.isDone()) {
+            final boolean authorised = userData != null;
+            guessedAuthorisation = authorised;
+            return authorised;
+        }
         try {
-            userDataLatch = new CountDownLatch(1);
-            PurchasingService.getUserData();
-            //noinspection ConstantConditions
-            if (!userDataLatch.await(USER_DATA_TIMEOUT, TimeUnit.MILLISECONDS)) {
-                OPFLog.e("User data request timed out.");
-            }
+            return future.get() != null;
         } catch (InterruptedException exception) {
-            OPFLog.e("User data request interrupted.", exception);
-        } finally {
-            userDataLatch = null;
+            OPFLog.e("", exception);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException exception) {
+            OPFLog.e("", exception);
         }
-        return userData;
+        return false;
     }
 
     @Override
     public void onUserDataResponse(@NonNull final UserDataResponse userDataResponse) {
         OPFLog.logMethod(userDataResponse);
+        final UserData userData;
         switch (userDataResponse.getRequestStatus()) {
             case SUCCESSFUL:
                 userData = userDataResponse.getUserData();
@@ -106,10 +211,8 @@ final class AmazonBillingHelper implements PurchasingListener {
             default:
                 throw new IllegalStateException();
         }
-        final CountDownLatch latch = userDataLatch;
-        if (latch != null) {
-            latch.countDown();
-        }
+        setUserData(userData);
+        completeUserData(userData);
     }
 
     @Override
@@ -120,12 +223,41 @@ final class AmazonBillingHelper implements PurchasingListener {
     @Override
     public void onPurchaseResponse(
             @NonNull final PurchaseResponse purchaseResponse) {
+        if (purchaseResponse.getUserData() != null) {
+            setUserData(purchaseResponse.getUserData());
+        }
         OPFIab.post(purchaseResponse);
     }
 
     @Override
     public void onPurchaseUpdatesResponse(
             @NonNull final PurchaseUpdatesResponse purchaseUpdatesResponse) {
+        if (purchaseUpdatesResponse.getUserData() != null) {
+            setUserData(purchaseUpdatesResponse.getUserData());
+        }
         OPFIab.post(purchaseUpdatesResponse);
     }
+
+    /**
+     * Event indicating that user data request has finished.
+     */
+    static final class UserDataEvent {
+
+        @Nullable
+        private final UserData userData;
+
+        UserDataEvent(@Nullable final UserData userData) {
+            this.userData = userData;
+        }
+
+        /**
+         * Gets received user data.
+         *
+         * @return User data, null if request failed or timed out.
+         */
+        @Nullable
+        UserData getUserData() {
+            return userData;
+        }
+    }
 }
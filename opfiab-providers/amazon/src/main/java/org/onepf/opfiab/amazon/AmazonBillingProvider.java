@@ -19,8 +19,9 @@ package org.onepf.opfiab.amazon;
 import android.app.Activity;
 import android.content.ComponentName;
 import android.content.Context;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
@@ -32,10 +33,17 @@ import com.amazon.device.iap.model.Product;
 import com.amazon.device.iap.model.ProductDataResponse;
 import com.amazon.device.iap.model.PurchaseUpdatesResponse;
 import com.amazon.device.iap.model.Receipt;
+import com.amazon.device.iap.model.RequestId;
+import com.amazon.device.iap.model.UserData;
 
 import org.json.JSONException;
 import org.onepf.opfiab.billing.BaseBillingProvider;
 import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.billing.InventoryStore;
+import org.onepf.opfiab.billing.ProviderStateCache;
+import org.onepf.opfiab.billing.SkuDetailsCache;
+import org.onepf.opfiab.metrics.BillingMetricsRecorder;
+import org.onepf.opfiab.metrics.BillingStage;
 import org.onepf.opfiab.model.BillingProviderInfo;
 import org.onepf.opfiab.model.billing.Purchase;
 import org.onepf.opfiab.model.billing.SkuDetails;
@@ -43,6 +51,7 @@ import org.onepf.opfiab.model.billing.SkuType;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
 import org.onepf.opfiab.model.event.billing.Status;
 import org.onepf.opfiab.sku.SkuResolver;
+import org.onepf.opfiab.util.PackageIndex;
 import org.onepf.opfiab.verification.PurchaseVerifier;
 import org.onepf.opfutils.OPFChecks;
 import org.onepf.opfutils.OPFLog;
@@ -52,8 +61,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -75,7 +90,15 @@ public class AmazonBillingProvider extends BaseBillingProvider<SkuResolver, Purc
 
     protected static final String NAME = "Amazon";
     protected static final String INSTALLER = "com.amazon.venezia";
+    /**
+     * Time to wait for Amazon response before giving up on request.
+     */
+    protected static final long REQUEST_TIMEOUT = 30000L; // 30 seconds
     protected static final Pattern PACKAGE_PATTERN = Pattern.compile("(com\\.amazon\\.venezia)|([a-z]{2,3}\\.amazon\\.mShop\\.android(\\.apk)?)");
+    /**
+     * Most common packages matching {@link #PACKAGE_PATTERN}, checked before the full scan.
+     */
+    protected static final String[] PACKAGE_CANDIDATES = {INSTALLER, "com.amazon.mShop.android"};
 
     public static final BillingProviderInfo INFO = new BillingProviderInfo(NAME, INSTALLER);
 
@@ -84,13 +107,43 @@ public class AmazonBillingProvider extends BaseBillingProvider<SkuResolver, Purc
      */
     protected static AmazonBillingHelper billingHelper;
 
+    private static final Handler HANDLER = new Handler(Looper.getMainLooper());
+
+    /**
+     * Amazon requests waiting for response, mapped by their ids.
+     * <br>
+     * Guarded by its own lock, which is also held during Amazon SDK calls made by
+     * {@link #track(RequestId, BillingRequest.Type, long)} callers.
+     */
+    private final Map<RequestId, InFlightRequest> inFlightRequests = new HashMap<>();
+    /**
+     * Requests waiting for user data to be loaded.
+     */
+    private final Queue<BillingRequest> waitingRequests = new ConcurrentLinkedQueue<>();
+    /**
+     * Id of the user whose requests were handled last.
+     */
+    @Nullable
+    private volatile String lastUserId;
+
 
-    @SuppressWarnings("AssignmentToStaticFieldFromInstanceMethod")
     protected AmazonBillingProvider(
             @NonNull final Context context,
             @NonNull final SkuResolver skuResolver,
             @NonNull final PurchaseVerifier purchaseVerifier) {
-        super(context, skuResolver, purchaseVerifier);
+        this(context, skuResolver, purchaseVerifier, null, null, null);
+    }
+
+    @SuppressWarnings("AssignmentToStaticFieldFromInstanceMethod")
+    protected AmazonBillingProvider(
+            @NonNull final Context context,
+            @NonNull final SkuResolver skuResolver,
+            @NonNull final PurchaseVerifier purchaseVerifier,
+            @Nullable final SkuDetailsCache skuDetailsCache,
+            @Nullable final InventoryStore inventoryStore,
+            @Nullable final ProviderStateCache providerStateCache) {
+        super(context, skuResolver, purchaseVerifier, skuDetailsCache, inventoryStore,
+              providerStateCache);
         if (billingHelper == null) {
             billingHelper = new AmazonBillingHelper();
             // Register Amazon callbacks handler, it's never unregistered.
@@ -177,14 +230,92 @@ public class AmazonBillingProvider extends BaseBillingProvider<SkuResolver, Purc
         return UNKNOWN_ERROR;
     }
 
+    /**
+     * Remembers Amazon request until corresponding response is received.
+     * <br>
+     * Must be called along with Amazon SDK call while holding lock on {@link #inFlightRequests},
+     * otherwise response might reach {@link #untrack(RequestId)} before request is tracked.
+     *
+     * @param requestId Id of the request returned by Amazon SDK.
+     * @param type      Type of the library request being handled.
+     * @param timeout   Time in milliseconds to wait for response, 0 to wait forever.
+     */
+    private void track(@Nullable final RequestId requestId,
+                       @NonNull final BillingRequest.Type type,
+                       final long timeout) {
+        if (requestId == null) {
+            OPFLog.e("Amazon request was not sent: %s", type);
+            postEmptyResponse(type, UNKNOWN_ERROR, getRequestId(type));
+            return;
+        }
+        final InFlightRequest inFlightRequest = new InFlightRequest(requestId, type,
+                                                                    getRequestId(type));
+        inFlightRequests.put(requestId, inFlightRequest);
+        if (timeout > 0L) {
+            HANDLER.postDelayed(inFlightRequest, timeout);
+        }
+    }
+
+    /**
+     * Forgets Amazon request corresponding to received response.
+     *
+     * @param requestId Id of the request received with response.
+     * @return Request which was in flight, null if it's unknown or has already timed out.
+     */
+    @Nullable
+    private InFlightRequest untrack(@NonNull final RequestId requestId) {
+        final InFlightRequest inFlightRequest;
+        synchronized (inFlightRequests) {
+            inFlightRequest = inFlightRequests.remove(requestId);
+        }
+        if (inFlightRequest == null) {
+            OPFLog.d("Skipping response for unknown request: %s", requestId);
+            return null;
+        }
+        HANDLER.removeCallbacks(inFlightRequest);
+        return inFlightRequest;
+    }
+
+    /**
+     * Sends response with no data for the request of supplied type.
+     *
+     * @param type      Type of the request to answer.
+     * @param status    Status to send.
+     * @param requestId Id of the request to answer.
+     */
+    private void postEmptyResponse(@NonNull final BillingRequest.Type type,
+                                   @NonNull final Status status,
+                                   final long requestId) {
+        switch (type) {
+            case SKU_DETAILS:
+                postSkuDetailsResponse(status, null, requestId);
+                break;
+            case INVENTORY:
+                postInventoryResponse(status, null, false, requestId);
+                break;
+            case PURCHASE:
+                postPurchaseResponse(status, null, requestId);
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
     /**
      * Handles sku details response from Amazon.
      *
      * @param productDataResponse Response to handle.
      */
     public void onEventAsync(@NonNull final ProductDataResponse productDataResponse) {
+        final InFlightRequest inFlightRequest = untrack(productDataResponse.getRequestId());
+        if (inFlightRequest == null) {
+            return;
+        }
+        final long requestId = inFlightRequest.billingRequestId;
+        BillingMetricsRecorder.record(BillingStage.CALL, inFlightRequest.start, requestId);
         switch (productDataResponse.getRequestStatus()) {
             case SUCCESSFUL:
+                final long parseStart = BillingMetricsRecorder.start();
                 final Collection<SkuDetails> skusDetails = new ArrayList<>();
                 final Collection<Product> products = productDataResponse.getProductData().values();
                 for (final Product product : products) {
@@ -193,11 +324,12 @@ public class AmazonBillingProvider extends BaseBillingProvider<SkuResolver, Purc
                 for (final String sku : productDataResponse.getUnavailableSkus()) {
                     skusDetails.add(new SkuDetails(sku));
                 }
-                postSkuDetailsResponse(SUCCESS, skusDetails);
+                BillingMetricsRecorder.record(BillingStage.PARSE, parseStart, requestId);
+                postSkuDetailsResponse(SUCCESS, skusDetails, requestId);
                 break;
             case FAILED:
             case NOT_SUPPORTED:
-                postSkuDetailsResponse(handleFailure(), null);
+                postSkuDetailsResponse(handleFailure(), null, requestId);
                 OPFLog.e("Product data request failed: %s", productDataResponse);
                 break;
             default:
@@ -211,19 +343,27 @@ public class AmazonBillingProvider extends BaseBillingProvider<SkuResolver, Purc
      * @param purchaseUpdatesResponse Response to handle.
      */
     public void onEventAsync(@NonNull final PurchaseUpdatesResponse purchaseUpdatesResponse) {
+        final InFlightRequest inFlightRequest = untrack(purchaseUpdatesResponse.getRequestId());
+        if (inFlightRequest == null) {
+            return;
+        }
+        final long requestId = inFlightRequest.billingRequestId;
+        BillingMetricsRecorder.record(BillingStage.CALL, inFlightRequest.start, requestId);
         switch (purchaseUpdatesResponse.getRequestStatus()) {
             case SUCCESSFUL:
+                final long parseStart = BillingMetricsRecorder.start();
                 final List<Receipt> receipts = purchaseUpdatesResponse.getReceipts();
                 final Collection<Purchase> purchases = new ArrayList<>(receipts.size());
                 for (final Receipt receipt : receipts) {
                     purchases.add(newPurchase(receipt));
                 }
+                BillingMetricsRecorder.record(BillingStage.PARSE, parseStart, requestId);
                 final boolean hasMore = purchaseUpdatesResponse.hasMore();
-                postInventoryResponse(SUCCESS, purchases, hasMore);
+                postInventoryResponse(SUCCESS, purchases, hasMore, requestId);
                 break;
             case FAILED:
             case NOT_SUPPORTED:
-                postInventoryResponse(handleFailure(), null, false);
+                postInventoryResponse(handleFailure(), null, false, requestId);
                 OPFLog.e("Purchase updates request failed: %s", purchaseUpdatesResponse);
                 break;
             default:
@@ -238,20 +378,28 @@ public class AmazonBillingProvider extends BaseBillingProvider<SkuResolver, Purc
      */
     public void onEventAsync(
             @NonNull final com.amazon.device.iap.model.PurchaseResponse purchaseResponse) {
+        final InFlightRequest inFlightRequest = untrack(purchaseResponse.getRequestId());
+        if (inFlightRequest == null) {
+            return;
+        }
+        final long requestId = inFlightRequest.billingRequestId;
+        BillingMetricsRecorder.record(BillingStage.CALL, inFlightRequest.start, requestId);
         switch (purchaseResponse.getRequestStatus()) {
             case SUCCESSFUL:
+                final long parseStart = BillingMetricsRecorder.start();
                 final Purchase purchase = newPurchase(purchaseResponse.getReceipt());
-                postPurchaseResponse(SUCCESS, purchase);
+                BillingMetricsRecorder.record(BillingStage.PARSE, parseStart, requestId);
+                postPurchaseResponse(SUCCESS, purchase, requestId);
                 break;
             case INVALID_SKU:
-                postPurchaseResponse(ITEM_UNAVAILABLE, null);
+                postPurchaseResponse(ITEM_UNAVAILABLE, null, requestId);
                 break;
             case ALREADY_PURCHASED:
-                postPurchaseResponse(ITEM_ALREADY_OWNED, null);
+                postPurchaseResponse(ITEM_ALREADY_OWNED, null, requestId);
                 break;
             case FAILED:
             case NOT_SUPPORTED:
-                postPurchaseResponse(handleFailure(), null);
+                postPurchaseResponse(handleFailure(), null, requestId);
                 OPFLog.e("Purchase request failed: %s", purchaseResponse);
                 break;
             default:
@@ -278,42 +426,128 @@ public class AmazonBillingProvider extends BaseBillingProvider<SkuResolver, Purc
 
     @Override
     public boolean isAvailable() {
-        final PackageManager packageManager = context.getPackageManager();
-        for (final PackageInfo info : packageManager.getInstalledPackages(0)) {
-            if (PACKAGE_PATTERN.matcher(info.packageName).matches()) {
-                return true;
-            }
-        }
-        return false;
+        return PackageIndex.getInstance(context).isInstalled(PACKAGE_PATTERN, PACKAGE_CANDIDATES);
     }
 
     @Override
     public boolean isAuthorised() {
-        return billingHelper.getUserData() != null;
+        return billingHelper.isAuthorised();
+    }
+
+    @Override
+    public void warmUp() {
+        billingHelper.requestUserData();
+    }
+
+    @Nullable
+    @Override
+    protected String getUserId() {
+        final UserData userData = billingHelper.getCachedUserData();
+        return userData == null ? null : userData.getUserId();
+    }
+
+    @Nullable
+    private static UserData getDone(@NonNull final Future<UserData> userData) {
+        try {
+            return userData.get();
+        } catch (InterruptedException exception) {
+            OPFLog.e("", exception);
+        } catch (ExecutionException exception) {
+            OPFLog.e("", exception);
+        }
+        return null;
+    }
+
+    /**
+     * Drops state cached for another user, if user has changed since the last request.
+     *
+     * @param userData User data received from Amazon.
+     */
+    private void checkUser(@NonNull final UserData userData) {
+        final String userId = userData.getUserId();
+        final String lastUserId = this.lastUserId;
+        this.lastUserId = userId;
+        if (lastUserId != null && !TextUtils.equals(lastUserId, userId)) {
+            onUserChanged();
+        }
+    }
+
+    /**
+     * Handles requests which were waiting for user data.
+     *
+     * @param userData User data received from Amazon, can be null.
+     */
+    private void handleWaitingRequests(@Nullable final UserData userData) {
+        BillingRequest billingRequest;
+        while ((billingRequest = waitingRequests.poll()) != null) {
+            if (userData == null) {
+                postEmptyResponse(billingRequest, UNAUTHORISED);
+            } else {
+                checkUser(userData);
+                super.handleRequest(billingRequest);
+            }
+        }
+    }
+
+    /**
+     * Resumes requests queued while user data was being loaded.
+     *
+     * @param userDataEvent Event holding received user data.
+     */
+    public void onEventAsync(@NonNull final AmazonBillingHelper.UserDataEvent userDataEvent) {
+        serialize(new Runnable() {
+            @Override
+            public void run() {
+                handleWaitingRequests(userDataEvent.getUserData());
+            }
+        });
     }
 
     @Override
     protected void handleRequest(@NonNull final BillingRequest billingRequest) {
-        if (!isAuthorised()) {
-            postEmptyResponse(billingRequest, UNAUTHORISED);
+        final Future<UserData> userData = billingHelper.requestUserData();
+        if (!userData.isDone()) {
+            // Don't block, request will be handled once user data is ready
+            waitingRequests.add(billingRequest);
+            if (userData.isDone()) {
+                // User data arrived while request was being queued
+                handleWaitingRequests(getDone(userData));
+            }
         } else {
-            super.handleRequest(billingRequest);
+            final UserData receivedUserData = getDone(userData);
+            if (receivedUserData != null) {
+                checkUser(receivedUserData);
+            }
+            if (checkAuthorised()) {
+                super.handleRequest(billingRequest);
+            } else {
+                postEmptyResponse(billingRequest, UNAUTHORISED);
+            }
         }
     }
 
     @Override
     public void skuDetails(@NonNull final Set<String> skus) {
-        PurchasingService.getProductData(skus);
+        synchronized (inFlightRequests) {
+            track(PurchasingService.getProductData(skus), BillingRequest.Type.SKU_DETAILS,
+                  REQUEST_TIMEOUT);
+        }
     }
 
     @Override
     public void inventory(final boolean startOver) {
-        PurchasingService.getPurchaseUpdates(startOver);
+        synchronized (inFlightRequests) {
+            track(PurchasingService.getPurchaseUpdates(startOver), BillingRequest.Type.INVENTORY,
+                  REQUEST_TIMEOUT);
+        }
     }
 
     @Override
     public void purchase(@Nullable final Activity activity, @NonNull final String sku) {
-        PurchasingService.purchase(sku);
+        synchronized (inFlightRequests) {
+            // Purchase waits for user, it's never timed out
+            track(PurchasingService.purchase(sku), BillingRequest.Type.PURCHASE, 0L);
+        }
     }
 
     @Override
@@ -333,6 +567,42 @@ public class AmazonBillingProvider extends BaseBillingProvider<SkuResolver, Purc
         return INFO;
     }
 
+    /**
+     * Amazon request waiting for response, answers library request with an error on timeout.
+     */
+    private final class InFlightRequest implements Runnable {
+
+        @NonNull
+        private final RequestId requestId;
+        @NonNull
+        private final BillingRequest.Type type;
+        private final long billingRequestId;
+        private final long start = BillingMetricsRecorder.start();
+
+        InFlightRequest(@NonNull final RequestId requestId,
+                        @NonNull final BillingRequest.Type type,
+                        final long billingRequestId) {
+            this.requestId = requestId;
+            this.type = type;
+            this.billingRequestId = billingRequestId;
+        }
+
+        @Override
+        public void run() {
+            final boolean removed;
+            synchronized (inFlightRequests) {
+                removed = inFlightRequests.get(requestId) == this;
+                if (removed) {
+                    inFlightRequests.remove(requestId);
+                }
+            }
+            if (removed) {
+                OPFLog.e("Amazon request timed out: %s, %s", type, requestId);
+                postEmptyResponse(type, SERVICE_UNAVAILABLE, billingRequestId);
+            }
+        }
+    }
+
     public static class Builder extends BaseBillingProvider.Builder<SkuResolver, PurchaseVerifier> {
 
         public Builder(@NonNull final Context context) {
@@ -341,7 +611,8 @@ public class AmazonBillingProvider extends BaseBillingProvider<SkuResolver, Purc
 
         @Override
         public BaseBillingProvider build() {
-            return new AmazonBillingProvider(context, skuResolver, purchaseVerifier);
+            return new AmazonBillingProvider(context, skuResolver, purchaseVerifier,
+                                             skuDetailsCache, inventoryStore, providerStateCache);
         }
 
         @Override
@@ -353,5 +624,21 @@ public class AmazonBillingProvider extends BaseBillingProvider<SkuResolver, Purc
         public Builder setPurchaseVerifier(@NonNull final PurchaseVerifier purchaseVerifier) {
             return (Builder) super.setPurchaseVerifier(purchaseVerifier);
         }
+
+        @Override
+        public Builder setSkuDetailsCache(@Nullable final SkuDetailsCache skuDetailsCache) {
+            return (Builder) super.setSkuDetailsCache(skuDetailsCache);
+        }
+
+        @Override
+        public Builder setInventoryStore(@Nullable final InventoryStore inventoryStore) {
+            return (Builder) super.setInventoryStore(inventoryStore);
+        }
+
+        @Override
+        public Builder setProviderStateCache(
+                @Nullable final ProviderStateCache providerStateCache) {
+            return (Builder) super.setProviderStateCache(providerStateCache);
+        }
     }
 }
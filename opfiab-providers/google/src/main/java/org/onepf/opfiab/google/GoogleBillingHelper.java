@@ -27,7 +27,10 @@ import android.text.TextUtils;
 import com.android.vending.billing.IInAppBillingService;
 
 import org.onepf.opfiab.billing.AidlBillingHelper;
+import org.onepf.opfiab.billing.ServiceBinder;
 import org.onepf.opfiab.google.model.ItemType;
+import org.onepf.opfiab.metrics.BillingMetricsRecorder;
+import org.onepf.opfiab.metrics.BillingStage;
 import org.onepf.opfutils.OPFLog;
 import org.onepf.opfutils.OPFPreferences;
 import org.onepf.opfutils.OPFUtils;
@@ -35,7 +38,18 @@ import org.onepf.opfutils.OPFUtils;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.onepf.opfiab.google.GoogleBillingProvider.PACKAGE;
 
@@ -50,17 +64,63 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
 
     private static final int API = 3;
     private static final int BATCH_SIZE = 20;
+    /**
+     * Time after which idle SKU details threads are terminated.
+     */
+    private static final long KEEP_ALIVE = 30000L; // 30 seconds
+    /**
+     * Executor running SKU details calls on a calling thread.
+     */
+    private static final Executor DIRECT_EXECUTOR = new Executor() {
+        @Override
+        public void execute(@NonNull final Runnable command) {
+            command.run();
+        }
+    };
 
 
     @NonNull
     private final String packageName;
     @NonNull
     private final OPFPreferences preferences;
+    /**
+     * Executor used to run batch &times; {@link ItemType} SKU details calls.
+     */
+    @NonNull
+    private final Executor skuDetailsExecutor;
+    /**
+     * Whether SKU details loading should stop on the first unsuccessful {@link Response}.
+     */
+    private final boolean skuDetailsFailFast;
+
+    private static void addAll(@NonNull final Collection<String> collection,
+                               @Nullable final Collection<String> page) {
+        if (page != null) {
+            collection.addAll(page);
+        }
+    }
 
     GoogleBillingHelper(@NonNull final Context context) {
-        super(context, IInAppBillingService.class);
+        this(context, 1, true, ServiceBinder.DEFAULT);
+    }
+
+    GoogleBillingHelper(@NonNull final Context context,
+                        final int skuDetailsConcurrency,
+                        final boolean skuDetailsFailFast,
+                        @NonNull final ServiceBinder serviceBinder) {
+        super(context, IInAppBillingService.class, serviceBinder);
         this.packageName = context.getPackageName();
         this.preferences = new OPFPreferences(context, GoogleBillingProvider.NAME);
+        this.skuDetailsFailFast = skuDetailsFailFast;
+        if (skuDetailsConcurrency > 1) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    skuDetailsConcurrency, skuDetailsConcurrency, KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            executor.allowCoreThreadTimeOut(true);
+            this.skuDetailsExecutor = executor;
+        } else {
+            this.skuDetailsExecutor = DIRECT_EXECUTOR;
+        }
     }
 
     /**
@@ -77,6 +137,7 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
             // Can't connect to service.
             return null;
         }
+        final long start = BillingMetricsRecorder.start();
         try {
             for (final ItemType itemType : ItemType.values()) {
                 final int code = service.isBillingSupported(API, packageName, itemType.toString());
@@ -89,6 +150,8 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
             return Response.OK;
         } catch (RemoteException exception) {
             OPFLog.d("Billing check failed.", exception);
+        } finally {
+            BillingMetricsRecorder.record(BillingStage.CALL, start);
         }
         return null;
     }
@@ -110,7 +173,9 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
         }
         try {
             final String type = itemType.toString();
+            final long start = BillingMetricsRecorder.start();
             final Bundle result = service.getBuyIntent(API, packageName, sku, type, "");
+            BillingMetricsRecorder.record(BillingStage.CALL, start);
             final Response response = GoogleUtils.getResponse(result);
             OPFLog.d("Response: %s. Result: %s", response, OPFUtils.toString(result));
             return result;
@@ -136,7 +201,9 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
         }
 
         try {
+            final long start = BillingMetricsRecorder.start();
             final int code = service.consumePurchase(API, packageName, token);
+            BillingMetricsRecorder.record(BillingStage.CALL, start);
             final Response response = Response.fromCode(code);
             OPFLog.d("Response: %s", response);
             return response;
@@ -148,6 +215,9 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
 
     /**
      * Wraps {@link IInAppBillingService#getSkuDetails(int, String, String, Bundle)}.
+     * <br>
+     * SKUs are split in batches of {@link #BATCH_SIZE}, each batch is requested for every
+     * {@link ItemType}. Calls are made concurrently if SKU details concurrency is greater than 1.
      *
      * @param skus SKUs to load details for.
      *
@@ -161,36 +231,50 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
             return null;
         }
         final List<String> skuList = new ArrayList<>(skus);
-        final Bundle result = new Bundle();
+        final int size = skuList.size();
+        final int batchCount = (size + BATCH_SIZE - 1) / BATCH_SIZE;
+        final ItemType[] itemTypes = ItemType.values();
+        final SkuDetailsCollector collector = new SkuDetailsCollector(batchCount * itemTypes.length);
+        final CompletionService<Bundle> completionService =
+                new ExecutorCompletionService<>(skuDetailsExecutor);
+        final Map<Future<Bundle>, Integer> futures = new HashMap<>();
+        // Calls are made on other threads, measure time until they are all collected
+        final long start = BillingMetricsRecorder.start();
+        int index = 0;
         try {
-            final int size = skuList.size();
-            final int batchCount = size / BATCH_SIZE;
-            for (int i = 0; i <= batchCount; i++) {
+            for (int i = 0; i < batchCount; i++) {
                 final int first = i * BATCH_SIZE;
-                final int last = Math.min((i + 1) * BATCH_SIZE, size);
+                final int last = Math.min(first + BATCH_SIZE, size);
                 final ArrayList<String> batch = new ArrayList<>(skuList.subList(first, last));
-                final Bundle bundle = GoogleUtils.putSkuList(new Bundle(), batch);
-                for (final ItemType itemType : ItemType.values()) {
-                    final String type = itemType.toString();
-                    final Bundle details = service.getSkuDetails(API, packageName, type, bundle);
-                    final Response response = GoogleUtils.getResponse(details);
-                    OPFLog.d("From %d to %d. Type: %s. Response: %s. Details: %s.",
-                             first, last, itemType, response, OPFUtils.toString(details));
-                    if (response != Response.OK) {
-                        // Return received bundle if error is encountered
-                        return details;
-                    } else {
-                        // Aggregate all loaded details in a single bundle
-                        final ArrayList<String> skuDetails = GoogleUtils.getSkuDetails(details);
-                        GoogleUtils.addSkuDetails(result, skuDetails);
+                for (final ItemType itemType : itemTypes) {
+                    // Bundles are not thread safe, give each call its own
+                    final Bundle bundle = GoogleUtils.putSkuList(new Bundle(), batch);
+                    final Callable<Bundle> task = new SkuDetailsTask(service, itemType, bundle);
+                    futures.put(completionService.submit(task), index++);
+                    // Check for failures early to avoid submitting pointless calls
+                    final Future<Bundle> done = completionService.poll();
+                    if (done != null && !collector.collect(futures.remove(done), done)) {
+                        return collector.failure;
                     }
                 }
             }
-        } catch (RemoteException exception) {
-            OPFLog.e("getSkuDetails request failed.", exception);
+            while (!futures.isEmpty()) {
+                final Future<Bundle> done = completionService.take();
+                if (!collector.collect(futures.remove(done), done)) {
+                    return collector.failure;
+                }
+            }
+        } catch (InterruptedException exception) {
+            OPFLog.e("getSkuDetails request interrupted.", exception);
+            Thread.currentThread().interrupt();
             return null;
+        } finally {
+            for (final Future<Bundle> future : futures.keySet()) {
+                future.cancel(true);
+            }
+            BillingMetricsRecorder.record(BillingStage.CALL, start);
         }
-        return GoogleUtils.putResponse(result, Response.OK);
+        return collector.result();
     }
 
     /**
@@ -199,7 +283,8 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
      * @param startOver Flag indicating whether inventory should be loaded from the start or from
      *                  the point of the previous successful request.
      *
-     * @return Bundle containing user inventory. Can be null.
+     * @return Bundle containing user inventory, with continuation token if there are more pages.
+     * Can be null.
      */
     @Nullable
     Bundle getPurchases(final boolean startOver) {
@@ -208,33 +293,42 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
         if (service == null) {
             return null;
         }
-        final Bundle result = new Bundle();
+        // Accumulate pages of all item types and put them in a result bundle once
+        final ArrayList<String> purchaseDataList = new ArrayList<>();
+        final ArrayList<String> itemList = new ArrayList<>();
+        final ArrayList<String> signatureList = new ArrayList<>();
+        String continuationToken = null;
+        // Without any pending page left there's nothing to continue, load from the start
+        final boolean fromStart = startOver || !hasPendingPages();
         try {
             for (final ItemType itemType : ItemType.values()) {
                 final String type = itemType.toString();
                 final String key = KEY_CONTINUATION_TOKEN + type;
                 // Try to use last successful request token if required
-                final String token = startOver ? null : preferences.getString(key);
+                final String token = fromStart ? null : preferences.getString(key);
+                if (token != null && token.isEmpty()) {
+                    // All purchases of this type were already loaded
+                    continue;
+                }
+                final long start = BillingMetricsRecorder.start();
                 final Bundle purchases = service.getPurchases(API, packageName, type, token);
+                BillingMetricsRecorder.record(BillingStage.CALL, start);
                 final Response response = GoogleUtils.getResponse(purchases);
                 OPFLog.d("Type: %s. Response: %s. Purchases: %s.",
                          itemType, response, OPFUtils.toString(purchases));
                 if (response != Response.OK) {
                     return purchases;
                 } else {
-                    final ArrayList<String> purchaseDataList = GoogleUtils.getDataList(purchases);
-                    final ArrayList<String> itemList = GoogleUtils.getItemList(purchases);
-                    final ArrayList<String> signatureList = GoogleUtils.getSignatureList(purchases);
+                    addAll(purchaseDataList, GoogleUtils.getDataList(purchases));
+                    addAll(itemList, GoogleUtils.getItemList(purchases));
+                    addAll(signatureList, GoogleUtils.getSignatureList(purchases));
                     final String newToken = GoogleUtils.getContinuationToken(purchases);
-                    // Aggregate all responses in a single bundle
-                    GoogleUtils.addDataList(result, purchaseDataList);
-                    GoogleUtils.addItemList(result, itemList);
-                    GoogleUtils.addSignatureList(result, signatureList);
-                    // Save token for future use
+                    // Save token for future use, empty one marks the last page
                     if (TextUtils.isEmpty(newToken)) {
-                        preferences.remove(key);
+                        preferences.put(key, "");
                     } else {
                         preferences.put(key, newToken);
+                        continuationToken = newToken;
                     }
                 }
             }
@@ -242,9 +336,46 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
             OPFLog.e("getPurchases request failed.", exception);
             return null;
         }
+        if (continuationToken == null) {
+            // Paging sequence is finished, next one must not skip exhausted types
+            clearContinuationTokens();
+        }
+        final Bundle result = new Bundle();
+        GoogleUtils.putDataList(result, purchaseDataList);
+        GoogleUtils.putItemList(result, itemList);
+        GoogleUtils.putSignatureList(result, signatureList);
+        // Signals that not all pages were loaded, actual tokens are kept in preferences
+        GoogleUtils.putContinuationToken(result, continuationToken);
         return GoogleUtils.putResponse(result, Response.OK);
     }
 
+    /**
+     * Checks whether any item type has stored continuation token of unloaded page.
+     *
+     * @return True if paging sequence is in progress, false otherwise.
+     */
+    private boolean hasPendingPages() {
+        for (final ItemType itemType : ItemType.values()) {
+            final String token = preferences.getString(KEY_CONTINUATION_TOKEN + itemType);
+            if (!TextUtils.isEmpty(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes stored continuation tokens of all item types.
+     */
+    private void clearContinuationTokens() {
+        final ItemType[] itemTypes = ItemType.values();
+        final String[] keys = new String[itemTypes.length];
+        for (int i = 0; i < itemTypes.length; i++) {
+            keys[i] = KEY_CONTINUATION_TOKEN + itemTypes[i];
+        }
+        preferences.remove(keys);
+    }
+
     @NonNull
     @Override
     protected Intent getServiceIntent() {
@@ -252,4 +383,109 @@ class GoogleBillingHelper extends AidlBillingHelper<IInAppBillingService> {
         serviceIntent.setPackage(INTENT_PACKAGE);
         return serviceIntent;
     }
+
+    /**
+     * Single {@link IInAppBillingService#getSkuDetails(int, String, String, Bundle)} call.
+     */
+    private final class SkuDetailsTask implements Callable<Bundle> {
+
+        @NonNull
+        private final IInAppBillingService service;
+        @NonNull
+        private final ItemType itemType;
+        @NonNull
+        private final Bundle skuBundle;
+
+        SkuDetailsTask(@NonNull final IInAppBillingService service,
+                       @NonNull final ItemType itemType,
+                       @NonNull final Bundle skuBundle) {
+            this.service = service;
+            this.itemType = itemType;
+            this.skuBundle = skuBundle;
+        }
+
+        @Override
+        public Bundle call() throws RemoteException {
+            final String type = itemType.toString();
+            final Bundle details = service.getSkuDetails(API, packageName, type, skuBundle);
+            OPFLog.d("Type: %s. Response: %s. Details: %s.", itemType,
+                     GoogleUtils.getResponse(details), OPFUtils.toString(details));
+            return details;
+        }
+    }
+
+    /**
+     * Gathers results of {@link SkuDetailsTask}s in submission order.
+     */
+    private final class SkuDetailsCollector {
+
+        @NonNull
+        private final List<ArrayList<String>> skuDetailsLists;
+        /**
+         * First unsuccessful result, null if call has thrown exception.
+         */
+        @Nullable
+        private Bundle failure;
+        private boolean failed;
+        private int size;
+
+        SkuDetailsCollector(final int count) {
+            this.skuDetailsLists = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                skuDetailsLists.add(null);
+            }
+        }
+
+        /**
+         * Collects result of finished task.
+         *
+         * @param index  Submission index of the task.
+         * @param future Finished task.
+         * @return False if loading should be stopped, true otherwise.
+         * @throws InterruptedException if current thread was interrupted.
+         */
+        boolean collect(final int index, @NonNull final Future<Bundle> future)
+                throws InterruptedException {
+            Bundle details;
+            try {
+                details = future.get();
+            } catch (ExecutionException exception) {
+                OPFLog.e("getSkuDetails request failed.", exception.getCause());
+                details = null;
+            }
+            if (GoogleUtils.getResponse(details) == Response.OK) {
+                final ArrayList<String> skuDetails = GoogleUtils.getSkuDetails(details);
+                if (skuDetails != null) {
+                    skuDetailsLists.set(index, skuDetails);
+                    size += skuDetails.size();
+                }
+                return true;
+            }
+            if (!failed) {
+                failed = true;
+                failure = details;
+            }
+            return !skuDetailsFailFast;
+        }
+
+        /**
+         * Merges all collected details in a single bundle.
+         *
+         * @return Bundle containing all loaded details, or first failure if nothing was loaded.
+         */
+        @Nullable
+        Bundle result() {
+            if (failed && size == 0) {
+                return failure;
+            }
+            final ArrayList<String> skuDetails = new ArrayList<>(size);
+            for (final ArrayList<String> list : skuDetailsLists) {
+                if (list != null) {
+                    skuDetails.addAll(list);
+                }
+            }
+            final Bundle result = GoogleUtils.putSkuDetails(new Bundle(), skuDetails);
+            return GoogleUtils.putResponse(result, Response.OK);
+        }
+    }
 }
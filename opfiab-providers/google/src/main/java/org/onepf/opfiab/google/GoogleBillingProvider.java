@@ -16,6 +16,7 @@
 
 package org.onepf.opfiab.google;
 
+import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.app.Activity;
 import android.app.PendingIntent;
@@ -27,19 +28,31 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
+import com.android.vending.billing.IInAppBillingService;
+
 import org.json.JSONException;
+import org.onepf.opfiab.OPFIab;
 import org.onepf.opfiab.billing.ActivityBillingProvider;
+import org.onepf.opfiab.billing.AidlBillingHelper;
 import org.onepf.opfiab.billing.BaseBillingProvider;
 import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.billing.InventoryStore;
+import org.onepf.opfiab.billing.ProviderStateCache;
+import org.onepf.opfiab.billing.ServiceBinder;
+import org.onepf.opfiab.billing.SkuDetailsCache;
 import org.onepf.opfiab.google.model.GooglePurchase;
 import org.onepf.opfiab.google.model.GoogleSkuDetails;
 import org.onepf.opfiab.google.model.ItemType;
 import org.onepf.opfiab.google.model.PurchaseState;
 import org.onepf.opfiab.google.model.SignedPurchase;
+import org.onepf.opfiab.metrics.BillingMetricsRecorder;
+import org.onepf.opfiab.metrics.BillingStage;
 import org.onepf.opfiab.model.BillingProviderInfo;
 import org.onepf.opfiab.model.billing.Purchase;
 import org.onepf.opfiab.model.billing.SkuDetails;
 import org.onepf.opfiab.model.billing.SkuType;
+import org.onepf.opfiab.model.event.RequestHandledEvent;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
 import org.onepf.opfiab.model.event.billing.Status;
 import org.onepf.opfiab.verification.PurchaseVerifier;
 import org.onepf.opfutils.OPFChecks;
@@ -49,9 +62,12 @@ import org.onepf.opfutils.OPFUtils;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
 
 import static android.Manifest.permission.GET_ACCOUNTS;
 
@@ -77,13 +93,47 @@ public class GoogleBillingProvider
      * Helper object to delegate all Google specific calls to.
      */
     protected final GoogleBillingHelper helper;
+    /**
+     * Requests waiting for billing service connection.
+     */
+    private final Queue<BillingRequest> waitingRequests = new ConcurrentLinkedQueue<>();
 
     protected GoogleBillingProvider(
             @NonNull final Context context,
             @NonNull final GoogleSkuResolver skuResolver,
             @NonNull final PurchaseVerifier purchaseVerifier) {
-        super(context, skuResolver, purchaseVerifier);
-        helper = new GoogleBillingHelper(context);
+        this(context, skuResolver, purchaseVerifier, null, null, null, 1, true);
+    }
+
+    @SuppressWarnings({"checkstyle:parameternumber"})
+    protected GoogleBillingProvider(
+            @NonNull final Context context,
+            @NonNull final GoogleSkuResolver skuResolver,
+            @NonNull final PurchaseVerifier purchaseVerifier,
+            @Nullable final SkuDetailsCache skuDetailsCache,
+            @Nullable final InventoryStore inventoryStore,
+            @Nullable final ProviderStateCache providerStateCache,
+            final int skuDetailsConcurrency,
+            final boolean skuDetailsFailFast) {
+        this(context, skuResolver, purchaseVerifier, skuDetailsCache, inventoryStore,
+             providerStateCache, skuDetailsConcurrency, skuDetailsFailFast, ServiceBinder.DEFAULT);
+    }
+
+    @SuppressWarnings({"checkstyle:parameternumber"})
+    protected GoogleBillingProvider(
+            @NonNull final Context context,
+            @NonNull final GoogleSkuResolver skuResolver,
+            @NonNull final PurchaseVerifier purchaseVerifier,
+            @Nullable final SkuDetailsCache skuDetailsCache,
+            @Nullable final InventoryStore inventoryStore,
+            @Nullable final ProviderStateCache providerStateCache,
+            final int skuDetailsConcurrency,
+            final boolean skuDetailsFailFast,
+            @NonNull final ServiceBinder serviceBinder) {
+        super(context, skuResolver, purchaseVerifier, skuDetailsCache, inventoryStore,
+              providerStateCache);
+        helper = new GoogleBillingHelper(context, skuDetailsConcurrency, skuDetailsFailFast,
+                                         serviceBinder);
     }
 
     /**
@@ -179,12 +229,83 @@ public class GoogleBillingProvider
         }
     }
 
+    @Nullable
+    @Override
+    protected String getSignature(@NonNull final Purchase purchase) {
+        return purchase instanceof SignedPurchase ? ((SignedPurchase) purchase).getSignature() : null;
+    }
+
+    @NonNull
+    @Override
+    protected Purchase restorePurchase(@NonNull final Purchase purchase,
+                                       @Nullable final String signature) {
+        return signature == null ? purchase : new SignedPurchase(purchase, signature);
+    }
+
     @Override
     public void checkManifest() {
         OPFChecks.checkPermission(context, GET_ACCOUNTS);
         OPFChecks.checkPermission(context, PERMISSION_BILLING);
     }
 
+    @Override
+    public void warmUp() {
+        helper.connect();
+    }
+
+    /**
+     * Handles requests which were waiting for billing service connection.
+     *
+     * @param connected Whether service was connected.
+     * @param timedOut  Whether connection was given up on due to timeout.
+     */
+    private void handleWaitingRequests(final boolean connected, final boolean timedOut) {
+        BillingRequest billingRequest;
+        while ((billingRequest = waitingRequests.poll()) != null) {
+            if (connected) {
+                super.onEventAsync(billingRequest);
+                continue;
+            }
+            // Don't let availability check start another connection attempt
+            BillingMetricsRecorder.onHandling(billingRequest);
+            try {
+                OPFIab.post(new RequestHandledEvent(billingRequest));
+                postEmptyResponse(billingRequest, timedOut
+                        ? Status.SERVICE_UNAVAILABLE
+                        : Status.BILLING_UNAVAILABLE);
+            } finally {
+                BillingMetricsRecorder.onHandled();
+            }
+        }
+    }
+
+    /**
+     * Resumes requests queued while billing service was being connected.
+     *
+     * @param connectionEvent Event indicating that connection attempt has finished.
+     */
+    public void onEventAsync(@NonNull final AidlBillingHelper.ConnectionEvent connectionEvent) {
+        if (connectionEvent.getHelper() == helper) {
+            handleWaitingRequests(connectionEvent.isConnected(), connectionEvent.isTimedOut());
+        }
+    }
+
+    @Override
+    public void onEventAsync(@NonNull final BillingRequest billingRequest) {
+        final Future<IInAppBillingService> connection = helper.connect();
+        if (connection.isDone()) {
+            super.onEventAsync(billingRequest);
+            return;
+        }
+        // Don't block, request will be handled once service is connected
+        BillingMetricsRecorder.onDeferred(billingRequest);
+        waitingRequests.add(billingRequest);
+        if (connection.isDone()) {
+            // Connection finished while request was being queued
+            handleWaitingRequests(helper.isConnected(), helper.isTimedOut());
+        }
+    }
+
     @Override
     public boolean isAvailable() {
         final Response response = helper.isBillingSupported();
@@ -201,6 +322,27 @@ public class GoogleBillingProvider
         return accountManager.getAccountsByType(ACCOUNT_TYPE_GOOGLE).length > 0;
     }
 
+    /**
+     * Google doesn't report which account is used for billing, so set of all Google accounts
+     * present on device is used to tell users apart.
+     */
+    @Nullable
+    @Override
+    protected String getUserId() {
+        final Object service = context.getSystemService(Context.ACCOUNT_SERVICE);
+        final AccountManager accountManager = (AccountManager) service;
+        final Account[] accounts = accountManager.getAccountsByType(ACCOUNT_TYPE_GOOGLE);
+        if (accounts.length == 0) {
+            return null;
+        }
+        final List<String> names = new ArrayList<>(accounts.length);
+        for (final Account account : accounts) {
+            names.add(account.name);
+        }
+        Collections.sort(names);
+        return TextUtils.join(",", names);
+    }
+
     @NonNull
     @Override
     public BillingProviderInfo getInfo() {
@@ -275,10 +417,11 @@ public class GoogleBillingProvider
 
         // Some details might not have been loaded
         final Collection<SkuDetails> skusDetails = new ArrayList<>();
-        final Collection<String> unresolvedSkus = new LinkedList<>(skus);
+        final Collection<String> unresolvedSkus = new HashSet<>(skus);
+        final long start = BillingMetricsRecorder.start();
         for (final String jsonSku : jsonSkuDetails) {
             try {
-                final GoogleSkuDetails googleSkuDetails = new GoogleSkuDetails(jsonSku);
+                final GoogleSkuDetails googleSkuDetails = GoogleSkuDetails.fromJson(jsonSku);
                 final SkuDetails skuDetails = newSkuDetails(googleSkuDetails);
                 unresolvedSkus.remove(skuDetails.getSku());
                 skusDetails.add(skuDetails);
@@ -289,6 +432,7 @@ public class GoogleBillingProvider
         for (final String sku : unresolvedSkus) {
             skusDetails.add(new SkuDetails(sku));
         }
+        BillingMetricsRecorder.record(BillingStage.PARSE, start);
         postSkuDetailsResponse(Status.SUCCESS, skusDetails);
     }
 
@@ -319,10 +463,11 @@ public class GoogleBillingProvider
         }
 
         final Collection<Purchase> inventory = new ArrayList<>(size);
+        final long start = BillingMetricsRecorder.start();
         for (int i = 0; i < size; i++) {
             final String data = dataList.get(i);
             try {
-                final GooglePurchase googlePurchase = new GooglePurchase(data);
+                final GooglePurchase googlePurchase = GooglePurchase.fromJson(data);
                 final Purchase purchase = newPurchase(googlePurchase);
                 final String signature = signatureList.get(i);
                 final SignedPurchase signedPurchase = new SignedPurchase(purchase, signature);
@@ -331,6 +476,7 @@ public class GoogleBillingProvider
                 OPFLog.e("Failed to parse purchase data.", exception);
             }
         }
+        BillingMetricsRecorder.record(BillingStage.PARSE, start);
         final String token = GoogleUtils.getContinuationToken(result);
         final boolean hasMore = !TextUtils.isEmpty(token);
         postInventoryResponse(Status.SUCCESS, inventory, hasMore);
@@ -354,7 +500,7 @@ public class GoogleBillingProvider
 
         final GooglePurchase googlePurchase;
         try {
-            googlePurchase = new GooglePurchase(purchaseData);
+            googlePurchase = GooglePurchase.fromJson(purchaseData);
         } catch (JSONException exception) {
             OPFLog.e("Failed to parse purchase data: " + purchaseData, exception);
             postPurchaseResponse(Status.UNKNOWN_ERROR, null);
@@ -370,13 +516,66 @@ public class GoogleBillingProvider
     public static class Builder
             extends BaseBillingProvider.Builder<GoogleSkuResolver, PurchaseVerifier> {
 
+        private int skuDetailsConcurrency = 1;
+        private boolean skuDetailsFailFast = true;
+        @NonNull
+        private ServiceBinder serviceBinder = ServiceBinder.DEFAULT;
+
         public Builder(@NonNull final Context context) {
             super(context, GoogleSkuResolver.DEFAULT, PurchaseVerifier.DEFAULT);
         }
 
+        /**
+         * Sets maximum number of concurrent calls made to load SKU details.
+         * <br>
+         * SKUs are requested in batches for every item type, with concurrency greater than 1 those
+         * calls are made in parallel. Default value is 1.
+         *
+         * @param skuDetailsConcurrency Maximum number of concurrent calls.
+         * @return this object.
+         */
+        public Builder setSkuDetailsConcurrency(final int skuDetailsConcurrency) {
+            if (skuDetailsConcurrency < 1) {
+                throw new IllegalArgumentException("Concurrency must be positive.");
+            }
+            this.skuDetailsConcurrency = skuDetailsConcurrency;
+            return this;
+        }
+
+        /**
+         * Sets whether SKU details loading should stop on the first unsuccessful response.
+         * <br>
+         * Otherwise, failed batches are skipped and successfully loaded details are reported.
+         * Default value is true.
+         *
+         * @param skuDetailsFailFast True to stop on the first failure.
+         * @return this object.
+         */
+        public Builder setSkuDetailsFailFast(final boolean skuDetailsFailFast) {
+            this.skuDetailsFailFast = skuDetailsFailFast;
+            return this;
+        }
+
+        /**
+         * Sets object used to bind to Google Play billing service.
+         * <br>
+         * Intended for connecting to a local service implementation, e.g. in benchmarks.
+         * Default value is {@link ServiceBinder#DEFAULT}.
+         *
+         * @param serviceBinder Object used to bind to billing service.
+         * @return this object.
+         */
+        public Builder setServiceBinder(@NonNull final ServiceBinder serviceBinder) {
+            this.serviceBinder = serviceBinder;
+            return this;
+        }
+
         @Override
         public GoogleBillingProvider build() {
-            return new GoogleBillingProvider(context, skuResolver, purchaseVerifier);
+            return new GoogleBillingProvider(context, skuResolver, purchaseVerifier,
+                                             skuDetailsCache, inventoryStore, providerStateCache,
+                                             skuDetailsConcurrency, skuDetailsFailFast,
+                                             serviceBinder);
         }
 
         @Override
@@ -388,5 +587,21 @@ public class GoogleBillingProvider
         public Builder setPurchaseVerifier(@NonNull final PurchaseVerifier purchaseVerifier) {
             return (Builder) super.setPurchaseVerifier(purchaseVerifier);
         }
+
+        @Override
+        public Builder setSkuDetailsCache(@Nullable final SkuDetailsCache skuDetailsCache) {
+            return (Builder) super.setSkuDetailsCache(skuDetailsCache);
+        }
+
+        @Override
+        public Builder setInventoryStore(@Nullable final InventoryStore inventoryStore) {
+            return (Builder) super.setInventoryStore(inventoryStore);
+        }
+
+        @Override
+        public Builder setProviderStateCache(
+                @Nullable final ProviderStateCache providerStateCache) {
+            return (Builder) super.setProviderStateCache(providerStateCache);
+        }
     }
 }
@@ -29,6 +29,17 @@ import org.onepf.opfiab.verification.PurchaseVerifier;
  */
 public abstract class GooglePurchaseVerifier extends PublicKeyPurchaseVerifier {
 
+    protected GooglePurchaseVerifier() {
+        super();
+    }
+
+    /**
+     * @param parallel True if inventory should be verified using multiple threads.
+     */
+    protected GooglePurchaseVerifier(final boolean parallel) {
+        super(parallel);
+    }
+
     @Nullable
     @Override
     protected String getData(@NonNull final Purchase purchase) {
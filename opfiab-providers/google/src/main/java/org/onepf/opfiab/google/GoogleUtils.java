@@ -21,6 +21,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.text.TextUtils;
 
 import java.util.ArrayList;
 
@@ -62,27 +63,9 @@ public final class GoogleUtils {
     }
 
     @NonNull
-    private static Bundle addList(@NonNull final Bundle bundle,
-                                  @Nullable final ArrayList<String> list,
-                                  @NonNull final String key) {
-        if (list != null && !list.isEmpty()) {
-            final ArrayList<String> newList;
-            final ArrayList<String> oldList;
-            if ((oldList = getList(bundle, key)) == null) {
-                newList = list;
-            } else {
-                newList = new ArrayList<>(oldList);
-                newList.addAll(list);
-            }
-            bundle.putStringArrayList(key, newList);
-        }
-        return bundle;
-    }
-
-    @NonNull
-    static Bundle addSkuDetails(@NonNull final Bundle bundle,
+    static Bundle putSkuDetails(@NonNull final Bundle bundle,
                                 @Nullable final ArrayList<String> skuDetailsList) {
-        return addList(bundle, skuDetailsList, SKU_DETAILS_LIST);
+        return putList(bundle, skuDetailsList, SKU_DETAILS_LIST);
     }
 
     @Nullable
@@ -91,9 +74,9 @@ public final class GoogleUtils {
     }
 
     @NonNull
-    static Bundle addDataList(@NonNull final Bundle bundle,
+    static Bundle putDataList(@NonNull final Bundle bundle,
                               @Nullable final ArrayList<String> purchaseData) {
-        return addList(bundle, purchaseData, PURCHASE_DATA_LIST);
+        return putList(bundle, purchaseData, PURCHASE_DATA_LIST);
     }
 
     @Nullable
@@ -102,9 +85,9 @@ public final class GoogleUtils {
     }
 
     @NonNull
-    static Bundle addItemList(@NonNull final Bundle bundle,
+    static Bundle putItemList(@NonNull final Bundle bundle,
                               @Nullable final ArrayList<String> purchaseData) {
-        return addList(bundle, purchaseData, ITEM_LIST);
+        return putList(bundle, purchaseData, ITEM_LIST);
     }
 
     @Nullable
@@ -113,9 +96,9 @@ public final class GoogleUtils {
     }
 
     @NonNull
-    static Bundle addSignatureList(@NonNull final Bundle bundle,
+    static Bundle putSignatureList(@NonNull final Bundle bundle,
                                    @Nullable final ArrayList<String> purchaseData) {
-        return addList(bundle, purchaseData, SIGNATURE_LIST);
+        return putList(bundle, purchaseData, SIGNATURE_LIST);
     }
 
     @Nullable
@@ -150,6 +133,15 @@ public final class GoogleUtils {
         return bundle;
     }
 
+    @NonNull
+    static Bundle putContinuationToken(@NonNull final Bundle bundle,
+                                       @Nullable final String continuationToken) {
+        if (!TextUtils.isEmpty(continuationToken)) {
+            bundle.putString(CONTINUATION_TOKEN, continuationToken);
+        }
+        return bundle;
+    }
+
     @Nullable
     static String getContinuationToken(@Nullable final Bundle bundle) {
         if (bundle != null && bundle.containsKey(CONTINUATION_TOKEN)) {
@@ -30,7 +30,15 @@ public class SimpleGooglePurchaseVerifier extends GooglePurchaseVerifier {
     private final String publicKey;
 
     public SimpleGooglePurchaseVerifier(@NonNull final String publicKey) {
-        super();
+        this(publicKey, false);
+    }
+
+    /**
+     * @param publicKey Base64 encoded public key of the application.
+     * @param parallel  True if inventory should be verified using multiple threads.
+     */
+    public SimpleGooglePurchaseVerifier(@NonNull final String publicKey, final boolean parallel) {
+        super(parallel);
         this.publicKey = publicKey;
     }
 
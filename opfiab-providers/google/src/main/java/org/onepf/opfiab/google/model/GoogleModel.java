@@ -17,16 +17,81 @@
 package org.onepf.opfiab.google.model;
 
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+
 /**
  * Parent of a few Google billing model classes.
  */
 public class GoogleModel {
 
-    private static final String NAME_PRODUCT_ID = "productId";
+    protected static final String NAME_PRODUCT_ID = "productId";
+
+
+    /**
+     * Reads string value, numbers are returned in their string form.
+     *
+     * @param reader JsonReader positioned at value to read.
+     * @return String value, null if JSON value is null.
+     * @throws IOException if value can't be read.
+     */
+    @Nullable
+    protected static String nextString(@NonNull final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Reads boolean value, string values "true" and "false" are accepted as well.
+     *
+     * @param reader JsonReader positioned at value to read.
+     * @return Boolean value.
+     * @throws IOException if value can't be read.
+     */
+    protected static boolean nextBoolean(@NonNull final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.STRING) {
+            return Boolean.parseBoolean(reader.nextString());
+        }
+        return reader.nextBoolean();
+    }
+
+    /**
+     * Checks that required value was found in JSON.
+     *
+     * @param value Value to check.
+     * @param name  Name of the value.
+     * @param <T>   Type of the value.
+     * @return Supplied value.
+     * @throws JSONException if value is null.
+     */
+    @NonNull
+    protected static <T> T require(@Nullable final T value, @NonNull final String name)
+            throws JSONException {
+        if (value == null) {
+            throw new JSONException("No value for " + name);
+        }
+        return value;
+    }
+
+    /**
+     * Wraps exception thrown by {@link JsonReader} to keep {@link JSONException} contract.
+     *
+     * @param exception Exception to wrap.
+     * @return New JSONException.
+     */
+    @NonNull
+    protected static JSONException wrap(@NonNull final Exception exception) {
+        return new JSONException(exception.toString());
+    }
 
 
     @NonNull
@@ -42,6 +107,12 @@ public class GoogleModel {
         this.productId = jsonObject.getString(NAME_PRODUCT_ID);
     }
 
+    protected GoogleModel(@NonNull final String originalJson, @NonNull final String productId) {
+        super();
+        this.originalJson = originalJson;
+        this.productId = productId;
+    }
+
     /**
      * Gets JSON data associated with this billing model.
      *
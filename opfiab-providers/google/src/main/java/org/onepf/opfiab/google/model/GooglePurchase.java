@@ -18,10 +18,14 @@ package org.onepf.opfiab.google.model;
 
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.util.JsonReader;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.StringReader;
+
 /**
  * This model represents purchase made in Google Play.
  */
@@ -36,6 +40,89 @@ public class GooglePurchase extends GoogleModel {
     private static final String NAME_AUTO_RENEWING = "autoRenewing";
 
 
+    /**
+     * Parses purchase with a streaming {@link JsonReader}, reading only known fields.
+     * <br>
+     * Unlike {@link #GooglePurchase(String)} no intermediate {@link JSONObject} is created.
+     *
+     * @param originalJson JSON data returned by Google Play.
+     * @return New GooglePurchase object.
+     * @throws JSONException if data is malformed or some required value is missing.
+     */
+    @SuppressWarnings("PMD.CyclomaticComplexity")
+    @NonNull
+    public static GooglePurchase fromJson(@NonNull final String originalJson)
+            throws JSONException {
+        String productId = null;
+        String orderId = null;
+        String packageName = null;
+        String purchaseToken = null;
+        String developerPayload = null;
+        Integer purchaseStateCode = null;
+        Long purchaseTime = null;
+        boolean autoRenewing = false;
+        final JsonReader reader = new JsonReader(new StringReader(originalJson));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case NAME_PRODUCT_ID:
+                        productId = nextString(reader);
+                        break;
+                    case NAME_ORDER_ID:
+                        orderId = nextString(reader);
+                        break;
+                    case NAME_PACKAGE_NAME:
+                        packageName = nextString(reader);
+                        break;
+                    case NAME_PURCHASE_TOKEN:
+                        purchaseToken = nextString(reader);
+                        break;
+                    case NAME_DEVELOPER_PAYLOAD:
+                        developerPayload = nextString(reader);
+                        break;
+                    case NAME_PURCHASE_STATE:
+                        purchaseStateCode = reader.nextInt();
+                        break;
+                    case NAME_PURCHASE_TIME:
+                        purchaseTime = reader.nextLong();
+                        break;
+                    case NAME_AUTO_RENEWING:
+                        autoRenewing = nextBoolean(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException | NumberFormatException exception) {
+            throw wrap(exception);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // StringReader can't fail on close
+            }
+        }
+
+        final int code = require(purchaseStateCode, NAME_PURCHASE_STATE);
+        final PurchaseState purchaseState = PurchaseState.fromCode(code);
+        if (purchaseState == null) {
+            throw new JSONException("Unrecognized purchase state: " + code);
+        }
+        return new GooglePurchase(originalJson,
+                                  require(productId, NAME_PRODUCT_ID),
+                                  require(orderId, NAME_ORDER_ID),
+                                  require(packageName, NAME_PACKAGE_NAME),
+                                  require(purchaseToken, NAME_PURCHASE_TOKEN),
+                                  purchaseState,
+                                  developerPayload,
+                                  require(purchaseTime, NAME_PURCHASE_TIME),
+                                  autoRenewing);
+    }
+
+
     @NonNull
     private final String orderId;
     @NonNull
@@ -73,6 +160,26 @@ public class GooglePurchase extends GoogleModel {
         this(originalJson, new JSONObject(originalJson));
     }
 
+    @SuppressWarnings({"checkstyle:parameternumber"})
+    protected GooglePurchase(@NonNull final String originalJson,
+                             @NonNull final String productId,
+                             @NonNull final String orderId,
+                             @NonNull final String packageName,
+                             @NonNull final String purchaseToken,
+                             @NonNull final PurchaseState purchaseState,
+                             @Nullable final String developerPayload,
+                             final long purchaseTime,
+                             final boolean autoRenewing) {
+        super(originalJson, productId);
+        this.orderId = orderId;
+        this.packageName = packageName;
+        this.purchaseToken = purchaseToken;
+        this.purchaseState = purchaseState;
+        this.developerPayload = developerPayload;
+        this.purchaseTime = purchaseTime;
+        this.autoRenewing = autoRenewing;
+    }
+
 
     /**
      * Gets a unique order identifier of the transaction. This identifier corresponds to the
@@ -17,10 +17,14 @@
 package org.onepf.opfiab.google.model;
 
 import android.support.annotation.NonNull;
+import android.util.JsonReader;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.StringReader;
+
 /**
  * This model represents product available in Google Play.
  */
@@ -33,6 +37,85 @@ public class GoogleSkuDetails extends GoogleModel {
     private static final String NAME_DESCRIPTION = "description";
     private static final String NAME_MICROS = "price_amount_micros";
 
+
+    /**
+     * Parses product details with a streaming {@link JsonReader}, reading only known fields.
+     * <br>
+     * Unlike {@link #GoogleSkuDetails(String)} no intermediate {@link JSONObject} is created.
+     *
+     * @param originalJson JSON data returned by Google Play.
+     * @return New GoogleSkuDetails object.
+     * @throws JSONException if data is malformed or some required value is missing.
+     */
+    @SuppressWarnings("PMD.CyclomaticComplexity")
+    @NonNull
+    public static GoogleSkuDetails fromJson(@NonNull final String originalJson)
+            throws JSONException {
+        String productId = null;
+        String itemTypeCode = null;
+        String price = null;
+        String currency = null;
+        String title = null;
+        String description = null;
+        Long micros = null;
+        final JsonReader reader = new JsonReader(new StringReader(originalJson));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case NAME_PRODUCT_ID:
+                        productId = nextString(reader);
+                        break;
+                    case NAME_TYPE:
+                        itemTypeCode = nextString(reader);
+                        break;
+                    case NAME_PRICE:
+                        price = nextString(reader);
+                        break;
+                    case NAME_CURRENCY:
+                        currency = nextString(reader);
+                        break;
+                    case NAME_TITLE:
+                        title = nextString(reader);
+                        break;
+                    case NAME_DESCRIPTION:
+                        description = nextString(reader);
+                        break;
+                    case NAME_MICROS:
+                        micros = reader.nextLong();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException | NumberFormatException exception) {
+            throw wrap(exception);
+        } finally {
+            try {
+                reader.close();
+            } catch (IOException ignored) {
+                // StringReader can't fail on close
+            }
+        }
+
+        final String code = require(itemTypeCode, NAME_TYPE);
+        final ItemType itemType = ItemType.fromCode(code);
+        if (itemType == null) {
+            throw new JSONException("Unrecognized itemType: " + code);
+        }
+        return new GoogleSkuDetails(originalJson,
+                                    require(productId, NAME_PRODUCT_ID),
+                                    itemType,
+                                    require(price, NAME_PRICE),
+                                    require(currency, NAME_CURRENCY),
+                                    require(title, NAME_TITLE),
+                                    require(description, NAME_DESCRIPTION),
+                                    require(micros, NAME_MICROS));
+    }
+
+
     @NonNull
     private final ItemType itemType;
     @NonNull
@@ -66,6 +149,24 @@ public class GoogleSkuDetails extends GoogleModel {
         this(originalJson, new JSONObject(originalJson));
     }
 
+    @SuppressWarnings({"checkstyle:parameternumber"})
+    protected GoogleSkuDetails(@NonNull final String originalJson,
+                               @NonNull final String productId,
+                               @NonNull final ItemType itemType,
+                               @NonNull final String price,
+                               @NonNull final String currency,
+                               @NonNull final String title,
+                               @NonNull final String description,
+                               final long micros) {
+        super(originalJson, productId);
+        this.itemType = itemType;
+        this.price = price;
+        this.currency = currency;
+        this.title = title;
+        this.description = description;
+        this.micros = micros;
+    }
+
     /**
      * Gets type of product, can be an in-app or a subscription.
      *
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.simulated;
+
+import android.support.annotation.NonNull;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distribution of time {@link SimulatedBillingProvider} spends handling a request.
+ *
+ * @see SimulatedBillingProvider.Builder
+ */
+public abstract class Latency {
+
+    /**
+     * Requests are handled right away.
+     */
+    public static final Latency NONE = fixed(0L);
+
+    protected Latency() {
+        super();
+    }
+
+    private static long checkMillis(final long millis) {
+        if (millis < 0L) {
+            throw new IllegalArgumentException("Latency can't be negative.");
+        }
+        return millis;
+    }
+
+    /**
+     * Every request takes exactly supplied time.
+     *
+     * @param millis Latency in milliseconds.
+     * @return Latency object.
+     */
+    @NonNull
+    public static Latency fixed(final long millis) {
+        final long nanos = TimeUnit.MILLISECONDS.toNanos(checkMillis(millis));
+        return new Latency() {
+            @Override
+            public long next(@NonNull final Random random) {
+                return nanos;
+            }
+        };
+    }
+
+    /**
+     * Latency is uniformly distributed in supplied range.
+     *
+     * @param minMillis Minimum latency in milliseconds.
+     * @param maxMillis Maximum latency in milliseconds.
+     * @return Latency object.
+     */
+    @NonNull
+    public static Latency uniform(final long minMillis, final long maxMillis) {
+        final long min = TimeUnit.MILLISECONDS.toNanos(checkMillis(minMillis));
+        final long max = TimeUnit.MILLISECONDS.toNanos(checkMillis(maxMillis));
+        if (max < min) {
+            throw new IllegalArgumentException("Maximum latency is less than minimum.");
+        }
+        return new Latency() {
+            @Override
+            public long next(@NonNull final Random random) {
+                return min + (long) (random.nextDouble() * (max - min));
+            }
+        };
+    }
+
+    /**
+     * Latency is exponentially distributed, i.e. requests arrive at a store as a Poisson process.
+     *
+     * @param meanMillis Mean latency in milliseconds.
+     * @return Latency object.
+     */
+    @NonNull
+    public static Latency exponential(final long meanMillis) {
+        final long mean = TimeUnit.MILLISECONDS.toNanos(checkMillis(meanMillis));
+        return new Latency() {
+            @Override
+            public long next(@NonNull final Random random) {
+                return (long) (-Math.log(1d - random.nextDouble()) * mean);
+            }
+        };
+    }
+
+    /**
+     * Latency is log-normally distributed, which is typical for network calls with a long tail.
+     *
+     * @param medianMillis Median latency in milliseconds.
+     * @param sigma        Standard deviation of latency logarithm, larger values give longer tail.
+     * @return Latency object.
+     */
+    @NonNull
+    public static Latency logNormal(final long medianMillis, final double sigma) {
+        final long median = TimeUnit.MILLISECONDS.toNanos(checkMillis(medianMillis));
+        if (sigma < 0d) {
+            throw new IllegalArgumentException("Sigma can't be negative.");
+        }
+        return new Latency() {
+            @Override
+            public long next(@NonNull final Random random) {
+                return (long) (median * Math.exp(sigma * random.nextGaussian()));
+            }
+        };
+    }
+
+    /**
+     * Picks latency of the next request.
+     *
+     * @param random Source of randomness.
+     * @return Latency in nanoseconds.
+     */
+    public abstract long next(@NonNull final Random random);
+}
@@ -0,0 +1,485 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.simulated;
+
+import android.app.Activity;
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.billing.BaseBillingProvider;
+import org.onepf.opfiab.billing.InventoryStore;
+import org.onepf.opfiab.billing.ProviderStateCache;
+import org.onepf.opfiab.billing.SkuDetailsCache;
+import org.onepf.opfiab.model.BillingProviderInfo;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.SkuDetails;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfiab.sku.SkuResolver;
+import org.onepf.opfiab.verification.PurchaseVerifier;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.onepf.opfiab.model.event.billing.Status.ITEM_ALREADY_OWNED;
+import static org.onepf.opfiab.model.event.billing.Status.ITEM_UNAVAILABLE;
+import static org.onepf.opfiab.model.event.billing.Status.SERVICE_UNAVAILABLE;
+import static org.onepf.opfiab.model.event.billing.Status.SUCCESS;
+import static org.onepf.opfiab.model.event.billing.Status.UNAUTHORISED;
+
+/**
+ * In-memory billing provider backed by {@link SimulatedStore}, intended for load testing.
+ * <br>
+ * Doesn't require any store application, thus can be used on a plain JVM. Each request can be
+ * configured to take time according to supplied {@link Latency}, to randomly fail with specific
+ * {@link Status} and to be rejected with {@link Status#SERVICE_UNAVAILABLE} when request rate
+ * exceeds the throttling limit. Inventory is returned in pages of configurable size.
+ * <br>
+ * Latency is simulated by blocking the worker thread, similar to providers using synchronous
+ * service calls.
+ */
+public class SimulatedBillingProvider extends BaseBillingProvider<SkuResolver, PurchaseVerifier> {
+
+    protected static final String NAME = "Simulated";
+
+    public static final BillingProviderInfo INFO = new BillingProviderInfo(NAME, null);
+
+    @NonNull
+    protected final SimulatedStore store;
+    @Nullable
+    protected final String userId;
+    @NonNull
+    private final Map<BillingRequest.Type, Latency> latencies;
+    @NonNull
+    private final Map<BillingRequest.Type, Map<Status, Float>> errorRates;
+    private final int pageSize;
+    @Nullable
+    private final Throttle throttle;
+    @NonNull
+    private final Random random;
+    /**
+     * Position of the next inventory page.
+     */
+    private int inventoryOffset;
+
+    @SuppressWarnings({"checkstyle:parameternumber"})
+    protected SimulatedBillingProvider(
+            @NonNull final Context context,
+            @NonNull final SkuResolver skuResolver,
+            @NonNull final PurchaseVerifier purchaseVerifier,
+            @Nullable final SkuDetailsCache skuDetailsCache,
+            @Nullable final InventoryStore inventoryStore,
+            @Nullable final ProviderStateCache providerStateCache,
+            @NonNull final SimulatedStore store,
+            @Nullable final String userId,
+            @NonNull final Map<BillingRequest.Type, Latency> latencies,
+            @NonNull final Map<BillingRequest.Type, Map<Status, Float>> errorRates,
+            final int pageSize,
+            @Nullable final Throttle throttle,
+            @NonNull final Random random) {
+        super(context, skuResolver, purchaseVerifier, skuDetailsCache, inventoryStore,
+              providerStateCache);
+        this.store = store;
+        this.userId = userId;
+        this.latencies = latencies;
+        this.errorRates = errorRates;
+        this.pageSize = pageSize;
+        this.throttle = throttle;
+        this.random = random;
+    }
+
+    private void simulateLatency(@NonNull final BillingRequest.Type type) {
+        final Latency latency = latencies.get(type);
+        final long nanos = latency == null ? 0L : latency.next(random);
+        if (nanos <= 0L) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException exception) {
+            OPFLog.e("Simulated latency interrupted.", exception);
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Randomly picks error for request of supplied type according to configured error rates.
+     *
+     * @param type Type of the request.
+     * @return Error status, null if request should succeed.
+     */
+    @Nullable
+    private Status pickError(@NonNull final BillingRequest.Type type) {
+        final Map<Status, Float> rates = errorRates.get(type);
+        if (rates == null || rates.isEmpty()) {
+            return null;
+        }
+        final float roll = random.nextFloat();
+        float threshold = 0f;
+        for (final Map.Entry<Status, Float> entry : rates.entrySet()) {
+            threshold += entry.getValue();
+            if (roll < threshold) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected void handleRequest(@NonNull final BillingRequest billingRequest) {
+        if (throttle != null && !throttle.tryAcquire()) {
+            OPFLog.d("Request throttled: %s", billingRequest);
+            postEmptyResponse(billingRequest, SERVICE_UNAVAILABLE);
+            return;
+        }
+        final BillingRequest.Type type = billingRequest.getType();
+        simulateLatency(type);
+        final Status error = pickError(type);
+        if (error != null) {
+            OPFLog.d("Simulated error %s for request: %s", error, billingRequest);
+            postEmptyResponse(billingRequest, error);
+            return;
+        }
+        super.handleRequest(billingRequest);
+    }
+
+    @Override
+    protected void skuDetails(@NonNull final Set<String> skus) {
+        final Collection<SkuDetails> skusDetails = new ArrayList<>(skus.size());
+        for (final String sku : skus) {
+            final SkuDetails skuDetails = store.getSkuDetails(sku);
+            skusDetails.add(skuDetails == null ? new SkuDetails(sku) : skuDetails);
+        }
+        postSkuDetailsResponse(SUCCESS, skusDetails);
+    }
+
+    @Override
+    protected void inventory(final boolean startOver) {
+        if (userId == null) {
+            postInventoryResponse(UNAUTHORISED, null, false);
+            return;
+        }
+        if (startOver) {
+            inventoryOffset = 0;
+        }
+        final List<SimulatedPurchase> inventory = store.getInventory(userId);
+        final int size = inventory.size();
+        final int from = Math.min(inventoryOffset, size);
+        final int to = pageSize > 0 ? Math.min(from + pageSize, size) : size;
+        inventoryOffset = to;
+        final Collection<Purchase> page = new ArrayList<Purchase>(inventory.subList(from, to));
+        postInventoryResponse(SUCCESS, page, to < size);
+    }
+
+    @Override
+    protected void purchase(@Nullable final Activity activity, @NonNull final String sku) {
+        if (userId == null) {
+            postPurchaseResponse(UNAUTHORISED, null);
+            return;
+        }
+        final SimulatedPurchase purchase;
+        synchronized (store) {
+            if (store.getSkuDetails(sku) == null) {
+                postPurchaseResponse(ITEM_UNAVAILABLE, null);
+                return;
+            }
+            if (store.isOwned(userId, sku)) {
+                postPurchaseResponse(ITEM_ALREADY_OWNED, null);
+                return;
+            }
+            purchase = store.grant(userId, sku);
+        }
+        postPurchaseResponse(SUCCESS, purchase);
+    }
+
+    @Override
+    protected void consume(@NonNull final Purchase purchase) {
+        final String token = purchase.getToken();
+        if (userId == null) {
+            postConsumeResponse(UNAUTHORISED, purchase);
+        } else if (token != null && store.consume(userId, token) != null) {
+            postConsumeResponse(SUCCESS, purchase);
+        } else {
+            postConsumeResponse(ITEM_UNAVAILABLE, purchase);
+        }
+    }
+
+    @Nullable
+    @Override
+    protected String getSignature(@NonNull final Purchase purchase) {
+        return purchase instanceof SimulatedPurchase ? ((SimulatedPurchase) purchase).getSignature() : null;
+    }
+
+    @NonNull
+    @Override
+    protected Purchase restorePurchase(@NonNull final Purchase purchase,
+                                       @Nullable final String signature) {
+        return signature == null ? purchase : new SimulatedPurchase(purchase, signature);
+    }
+
+    @NonNull
+    @Override
+    public BillingProviderInfo getInfo() {
+        return INFO;
+    }
+
+    @Override
+    public void checkManifest() {
+        // Nothing to check
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return true;
+    }
+
+    @Override
+    public boolean isAuthorised() {
+        return userId != null;
+    }
+
+    @Nullable
+    @Override
+    protected String getUserId() {
+        return userId;
+    }
+
+    /**
+     * Token bucket limiting rate of handled requests.
+     */
+    protected static final class Throttle {
+
+        private final double permitsPerNano;
+        private final double burst;
+        private double permits;
+        private long lastRefill;
+
+        Throttle(final double requestsPerSecond, final int burst) {
+            this.permitsPerNano = requestsPerSecond / TimeUnit.SECONDS.toNanos(1L);
+            this.burst = burst;
+            this.permits = burst;
+            this.lastRefill = System.nanoTime();
+        }
+
+        synchronized boolean tryAcquire() {
+            final long now = System.nanoTime();
+            permits = Math.min(burst, permits + (now - lastRefill) * permitsPerNano);
+            lastRefill = now;
+            if (permits < 1d) {
+                return false;
+            }
+            permits--;
+            return true;
+        }
+    }
+
+    public static class Builder extends BaseBillingProvider.Builder<SkuResolver, PurchaseVerifier> {
+
+        @NonNull
+        private final SimulatedStore store;
+        private final Map<BillingRequest.Type, Latency> latencies =
+                new EnumMap<>(BillingRequest.Type.class);
+        private final Map<BillingRequest.Type, Map<Status, Float>> errorRates =
+                new EnumMap<>(BillingRequest.Type.class);
+        @Nullable
+        private String userId;
+        private int pageSize;
+        private double throttleRate;
+        private int throttleBurst;
+        @Nullable
+        private Long seed;
+
+        /**
+         * @param context Context object.
+         * @param store   Store to handle requests with. Purchases are verified against its key pair
+         *                unless another {@link PurchaseVerifier} is set.
+         */
+        public Builder(@NonNull final Context context, @NonNull final SimulatedStore store) {
+            super(context, SkuResolver.DEFAULT, new SimulatedPurchaseVerifier(store));
+            this.store = store;
+        }
+
+        /**
+         * Sets id of the user whose inventory is used.
+         * <br>
+         * Without user provider is unauthorised and only SKU details requests succeed.
+         *
+         * @param userId Id of the user, can be null.
+         * @return this object.
+         */
+        public Builder setUserId(@Nullable final String userId) {
+            this.userId = userId;
+            return this;
+        }
+
+        /**
+         * Sets latency of the requests of supplied type.
+         * <br>
+         * By default requests are handled without delay.
+         *
+         * @param type    Type of the requests.
+         * @param latency Latency distribution.
+         * @return this object.
+         */
+        public Builder setLatency(@NonNull final BillingRequest.Type type,
+                                  @NonNull final Latency latency) {
+            latencies.put(type, latency);
+            return this;
+        }
+
+        /**
+         * Sets latency of all requests.
+         *
+         * @param latency Latency distribution.
+         * @return this object.
+         * @see #setLatency(BillingRequest.Type, Latency)
+         */
+        public Builder setLatency(@NonNull final Latency latency) {
+            for (final BillingRequest.Type type : BillingRequest.Type.values()) {
+                setLatency(type, latency);
+            }
+            return this;
+        }
+
+        /**
+         * Sets probability of the requests of supplied type to fail with supplied status.
+         * <br>
+         * Error rates of different statuses add up and can't exceed 1.
+         *
+         * @param type   Type of the requests.
+         * @param status Status to fail requests with, can't be {@link Status#SUCCESS}.
+         * @param rate   Probability of failure in [0, 1].
+         * @return this object.
+         */
+        public Builder setErrorRate(@NonNull final BillingRequest.Type type,
+                                    @NonNull final Status status,
+                                    final float rate) {
+            if (status == SUCCESS) {
+                throw new IllegalArgumentException("Error status can't be SUCCESS.");
+            }
+            Map<Status, Float> rates = errorRates.get(type);
+            if (rates == null) {
+                errorRates.put(type, rates = new EnumMap<>(Status.class));
+            }
+            float total = rate;
+            for (final Map.Entry<Status, Float> entry : rates.entrySet()) {
+                if (entry.getKey() != status) {
+                    total += entry.getValue();
+                }
+            }
+            if (rate < 0f || total > 1f) {
+                throw new IllegalArgumentException("Error rates must be in [0, 1].");
+            }
+            rates.put(status, rate);
+            return this;
+        }
+
+        /**
+         * Sets maximum number of purchases returned in a single inventory response.
+         *
+         * @param pageSize Page size, 0 to return the whole inventory at once.
+         * @return this object.
+         */
+        public Builder setPageSize(final int pageSize) {
+            if (pageSize < 0) {
+                throw new IllegalArgumentException("Page size can't be negative.");
+            }
+            this.pageSize = pageSize;
+            return this;
+        }
+
+        /**
+         * Limits rate of handled requests, excessive requests fail with
+         * {@link Status#SERVICE_UNAVAILABLE}.
+         *
+         * @param requestsPerSecond Sustained request rate, 0 to disable throttling.
+         * @param burst             Number of requests which can be handled at once.
+         * @return this object.
+         */
+        public Builder setThrottle(final double requestsPerSecond, final int burst) {
+            if (requestsPerSecond < 0d || burst < 1) {
+                throw new IllegalArgumentException("Illegal throttling parameters.");
+            }
+            this.throttleRate = requestsPerSecond;
+            this.throttleBurst = burst;
+            return this;
+        }
+
+        /**
+         * Sets seed for latencies and errors, making them repeatable.
+         *
+         * @param seed Random seed.
+         * @return this object.
+         */
+        public Builder setSeed(final long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        @Override
+        public SimulatedBillingProvider build() {
+            final Map<BillingRequest.Type, Map<Status, Float>> errorRatesCopy =
+                    new EnumMap<>(BillingRequest.Type.class);
+            for (final Map.Entry<BillingRequest.Type, Map<Status, Float>> entry
+                    : errorRates.entrySet()) {
+                errorRatesCopy.put(entry.getKey(), new EnumMap<>(entry.getValue()));
+            }
+            final Throttle throttle =
+                    throttleRate > 0d ? new Throttle(throttleRate, throttleBurst) : null;
+            final Random random = seed == null ? new Random() : new Random(seed);
+            return new SimulatedBillingProvider(context, skuResolver, purchaseVerifier,
+                                                skuDetailsCache, inventoryStore,
+                                                providerStateCache, store, userId,
+                                                new EnumMap<>(latencies), errorRatesCopy,
+                                                pageSize, throttle, random);
+        }
+
+        @Override
+        public Builder setSkuResolver(@NonNull final SkuResolver skuResolver) {
+            return (Builder) super.setSkuResolver(skuResolver);
+        }
+
+        @Override
+        public Builder setPurchaseVerifier(@NonNull final PurchaseVerifier purchaseVerifier) {
+            return (Builder) super.setPurchaseVerifier(purchaseVerifier);
+        }
+
+        @Override
+        public Builder setSkuDetailsCache(@Nullable final SkuDetailsCache skuDetailsCache) {
+            return (Builder) super.setSkuDetailsCache(skuDetailsCache);
+        }
+
+        @Override
+        public Builder setInventoryStore(@Nullable final InventoryStore inventoryStore) {
+            return (Builder) super.setInventoryStore(inventoryStore);
+        }
+
+        @Override
+        public Builder setProviderStateCache(
+                @Nullable final ProviderStateCache providerStateCache) {
+            return (Builder) super.setProviderStateCache(providerStateCache);
+        }
+    }
+}
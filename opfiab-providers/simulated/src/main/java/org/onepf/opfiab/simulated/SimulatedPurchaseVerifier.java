@@ -0,0 +1,68 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.simulated;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.verification.PublicKeyPurchaseVerifier;
+
+/**
+ * This {@link PublicKeyPurchaseVerifier} checks purchases against the test key pair of
+ * {@link SimulatedStore}.
+ */
+public class SimulatedPurchaseVerifier extends PublicKeyPurchaseVerifier {
+
+    @NonNull
+    private final SimulatedStore store;
+
+    public SimulatedPurchaseVerifier(@NonNull final SimulatedStore store) {
+        this(store, false);
+    }
+
+    /**
+     * @param store    Store which issued purchases to verify.
+     * @param parallel True if inventory should be verified using multiple threads.
+     */
+    public SimulatedPurchaseVerifier(@NonNull final SimulatedStore store, final boolean parallel) {
+        super(parallel);
+        this.store = store;
+    }
+
+    @NonNull
+    @Override
+    protected String getPublicKey() {
+        return store.getPublicKey();
+    }
+
+    @Nullable
+    @Override
+    protected String getData(@NonNull final Purchase purchase) {
+        return purchase.getOriginalJson();
+    }
+
+    @Nullable
+    @Override
+    protected String getSignature(@NonNull final Purchase purchase) {
+        if (purchase instanceof SimulatedPurchase) {
+            final SimulatedPurchase simulatedPurchase = (SimulatedPurchase) purchase;
+            return simulatedPurchase.getSignature();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.simulated;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Base64;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.billing.SkuDetails;
+import org.onepf.opfiab.model.billing.SkuType;
+
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * In-memory store backing {@link SimulatedBillingProvider}.
+ * <br>
+ * Holds catalog of {@link SkuDetails} and inventory of each user. Issued purchases are signed with
+ * a test key pair and can be checked with {@link SimulatedPurchaseVerifier}.
+ * <br>
+ * Can be shared between several providers and safely modified while they handle requests.
+ */
+public class SimulatedStore {
+
+    protected static final String KEY_ALGORITHM = "RSA";
+    protected static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+    protected static final int KEY_SIZE = 2048;
+
+    protected static final String NAME_SKU = "sku";
+    protected static final String NAME_TYPE = "type";
+    protected static final String NAME_TOKEN = "token";
+    protected static final String NAME_USER_ID = "userId";
+    protected static final String NAME_PURCHASE_TIME = "purchaseTime";
+
+    @NonNull
+    private static KeyPair generateKeyPair() {
+        try {
+            final KeyPairGenerator generator = KeyPairGenerator.getInstance(KEY_ALGORITHM);
+            generator.initialize(KEY_SIZE);
+            return generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("Can't generate KeyPair.", exception);
+        }
+    }
+
+
+    private final Map<String, SkuDetails> catalog = new HashMap<>();
+    /**
+     * Purchases of each user mapped by their tokens, in order of purchase.
+     */
+    private final Map<String, Map<String, SimulatedPurchase>> inventories = new HashMap<>();
+    @NonNull
+    private final KeyPair keyPair;
+    @NonNull
+    private final String publicKey;
+    private long tokens;
+
+    /**
+     * Creates store with a newly generated key pair.
+     */
+    public SimulatedStore() {
+        this(generateKeyPair());
+    }
+
+    /**
+     * @param keyPair RSA key pair to sign purchases with.
+     */
+    public SimulatedStore(@NonNull final KeyPair keyPair) {
+        super();
+        this.keyPair = keyPair;
+        this.publicKey = Base64.encodeToString(keyPair.getPublic().getEncoded(), Base64.NO_WRAP);
+    }
+
+    @SuppressFBWarnings({"DM_DEFAULT_ENCODING", "MDM_STRING_BYTES_ENCODING"})
+    @NonNull
+    protected String sign(@NonNull final String data) {
+        try {
+            final Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+            signature.initSign(keyPair.getPrivate());
+            signature.update(data.getBytes());
+            return Base64.encodeToString(signature.sign(), Base64.NO_WRAP);
+        } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException exception) {
+            throw new IllegalStateException("Can't sign purchase.", exception);
+        }
+    }
+
+    @NonNull
+    private Map<String, SimulatedPurchase> inventory(@NonNull final String userId) {
+        Map<String, SimulatedPurchase> inventory = inventories.get(userId);
+        if (inventory == null) {
+            inventories.put(userId, inventory = new LinkedHashMap<>());
+        }
+        return inventory;
+    }
+
+    /**
+     * Gets public key purchases are signed with.
+     *
+     * @return Base64 encoded X.509 public key.
+     */
+    @NonNull
+    public String getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * Adds supplied SKU details to catalog, replacing details with the same SKU.
+     *
+     * @param skuDetails SKU details to add.
+     */
+    public synchronized void putSkuDetails(@NonNull final SkuDetails skuDetails) {
+        catalog.put(skuDetails.getSku(), skuDetails);
+    }
+
+    /**
+     * Adds all supplied SKU details to catalog.
+     *
+     * @param skusDetails SKU details to add.
+     * @see #putSkuDetails(SkuDetails)
+     */
+    public synchronized void putAllSkuDetails(@NonNull final Collection<SkuDetails> skusDetails) {
+        for (final SkuDetails skuDetails : skusDetails) {
+            putSkuDetails(skuDetails);
+        }
+    }
+
+    /**
+     * Gets details of supplied SKU from catalog.
+     *
+     * @param sku SKU to get details for.
+     * @return SKU details, null if there's no such SKU in catalog.
+     */
+    @Nullable
+    public synchronized SkuDetails getSkuDetails(@NonNull final String sku) {
+        return catalog.get(sku);
+    }
+
+    /**
+     * Issues new signed purchase of supplied SKU and adds it to user's inventory.
+     *
+     * @param userId Id of the user who makes purchase.
+     * @param sku    SKU to purchase.
+     * @return Newly issued purchase.
+     * @throws IllegalArgumentException If there's no such SKU in catalog.
+     */
+    @NonNull
+    public synchronized SimulatedPurchase grant(@NonNull final String userId,
+                                                @NonNull final String sku) {
+        final SkuDetails skuDetails = catalog.get(sku);
+        if (skuDetails == null) {
+            throw new IllegalArgumentException("Unknown SKU: " + sku);
+        }
+        final SkuType type = skuDetails.getType();
+        final String token = userId + '.' + ++tokens;
+        final long purchaseTime = System.currentTimeMillis();
+        final JSONObject jsonObject = new JSONObject();
+        try {
+            jsonObject.put(NAME_SKU, sku);
+            jsonObject.put(NAME_TYPE, type == null ? JSONObject.NULL : type.name());
+            jsonObject.put(NAME_TOKEN, token);
+            jsonObject.put(NAME_USER_ID, userId);
+            jsonObject.put(NAME_PURCHASE_TIME, purchaseTime);
+        } catch (JSONException exception) {
+            throw new IllegalStateException("Can't create purchase JSON.", exception);
+        }
+        final String originalJson = jsonObject.toString();
+        final Purchase purchase = new Purchase.Builder(sku)
+                .setType(type)
+                .setProviderInfo(SimulatedBillingProvider.INFO)
+                .setOriginalJson(originalJson)
+                .setToken(token)
+                .setPurchaseTime(purchaseTime)
+                .build();
+        final SimulatedPurchase simulatedPurchase =
+                new SimulatedPurchase(purchase, sign(originalJson));
+        inventory(userId).put(token, simulatedPurchase);
+        return simulatedPurchase;
+    }
+
+    /**
+     * Checks if user has unconsumed purchase of supplied SKU.
+     *
+     * @param userId Id of the user.
+     * @param sku    SKU to look for.
+     * @return True if SKU is owned by user, false otherwise.
+     */
+    public synchronized boolean isOwned(@NonNull final String userId, @NonNull final String sku) {
+        final Map<String, SimulatedPurchase> inventory = inventories.get(userId);
+        if (inventory != null) {
+            for (final SimulatedPurchase purchase : inventory.values()) {
+                if (sku.equals(purchase.getSku())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes purchase with supplied token from user's inventory.
+     *
+     * @param userId Id of the user.
+     * @param token  Token of the purchase to remove.
+     * @return Removed purchase, null if user doesn't have such purchase.
+     */
+    @Nullable
+    public synchronized SimulatedPurchase consume(@NonNull final String userId,
+                                                  @NonNull final String token) {
+        final Map<String, SimulatedPurchase> inventory = inventories.get(userId);
+        return inventory == null ? null : inventory.remove(token);
+    }
+
+    /**
+     * Gets user's inventory.
+     *
+     * @param userId Id of the user.
+     * @return Copy of user's inventory in order of purchase.
+     */
+    @NonNull
+    public synchronized List<SimulatedPurchase> getInventory(@NonNull final String userId) {
+        final Map<String, SimulatedPurchase> inventory = inventories.get(userId);
+        if (inventory == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(inventory.values());
+    }
+
+    /**
+     * Removes all purchases of supplied user.
+     *
+     * @param userId Id of the user.
+     */
+    public synchronized void clearInventory(@NonNull final String userId) {
+        inventories.remove(userId);
+    }
+}
@@ -74,12 +74,12 @@ class ActivityIabHelperImpl extends ComponentIabHelper implements ActivityIabHel
             unregister();
             // We won't be needing any lifecycle events if activity is finishing
             if (getActivity().isFinishing()) {
-                OPFIab.unregister(this);
+                detach();
             }
         } else if (type == ComponentState.DETACH) {
             // Detach - fragment is removed, unsubscribe from everything
             unregister();
-            OPFIab.unregister(this);
+            detach();
         }
     }
 
@@ -27,6 +27,7 @@ import org.onepf.opfiab.listener.OnInventoryListener;
 import org.onepf.opfiab.listener.OnPurchaseListener;
 import org.onepf.opfiab.listener.OnSetupListener;
 import org.onepf.opfiab.listener.OnSkuDetailsListener;
+import org.onepf.opfiab.metrics.BillingMetricsRecorder;
 import org.onepf.opfiab.model.event.SetupResponse;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
 import org.onepf.opfutils.OPFChecks;
@@ -59,14 +60,15 @@ class AdvancedIabHelperImpl extends SimpleIabHelperImpl implements AdvancedIabHe
 
     @Override
     protected void postRequest(@NonNull final BillingRequest billingRequest) {
+        BillingMetricsRecorder.onPosted(billingRequest);
         if (billingBase.getSetupResponse() == null) {
             // Lazy setup
             OPFIab.setup();
             scheduler.schedule(this, billingRequest);
-        } else if (!billingBase.isBusy()) {
-            // No need to schedule anything
+        } else if (!billingBase.isBusy(billingRequest)) {
+            // Request lane is free, no need to schedule anything
             super.postRequest(billingRequest);
-        } else if (!billingRequest.equals(billingBase.getPendingRequest())) {
+        } else if (!billingBase.isPending(billingRequest)) {
             // If request is not already being precessed, schedule it for later
             scheduler.schedule(this, billingRequest);
         }
@@ -20,15 +20,29 @@ import android.app.Application;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import org.onepf.opfiab.EventRouter.EventHandler;
 import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.metrics.BillingMetricsRecorder;
 import org.onepf.opfiab.model.Configuration;
 import org.onepf.opfiab.model.event.RequestHandledEvent;
 import org.onepf.opfiab.model.event.SetupResponse;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
 import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.ConsumeRequest;
 import org.onepf.opfiab.model.event.billing.Status;
 import org.onepf.opfiab.util.OPFIabUtils;
 import org.onepf.opfutils.OPFChecks;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 import static org.onepf.opfiab.model.event.billing.Status.BILLING_UNAVAILABLE;
 import static org.onepf.opfiab.model.event.billing.Status.BUSY;
@@ -37,6 +51,15 @@ import static org.onepf.opfiab.model.event.billing.Status.NO_BILLING_PROVIDER;
 /**
  * This class is intended to be a single entry point for all {@link BillingRequest}s, it also holds
  * library state (current {@link BillingProvider}) and last {@link SetupResponse}.
+ * <p/>
+ * Requests are executed in separate lanes, one per {@link BillingRequest.Type}:
+ * <ul>
+ * <li> {@link BillingRequest.Type#PURCHASE} and {@link BillingRequest.Type#INVENTORY} lanes
+ * execute one request at a time.
+ * <li> {@link BillingRequest.Type#CONSUME} lane executes one request per purchase token.
+ * <li> {@link BillingRequest.Type#SKU_DETAILS} lane executes any number of distinct requests.
+ * </ul>
+ * Requests from different lanes never block each other.
  */
 final class BillingBase {
 
@@ -71,15 +94,54 @@ final class BillingBase {
     @Nullable
     private BillingProvider currentProvider;
     /**
-     * Request being executed by {@link #currentProvider}.
+     * Requests being executed by {@link #currentProvider} mapped to their lanes.
      *
      * @see RequestHandledEvent
      */
-    @Nullable
-    private BillingRequest pendingRequest;
+    private final Map<BillingRequest.Type, Collection<BillingRequest>> pendingRequests =
+            new EnumMap<>(BillingRequest.Type.class);
+    /**
+     * Ids of pending requests which have already been answered by {@link #currentProvider}.
+     */
+    private final Set<Long> answeredRequests = new HashSet<>();
+
+    private final BillingRequestCoalescer coalescer = BillingRequestCoalescer.getInstance();
 
     private BillingBase() {
         super();
+        for (final BillingRequest.Type type : BillingRequest.Type.values()) {
+            pendingRequests.put(type, new ArrayList<BillingRequest>());
+        }
+    }
+
+    /**
+     * Checks if two requests from the same lane can't be executed simultaneously.
+     * <br>
+     * Both requests must be of the same {@link BillingRequest.Type}.
+     *
+     * @param pendingRequest Request being executed.
+     * @param billingRequest Request to check.
+     * @return True if supplied request has to wait for pending one, false otherwise.
+     */
+    @SuppressFBWarnings({"BC_UNCONFIRMED_CAST"})
+    static boolean conflicts(@NonNull final BillingRequest pendingRequest,
+                             @NonNull final BillingRequest billingRequest) {
+        switch (billingRequest.getType()) {
+            case PURCHASE:
+            case INVENTORY:
+                // Purchase flow and inventory paging are stateful
+                return true;
+            case CONSUME:
+                final String token = ((ConsumeRequest) billingRequest).getPurchase().getToken();
+                final String pendingToken = ((ConsumeRequest) pendingRequest).getPurchase()
+                        .getToken();
+                return token == null ? pendingToken == null : token.equals(pendingToken);
+            case SKU_DETAILS:
+                // Only identical requests are redundant
+                return billingRequest.equals(pendingRequest);
+            default:
+                throw new IllegalArgumentException();
+        }
     }
 
     private void setCurrentProvider(@Nullable final BillingProvider provider) {
@@ -88,14 +150,27 @@ final class BillingBase {
             OPFIab.unregister(currentProvider);
         }
         currentProvider = provider;
-        if (currentProvider != null) {
-            OPFIab.register(currentProvider);
+        if (provider != null) {
+            // Provider specific events are still delivered by EventBus
+            OPFIab.register(provider);
+            OPFIab.register(provider, BillingRequest.class, true, 0,
+                            new EventHandler<BillingRequest>() {
+                                @Override
+                                public void onEvent(@NonNull final BillingRequest event) {
+                                    provider.onEventAsync(event);
+                                }
+                            });
         }
     }
 
     private void postEmptyResponse(@NonNull final BillingRequest billingRequest,
                                    @NonNull final Status status) {
-        OPFIab.post(OPFIabUtils.emptyResponse(null, billingRequest, status));
+        // Merged request must be answered for each original request
+        for (final BillingRequest request : coalescer.onRejected(billingRequest)) {
+            final BillingResponse response = OPFIabUtils.emptyResponse(null, request, status);
+            BillingMetricsRecorder.onResponse(request, response);
+            OPFIab.post(response);
+        }
     }
 
     /**
@@ -109,6 +184,7 @@ final class BillingBase {
         this.configuration = configuration;
         setCurrentProvider(null);
         setupResponse = null;
+        coalescer.clear();
     }
 
     /**
@@ -123,46 +199,85 @@ final class BillingBase {
     }
 
     /**
-     * Gets request currently being executed.
+     * Indicates whether supplied request is currently being executed.
+     * <br>
+     * Request which has already been answered is not considered pending, even though it still
+     * occupies its lane, e.g. next inventory page requested from response listener.
      *
-     * @return BillingRequest object if there's one, null otherwise.
+     * @param billingRequest BillingRequest to look for.
+     * @return True if equal request is being executed, false otherwise.
      */
-    @Nullable
-    BillingRequest getPendingRequest() {
+    boolean isPending(@NonNull final BillingRequest billingRequest) {
         OPFChecks.checkThread(true);
-        return pendingRequest;
+        for (final BillingRequest pendingRequest : pendingRequests.get(billingRequest.getType())) {
+            if (pendingRequest.equals(billingRequest)
+                    && !answeredRequests.contains(pendingRequest.getId())) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Indicates whether current {@link BillingProvider} is busy executing request.
+     * Indicates whether current {@link BillingProvider} is busy executing any request.
      *
      * @return True is BillingProvider is busy, false otherwise.
      */
     boolean isBusy() {
         OPFChecks.checkThread(true);
-        return getPendingRequest() != null;
+        for (final Collection<BillingRequest> lane : pendingRequests.values()) {
+            if (!lane.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indicates whether lane of the supplied request is busy and request can't be executed at the
+     * moment.
+     *
+     * @param billingRequest BillingRequest to check.
+     * @return True if supplied request has to wait, false otherwise.
+     */
+    boolean isBusy(@NonNull final BillingRequest billingRequest) {
+        OPFChecks.checkThread(true);
+        for (final BillingRequest pendingRequest : pendingRequests.get(billingRequest.getType())) {
+            if (conflicts(pendingRequest, billingRequest)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
      * Attempts to execute supplied billing request using current billing provider.
      * <br>
-     * If current provider is unavailable or busy, supplied request will not be executed and
-     * instead corresponding response will be send immediately.
+     * If current provider is unavailable or request lane is busy, supplied request will not be
+     * executed and instead corresponding response will be send immediately.
+     * <br>
+     * If equivalent request is already being executed, supplied request will be answered along
+     * with it.
      *
      * @param billingRequest BillingRequest to execute.
-     * @see #isBusy()
+     * @see #isBusy(BillingRequest)
+     * @see BillingRequestCoalescer
      */
     void postRequest(@NonNull final BillingRequest billingRequest) {
         OPFChecks.checkThread(true);
         final SetupResponse setupResponse;
-        if (isBusy()) {
-            // Library is busy with another request
-            postEmptyResponse(billingRequest, BUSY);
-        } else if ((setupResponse = getSetupResponse()) == null || !setupResponse.isSuccessful()) {
+        if ((setupResponse = getSetupResponse()) == null || !setupResponse.isSuccessful()) {
             // Setup was not started, is in progress or failed
             postEmptyResponse(billingRequest, NO_BILLING_PROVIDER);
+        } else if (coalescer.join(billingRequest)) {
+            OPFLog.d("Request joined equivalent request in flight: %s", billingRequest);
+        } else if (isBusy(billingRequest)) {
+            // Request lane is busy with another request
+            postEmptyResponse(billingRequest, BUSY);
         } else {
-            pendingRequest = billingRequest;
+            pendingRequests.get(billingRequest.getType()).add(billingRequest);
+            coalescer.onSent(billingRequest);
+            BillingMetricsRecorder.onSent(billingRequest);
             // Send request to be handled by BillingProvider
             OPFIab.post(billingRequest);
         }
@@ -174,18 +289,37 @@ final class BillingBase {
         if (setupResponse.isSuccessful()) {
             // Suitable provider was found
             setCurrentProvider(setupResponse.getBillingProvider());
+        } else {
+            // Provider picked by fast setup might not be suitable anymore
+            setCurrentProvider(null);
         }
     }
 
     public void onEventMainThread(@NonNull final RequestHandledEvent event) {
-        if (!event.getBillingRequest().equals(pendingRequest)) {
-            // For some reason billing provider didn't report correct request
-            throw new IllegalStateException();
+        final BillingRequest billingRequest = event.getBillingRequest();
+        final Iterator<BillingRequest> iterator =
+                pendingRequests.get(billingRequest.getType()).iterator();
+        while (iterator.hasNext()) {
+            // Provider might report a copy of the original request, e.g. with an attached activity
+            if (iterator.next().getId() == billingRequest.getId()) {
+                iterator.remove();
+                answeredRequests.remove(billingRequest.getId());
+                return;
+            }
         }
-        pendingRequest = null;
+        // For some reason billing provider didn't report correct request
+        throw new IllegalStateException();
     }
 
     public void onEventMainThread(@NonNull final BillingResponse billingResponse) {
+        final long requestId = billingResponse.getRequestId();
+        for (final BillingRequest pendingRequest : pendingRequests.get(billingResponse.getType())) {
+            // Cached inventory doesn't answer request, actual response will follow
+            if (pendingRequest.getId() == requestId && OPFIabUtils.isFinal(billingResponse)) {
+                answeredRequests.add(requestId);
+                break;
+            }
+        }
         // Current provider is set but is not available
         if (currentProvider != null && billingResponse.getStatus() == BILLING_UNAVAILABLE
                 // However last setup attempt was successful
@@ -21,6 +21,7 @@ import android.support.annotation.Nullable;
 
 import org.onepf.opfiab.listener.BillingListener;
 import org.onepf.opfiab.listener.BillingListenerCompositor;
+import org.onepf.opfiab.metrics.BillingMetricsRecorder;
 import org.onepf.opfiab.model.event.SetupResponse;
 import org.onepf.opfiab.model.event.SetupStartedEvent;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
@@ -55,6 +56,8 @@ final class BillingEventDispatcher extends BillingListenerCompositor {
     }
 
 
+    private final BillingRequestCoalescer coalescer = BillingRequestCoalescer.getInstance();
+
     private BillingEventDispatcher() {
         super();
     }
@@ -77,15 +80,6 @@ final class BillingEventDispatcher extends BillingListenerCompositor {
         removeBillingListener(billingListener);
     }
 
-    protected void removeBillingListener(@NonNull final BillingListener billingListener) {
-        billingListeners.remove(billingListener);
-        setupListeners.remove(billingListener);
-        purchaseListeners.remove(billingListener);
-        consumeListeners.remove(billingListener);
-        inventoryListeners.remove(billingListener);
-        skuDetailsListeners.remove(billingListener);
-    }
-
     public void onEventMainThread(@NonNull final SetupStartedEvent setupStartedEvent) {
         onSetupStarted(setupStartedEvent);
     }
@@ -95,7 +89,7 @@ final class BillingEventDispatcher extends BillingListenerCompositor {
     }
 
     @SuppressFBWarnings({"BC_UNCONFIRMED_CAST"})
-    public void onEventMainThread(@NonNull final BillingResponse billingResponse) {
+    private void dispatch(@NonNull final BillingResponse billingResponse) {
         onResponse(billingResponse);
         switch (billingResponse.getType()) {
             case PURCHASE:
@@ -115,6 +109,14 @@ final class BillingEventDispatcher extends BillingListenerCompositor {
         }
     }
 
+    public void onEventMainThread(@NonNull final BillingResponse billingResponse) {
+        // Response for merged request is delivered for each original request
+        for (final BillingResponse response : coalescer.split(billingResponse)) {
+            dispatch(response);
+        }
+        BillingMetricsRecorder.onDelivered(billingResponse);
+    }
+
     public void onEventMainThread(@NonNull final BillingRequest billingRequest) {
         onRequest(billingRequest);
     }
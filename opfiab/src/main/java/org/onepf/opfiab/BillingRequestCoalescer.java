@@ -0,0 +1,373 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.model.billing.SkuDetails;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.InventoryRequest;
+import org.onepf.opfiab.model.event.billing.SkuDetailsRequest;
+import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
+import org.onepf.opfiab.util.OPFIabUtils;
+import org.onepf.opfutils.OPFChecks;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * This class merges equivalent {@link BillingRequest}s, so that {@link BillingProvider} handles
+ * only one of them, while its {@link BillingResponse} is delivered for each original request.
+ * <p/>
+ * Only read-only requests are merged:
+ * <ul>
+ * <li> {@link SkuDetailsRequest}s picked for execution together are merged into a single request
+ * for the union of their SKUs. Each original request receives response only for its own SKUs.
+ * <li> {@link SkuDetailsRequest} joins request in flight which SKUs cover all of its SKUs.
+ * <li> {@link InventoryRequest} joins identical request in flight, unless it continues loading
+ * inventory from the point of the last request.
+ * </ul>
+ */
+final class BillingRequestCoalescer {
+
+    /**
+     * Request in flight is considered lost if it didn't receive response within this timeout.
+     */
+    private static final long FLIGHT_TIMEOUT = 60000L; // 1 minute
+
+    @Nullable
+    private static BillingRequestCoalescer instance;
+
+    @SuppressWarnings({"PMD.NonThreadSafeSingleton"})
+    static BillingRequestCoalescer getInstance() {
+        OPFChecks.checkThread(true);
+        if (instance == null) {
+            instance = new BillingRequestCoalescer();
+        }
+        return instance;
+    }
+
+
+    /**
+     * Merged requests which are not yet sent, mapped to their original requests.
+     */
+    private final Map<BillingRequest, Collection<BillingRequest>> mergedRequests = new HashMap<>();
+    /**
+     * Requests sent to {@link BillingProvider} and waiting for response, in order they were sent.
+     */
+    private final List<Flight> flights = new LinkedList<>();
+
+    private BillingRequestCoalescer() {
+        super();
+    }
+
+    /**
+     * Indicates whether supplied request can be merged with other requests.
+     *
+     * @param request Request to check.
+     * @return True if request is read-only and can be merged, false otherwise.
+     */
+    @SuppressFBWarnings({"BC_UNCONFIRMED_CAST"})
+    private static boolean isMergeable(@NonNull final BillingRequest request) {
+        switch (request.getType()) {
+            case SKU_DETAILS:
+                return true;
+            case INVENTORY:
+                // Continuation requests are meant to load next portion of inventory
+                return ((InventoryRequest) request).startOver();
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Checks if response for the first request will contain everything requested by the second.
+     *
+     * @param flightRequest Request in flight.
+     * @param request       Request to check.
+     * @return True if second request can be answered by the first one, false otherwise.
+     */
+    @SuppressFBWarnings({"BC_UNCONFIRMED_CAST"})
+    private static boolean covers(@NonNull final BillingRequest flightRequest,
+                                  @NonNull final BillingRequest request) {
+        if (flightRequest.getType() != request.getType()) {
+            return false;
+        }
+        if (request.getType() == BillingRequest.Type.SKU_DETAILS) {
+            final Set<String> flightSkus = ((SkuDetailsRequest) flightRequest).getSkus();
+            return flightSkus.containsAll(((SkuDetailsRequest) request).getSkus());
+        }
+        return flightRequest.equals(request);
+    }
+
+    /**
+     * Gets SKUs from the supplied successful response.
+     *
+     * @param response Response to get SKUs from.
+     * @return Set of SKUs if response has details, null otherwise.
+     */
+    @Nullable
+    private static Set<String> getSkus(@NonNull final SkuDetailsResponse response) {
+        final Collection<SkuDetails> skusDetails = response.getSkusDetails();
+        if (skusDetails == null) {
+            return null;
+        }
+        final Set<String> skus = new HashSet<>();
+        for (final SkuDetails skuDetails : skusDetails) {
+            skus.add(skuDetails.getSku());
+        }
+        return skus;
+    }
+
+    /**
+     * Constructs response containing only details for SKUs from the supplied request.
+     *
+     * @param response Response for the merged request.
+     * @param request  Original request.
+     * @return Newly constructed response.
+     */
+    @NonNull
+    private static SkuDetailsResponse subset(@NonNull final SkuDetailsResponse response,
+                                             @NonNull final SkuDetailsRequest request) {
+        final Collection<SkuDetails> skusDetails = response.getSkusDetails();
+        if (skusDetails == null) {
+            return new SkuDetailsResponse(response.getStatus(), response.getProviderInfo(), null,
+                                          request.getId());
+        }
+        final Set<String> skus = request.getSkus();
+        final Collection<SkuDetails> subset = new ArrayList<>(skus.size());
+        for (final SkuDetails skuDetails : skusDetails) {
+            if (skus.contains(skuDetails.getSku())) {
+                subset.add(skuDetails);
+            }
+        }
+        return new SkuDetailsResponse(response.getStatus(), response.getProviderInfo(), subset,
+                                      request.getId());
+    }
+
+    /**
+     * Gets original requests represented by the supplied request.
+     *
+     * @param request Request to get originals for.
+     * @return Collection of original requests, can't be empty.
+     */
+    @NonNull
+    private Collection<BillingRequest> originals(@NonNull final BillingRequest request) {
+        final Collection<BillingRequest> originals = mergedRequests.remove(request);
+        return originals == null ? Collections.singleton(request) : originals;
+    }
+
+    /**
+     * Drops requests which didn't receive response for too long.
+     */
+    private void dropLostFlights() {
+        final long now = SystemClock.elapsedRealtime();
+        final Iterator<Flight> iterator = flights.iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().time > FLIGHT_TIMEOUT) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Looks for a request in flight corresponding to the supplied response.
+     *
+     * @param response Response from {@link BillingProvider}.
+     * @return Flight object if one was found, null otherwise.
+     */
+    @SuppressFBWarnings({"BC_UNCONFIRMED_CAST"})
+    @Nullable
+    private Flight findFlight(@NonNull final BillingResponse response) {
+        final long requestId = response.getRequestId();
+        if (requestId != 0L) {
+            for (final Flight flight : flights) {
+                if (flight.request.getId() == requestId) {
+                    return flight;
+                }
+            }
+        }
+        final BillingRequest.Type type = response.getType();
+        final Set<String> skus = type == BillingRequest.Type.SKU_DETAILS
+                ? getSkus((SkuDetailsResponse) response) : null;
+        Flight first = null;
+        for (final Flight flight : flights) {
+            if (flight.request.getType() != type) {
+                continue;
+            }
+            if (skus == null || skus.equals(((SkuDetailsRequest) flight.request).getSkus())) {
+                return flight;
+            }
+            if (first == null) {
+                first = flight;
+            }
+        }
+        // Responses are expected in order requests were sent
+        return first;
+    }
+
+    /**
+     * Merges all {@link SkuDetailsRequest}s from the supplied collection into a single request.
+     *
+     * @param requests Requests picked for execution.
+     * @return Requests to send for execution.
+     */
+    @NonNull
+    Collection<BillingRequest> merge(@NonNull final Collection<BillingRequest> requests) {
+        final Collection<BillingRequest> skuDetailsRequests = new LinkedHashSet<>();
+        for (final BillingRequest request : requests) {
+            if (request.getType() == BillingRequest.Type.SKU_DETAILS) {
+                skuDetailsRequests.add(request);
+            }
+        }
+        if (skuDetailsRequests.size() < 2) {
+            return requests;
+        }
+
+        final Set<String> skus = new HashSet<>();
+        for (final BillingRequest request : skuDetailsRequests) {
+            skus.addAll(((SkuDetailsRequest) request).getSkus());
+        }
+        final BillingRequest mergedRequest = new SkuDetailsRequest(skus);
+        mergedRequests.put(mergedRequest, skuDetailsRequests);
+
+        final Collection<BillingRequest> result = new ArrayList<>(requests.size());
+        for (final BillingRequest request : requests) {
+            if (!skuDetailsRequests.contains(request)) {
+                result.add(request);
+            } else if (!result.contains(mergedRequest)) {
+                // Merged request takes place of the first SKU details request
+                result.add(mergedRequest);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tries to attach supplied request to a request already in flight.
+     *
+     * @param request Request to attach.
+     * @return True if request will be answered by a request in flight, false otherwise.
+     */
+    boolean join(@NonNull final BillingRequest request) {
+        if (!isMergeable(request)) {
+            return false;
+        }
+        dropLostFlights();
+        for (final Flight flight : flights) {
+            if (covers(flight.request, request)) {
+                flight.originals.addAll(originals(request));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Notifies this coalescer that supplied request was sent to {@link BillingProvider}.
+     *
+     * @param request Request that was sent.
+     */
+    void onSent(@NonNull final BillingRequest request) {
+        if (isMergeable(request)) {
+            flights.add(new Flight(request, originals(request)));
+        }
+    }
+
+    /**
+     * Notifies this coalescer that supplied request won't be sent to {@link BillingProvider}.
+     *
+     * @param request Request that was rejected.
+     * @return Original requests which should be answered instead of the supplied one.
+     */
+    @NonNull
+    Collection<BillingRequest> onRejected(@NonNull final BillingRequest request) {
+        return originals(request);
+    }
+
+    /**
+     * Splits response for a merged request into responses for each original request.
+     *
+     * @param response Response received from {@link BillingProvider}.
+     * @return Responses to deliver, can't be empty.
+     */
+    @SuppressFBWarnings({"BC_UNCONFIRMED_CAST"})
+    @NonNull
+    Collection<BillingResponse> split(@NonNull final BillingResponse response) {
+        final Flight flight;
+        if (response.getProviderInfo() == null || !OPFIabUtils.isFinal(response)
+                || (flight = findFlight(response)) == null) {
+            // Response wasn't sent by BillingProvider, will be followed by another one
+            // or doesn't correspond to merged request
+            return Collections.singleton(response);
+        }
+        flights.remove(flight);
+        if (response.getType() != BillingRequest.Type.SKU_DETAILS
+                || flight.originals.size() == 1 && flight.originals.contains(flight.request)) {
+            return Collections.singleton(response);
+        }
+
+        final SkuDetailsResponse skuDetailsResponse = (SkuDetailsResponse) response;
+        final Collection<BillingResponse> responses = new ArrayList<>(flight.originals.size());
+        for (final BillingRequest original : flight.originals) {
+            responses.add(subset(skuDetailsResponse, (SkuDetailsRequest) original));
+        }
+        return responses;
+    }
+
+    /**
+     * Forgets all merged requests and requests in flight.
+     */
+    void clear() {
+        mergedRequests.clear();
+        flights.clear();
+    }
+
+    /**
+     * Request sent to {@link BillingProvider} along with original requests it represents.
+     */
+    private static final class Flight {
+
+        @NonNull
+        private final BillingRequest request;
+        @NonNull
+        private final Collection<BillingRequest> originals;
+        private final long time = SystemClock.elapsedRealtime();
+
+        Flight(@NonNull final BillingRequest request,
+               @NonNull final Collection<BillingRequest> originals) {
+            this.request = request;
+            // Identical requests are answered once
+            this.originals = new LinkedHashSet<>(originals);
+        }
+    }
+}
@@ -16,31 +16,53 @@
 
 package org.onepf.opfiab;
 
-import android.os.Handler;
-import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
 import org.onepf.opfiab.api.IabHelper;
-import org.onepf.opfiab.model.Configuration;
 import org.onepf.opfiab.model.event.RequestHandledEvent;
 import org.onepf.opfiab.model.event.SetupResponse;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
-import org.onepf.opfiab.util.OPFIabUtils;
 import org.onepf.opfutils.OPFChecks;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
 
 /**
  * This class is responsible for pending {@link BillingRequest}s execution. It monitors {@link
- * BillingBase} state changes and notifies known {@link IabHelper}s when next request can be
- * handled.
+ * BillingBase} state changes and dispatches enqueued requests as soon as their lanes are free.
+ * <p/>
+ * Requests are dispatched according to this rules:
+ * <ul>
+ * <li> Requests are picked by priority of their type: {@link BillingRequest.Type#PURCHASE} first,
+ * then {@link BillingRequest.Type#CONSUME}, then {@link BillingRequest.Type#SKU_DETAILS} and
+ * {@link BillingRequest.Type#INVENTORY}.
+ * <li> Within the same priority known {@link IabHelper}s are served in round-robin fashion.
+ * <li> Requests of a single helper are picked in the order they were scheduled.
+ * <li> Busy lane doesn't hold back requests from other lanes.
+ * <li> Requests picked together are merged when possible.
+ * </ul>
+ *
+ * @see BillingBase#isBusy(BillingRequest)
+ * @see BillingRequestCoalescer
  */
 final class BillingRequestScheduler {
 
+    /**
+     * Number of distinct request priorities.
+     *
+     * @see #priority(BillingRequest)
+     */
+    private static final int PRIORITIES = 3;
+
     @Nullable
     private static BillingRequestScheduler instance;
 
@@ -54,46 +76,139 @@ final class BillingRequestScheduler {
     }
 
 
-    private final Handler handler = new Handler(Looper.getMainLooper());
     /**
-     * Collection of helpers potentially having pending requests.
+     * Request queues of known helpers, one ring of helpers per priority.
+     * <br>
+     * Order of helpers within a ring is used for round-robin.
      */
-    private final Map<IabHelperImpl, Collection<BillingRequest>> helpers = new HashMap<>();
-    @SuppressWarnings("OverlyComplexAnonymousInnerClass")
-    private final Runnable handleNextRequest = new Runnable() {
-        @Override
-        public void run() {
-            // Iterate through registered helpers looking for pending request
-            for (final Map.Entry<IabHelperImpl, Collection<BillingRequest>> entry : helpers.entrySet()) {
-                final IabHelperImpl helper = entry.getKey();
-                if (helper.billingBase.isBusy()) {
-                    // Library is busy, pending requests will have to wait some more.
-                    return;
-                }
-                final BillingRequest request = OPFIabUtils.poll(entry.getValue());
-                if (request != null) {
-                    // Send request for execution
-                    entry.getKey().postRequest(request);
-                    return;
-                }
-            }
-        }
-    };
-
+    private final List<Map<IabHelperImpl, Queue<BillingRequest>>> rings =
+            new ArrayList<>(PRIORITIES);
+    /**
+     * Index of all enqueued requests, used to skip duplicates.
+     */
+    private final Set<BillingRequest> queuedRequests = new HashSet<>();
+    private final BillingRequestCoalescer coalescer = BillingRequestCoalescer.getInstance();
 
     private BillingRequestScheduler() {
         super();
+        for (int i = 0; i < PRIORITIES; i++) {
+            rings.add(new LinkedHashMap<IabHelperImpl, Queue<BillingRequest>>());
+        }
     }
 
     /**
-     * Registers callback which will attempt to execute enqueued request after certain delay.
+     * Gets dispatch priority of the supplied request, lower values are dispatched first.
      *
-     * @see Configuration#getSubsequentRequestDelay()
+     * @param request Request to get priority for.
+     * @return Priority of the request.
      */
-    private void schedule() {
-        handler.removeCallbacks(handleNextRequest);
-        final long delay = OPFIab.getConfiguration().getSubsequentRequestDelay();
-        handler.postDelayed(handleNextRequest, delay);
+    private static int priority(@NonNull final BillingRequest request) {
+        switch (request.getType()) {
+            case PURCHASE:
+                // User is waiting for the purchase flow
+                return 0;
+            case CONSUME:
+                return 1;
+            case SKU_DETAILS:
+            case INVENTORY:
+                return 2;
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * Checks if supplied request shares a lane with any of the already picked requests.
+     *
+     * @param requests Requests picked for execution.
+     * @param request  Request to check.
+     * @return True if supplied request must wait, false otherwise.
+     */
+    private static boolean conflicts(@NonNull final Iterable<BillingRequest> requests,
+                                     @NonNull final BillingRequest request) {
+        for (final BillingRequest pickedRequest : requests) {
+            if (pickedRequest.getType() == request.getType()
+                    && BillingBase.conflicts(pickedRequest, request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes first request from the supplied queue which can be executed right away.
+     *
+     * @param billingBase BillingBase to check lanes state with.
+     * @param queue       Queue to look for request in.
+     * @param requests    Requests already picked for execution.
+     * @return Removed request if there was one, null otherwise.
+     */
+    @Nullable
+    private static BillingRequest poll(@NonNull final BillingBase billingBase,
+                                       @NonNull final Iterable<BillingRequest> queue,
+                                       @NonNull final Collection<BillingRequest> requests) {
+        final Iterator<BillingRequest> iterator = queue.iterator();
+        while (iterator.hasNext()) {
+            final BillingRequest request = iterator.next();
+            if (!billingBase.isBusy(request) && !conflicts(requests, request)) {
+                iterator.remove();
+                return request;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Picks requests from a single priority ring, one request per helper per round.
+     * <br>
+     * Served helpers are moved to the end of the ring.
+     *
+     * @param billingBase BillingBase to check lanes state with.
+     * @param ring        Helpers queues to pick requests from.
+     * @param requests    Collection to add picked requests to.
+     */
+    private void pick(@NonNull final BillingBase billingBase,
+                      @NonNull final Map<IabHelperImpl, Queue<BillingRequest>> ring,
+                      @NonNull final Collection<BillingRequest> requests) {
+        final Collection<IabHelperImpl> servedHelpers = new HashSet<>();
+        boolean picked = true;
+        while (picked) {
+            picked = false;
+            for (final Map.Entry<IabHelperImpl, Queue<BillingRequest>> entry : ring.entrySet()) {
+                final BillingRequest request = poll(billingBase, entry.getValue(), requests);
+                if (request != null) {
+                    queuedRequests.remove(request);
+                    requests.add(request);
+                    servedHelpers.add(entry.getKey());
+                    picked = true;
+                }
+            }
+        }
+        for (final IabHelperImpl helper : servedHelpers) {
+            final Queue<BillingRequest> queue = ring.remove(helper);
+            if (!queue.isEmpty()) {
+                ring.put(helper, queue);
+            }
+        }
+    }
+
+    /**
+     * Sends for execution all enqueued requests which lanes are free.
+     */
+    private void dispatch() {
+        final BillingBase billingBase = BillingBase.getInstance();
+        if (queuedRequests.isEmpty() || billingBase.getSetupResponse() == null) {
+            // Nothing to do or setup is in progress, wait for SetupResponse
+            return;
+        }
+        final Collection<BillingRequest> requests = new ArrayList<>();
+        for (final Map<IabHelperImpl, Queue<BillingRequest>> ring : rings) {
+            pick(billingBase, ring, requests);
+        }
+        // Send requests for execution outside of the loop, listeners might enqueue new ones
+        for (final BillingRequest request : coalescer.merge(requests)) {
+            billingBase.postRequest(request);
+        }
     }
 
     /**
@@ -104,21 +219,17 @@ final class BillingRequestScheduler {
      * @param request Request object to try to add to queue.
      */
     void schedule(@NonNull final IabHelperImpl helper, @NonNull final BillingRequest request) {
-        for (final Collection<BillingRequest> requests : helpers.values()) {
-            if (requests.contains(request)) {
-                // Request is already in queue.
-                return;
-            }
+        if (!queuedRequests.add(request)) {
+            // Request is already in queue.
+            return;
         }
 
-        final Collection<BillingRequest> queue;
-        if (!helpers.containsKey(helper)) {
-            helpers.put(helper, queue = new LinkedHashSet<>());
-        } else {
-            queue = helpers.get(helper);
+        final Map<IabHelperImpl, Queue<BillingRequest>> ring = rings.get(priority(request));
+        Queue<BillingRequest> queue = ring.get(helper);
+        if (queue == null) {
+            ring.put(helper, queue = new ArrayDeque<>());
         }
         queue.add(request);
-        schedule();
     }
 
     /**
@@ -127,24 +238,34 @@ final class BillingRequestScheduler {
      * @param iabHelper Helper which request queue should be dismissed.
      */
     void dropQueue(@NonNull final AdvancedIabHelperImpl iabHelper) {
-        helpers.remove(iabHelper);
+        for (final Map<IabHelperImpl, Queue<BillingRequest>> ring : rings) {
+            final Iterable<BillingRequest> queue = ring.remove(iabHelper);
+            if (queue != null) {
+                for (final BillingRequest request : queue) {
+                    queuedRequests.remove(request);
+                }
+            }
+        }
     }
 
     /**
      * Dismisses all pending requests for all known helpers.
      */
     void dropQueue() {
-        handler.removeCallbacks(handleNextRequest);
-        helpers.clear();
+        for (final Map<IabHelperImpl, Queue<BillingRequest>> ring : rings) {
+            ring.clear();
+        }
+        queuedRequests.clear();
     }
 
     @SuppressWarnings("UnusedParameters")
     public void onEventMainThread(@NonNull final RequestHandledEvent event) {
-        schedule();
+        // Lane was just released by BillingBase
+        dispatch();
     }
 
     @SuppressWarnings("UnusedParameters")
     public void onEventMainThread(@NonNull final SetupResponse setupResponse) {
-        handleNextRequest.run();
+        dispatch();
     }
 }
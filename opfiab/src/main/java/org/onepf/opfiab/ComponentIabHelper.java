@@ -16,10 +16,8 @@
 
 package org.onepf.opfiab;
 
-import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.Fragment;
-import android.os.Build;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -27,21 +25,50 @@ import org.onepf.opfiab.android.OPFIabFragment;
 import org.onepf.opfiab.android.OPFIabSupportFragment;
 import org.onepf.opfiab.api.IabHelper;
 import org.onepf.opfiab.model.ComponentState;
-import org.onepf.opfiab.model.event.android.FragmentLifecycleEvent;
-import org.onepf.opfiab.model.event.android.SupportFragmentLifecycleEvent;
 import org.onepf.opfutils.OPFLog;
 
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
 /**
  * This class contains common code for all {@link IabHelper} implementations intended to use from
  * within Android components ({@link Activity}, {@link Fragment}).
  * <p>
  * Helper attempts to attach instance of {@link OPFIabFragment} to supplied fragment manager.
  * Fragment will monitor component lifecycle and report it to the library.
+ * <p>
+ * Lifecycle events are routed by fragment identity, so each helper only receives events of its own
+ * fragment.
  */
 abstract class ComponentIabHelper extends AdvancedIabHelperImpl {
 
     protected static final String FRAGMENT_TAG = "OPFIabFragment";
 
+    /**
+     * Helpers attached to each lifecycle monitoring fragment.
+     * <br>
+     * Must be accessed only from the main thread. Arrays are replaced on every change, so helpers
+     * can detach themselves while handling lifecycle event.
+     */
+    private static final Map<Object, ComponentIabHelper[]> HELPERS = new IdentityHashMap<>();
+
+    /**
+     * Delivers lifecycle state of monitoring fragment to helpers attached to it.
+     *
+     * @param fragment Fragment which state has changed.
+     * @param type     New fragment state.
+     */
+    static void routeState(@NonNull final Object fragment, @NonNull final ComponentState type) {
+        final ComponentIabHelper[] helpers = HELPERS.get(fragment);
+        if (helpers != null) {
+            for (final ComponentIabHelper helper : helpers) {
+                helper.handleState(type);
+            }
+        }
+    }
+
+
     @NonNull
     protected final Object opfFragment;
 
@@ -49,9 +76,6 @@ abstract class ComponentIabHelper extends AdvancedIabHelperImpl {
             @Nullable final android.support.v4.app.FragmentManager supportFragmentManager,
             @Nullable final android.app.FragmentManager fragmentManager) {
         super();
-        // Register for lifecycle event right a way
-        OPFIab.register(this);
-
         if (supportFragmentManager != null) {
             OPFLog.d("ComponentIabHelper uses android.support.v4.app.Fragment.");
             final android.support.v4.app.Fragment existingFragment = supportFragmentManager
@@ -59,11 +83,14 @@ abstract class ComponentIabHelper extends AdvancedIabHelperImpl {
             if (existingFragment != null) {
                 // Fragment already attached
                 opfFragment = existingFragment;
+                attach();
                 register();
                 return;
             }
             final android.support.v4.app.Fragment fragment = OPFIabSupportFragment.newInstance();
             opfFragment = fragment;
+            // Register for lifecycle event right a way
+            attach();
             // Attach new fragment
             supportFragmentManager.beginTransaction()
                     .add(fragment, FRAGMENT_TAG)
@@ -79,11 +106,13 @@ abstract class ComponentIabHelper extends AdvancedIabHelperImpl {
                     .findFragmentByTag(FRAGMENT_TAG);
             if (existingFragment != null) {
                 opfFragment = existingFragment;
+                attach();
                 register();
                 return;
             }
             final Fragment fragment = OPFIabFragment.newInstance();
             opfFragment = fragment;
+            attach();
             fragmentManager.beginTransaction()
                     .add(fragment, FRAGMENT_TAG)
                     .commit();
@@ -94,6 +123,44 @@ abstract class ComponentIabHelper extends AdvancedIabHelperImpl {
         throw new IllegalStateException();
     }
 
+    private void attach() {
+        final ComponentIabHelper[] helpers = HELPERS.get(opfFragment);
+        if (helpers == null) {
+            HELPERS.put(opfFragment, new ComponentIabHelper[]{this});
+            return;
+        }
+        for (final ComponentIabHelper helper : helpers) {
+            if (helper == this) {
+                return;
+            }
+        }
+        final ComponentIabHelper[] newHelpers = Arrays.copyOf(helpers, helpers.length + 1);
+        newHelpers[helpers.length] = this;
+        HELPERS.put(opfFragment, newHelpers);
+    }
+
+    /**
+     * Stops delivery of lifecycle events to this helper.
+     */
+    protected void detach() {
+        final ComponentIabHelper[] helpers = HELPERS.get(opfFragment);
+        if (helpers == null) {
+            return;
+        }
+        int count = 0;
+        final ComponentIabHelper[] newHelpers = new ComponentIabHelper[helpers.length];
+        for (final ComponentIabHelper helper : helpers) {
+            if (helper != this) {
+                newHelpers[count++] = helper;
+            }
+        }
+        if (count == 0) {
+            HELPERS.remove(opfFragment);
+        } else if (count < helpers.length) {
+            HELPERS.put(opfFragment, Arrays.copyOf(newHelpers, count));
+        }
+    }
+
     /**
      * Gets activity from the associated android component.
      *
@@ -111,17 +178,4 @@ abstract class ComponentIabHelper extends AdvancedIabHelperImpl {
      * @see #unregister()
      */
     protected abstract void handleState(@NonNull final ComponentState type);
-
-    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
-    public void onEventMainThread(@NonNull final FragmentLifecycleEvent event) {
-        if (opfFragment == event.getFragment()) {
-            handleState(event.getType());
-        }
-    }
-
-    public void onEventMainThread(@NonNull final SupportFragmentLifecycleEvent event) {
-        if (opfFragment == event.getFragment()) {
-            handleState(event.getType());
-        }
-    }
 }
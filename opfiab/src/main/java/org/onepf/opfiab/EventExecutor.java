@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.model.Configuration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor used by library {@link de.greenrobot.event.EventBus} to deliver asynchronous events.
+ * <br>
+ * Delegates all work to executor picked according to current {@link Configuration}, which can be
+ * replaced on every {@link OPFIab#init(android.app.Application, Configuration)}.
+ *
+ * @see Configuration#getEventExecutor()
+ * @see Configuration#getWorkerThreads()
+ */
+final class EventExecutor extends AbstractExecutorService {
+
+    /**
+     * Idle worker threads are stopped after this delay.
+     */
+    private static final long KEEP_ALIVE = 30000L; // 30 seconds
+
+    @NonNull
+    private volatile Executor executor = newPool(1);
+    /**
+     * Number of threads in library created executor, 0 if executor was supplied by configuration.
+     */
+    private volatile int workerThreads = 1;
+
+    @NonNull
+    private static ExecutorService newPool(final int workerThreads) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                workerThreads, workerThreads, KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Picks executor for supplied configuration.
+     * <br>
+     * Previous executor created by library is shut down after it finishes queued events.
+     *
+     * @param configuration Configuration to pick executor for.
+     */
+    void setConfiguration(@NonNull final Configuration configuration) {
+        final Executor eventExecutor = configuration.getEventExecutor();
+        final int newWorkerThreads = eventExecutor == null ? configuration.getWorkerThreads() : 0;
+        if (eventExecutor == executor
+                || eventExecutor == null && newWorkerThreads == workerThreads) {
+            // Nothing has changed
+            return;
+        }
+        final Executor oldExecutor = executor;
+        final boolean ownOldExecutor = workerThreads > 0;
+        executor = eventExecutor == null ? newPool(newWorkerThreads) : eventExecutor;
+        workerThreads = newWorkerThreads;
+        if (ownOldExecutor) {
+            ((ExecutorService) oldExecutor).shutdown();
+        }
+    }
+
+    @Override
+    public void execute(@NonNull final Runnable command) {
+        executor.execute(command);
+    }
+
+    @Override
+    public void shutdown() {
+        // Library executor is never shut down
+    }
+
+    @NonNull
+    @Override
+    public List<Runnable> shutdownNow() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public boolean awaitTermination(final long timeout, @NonNull final TimeUnit unit) {
+        return false;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Direct typed event delivery for library own components.
+ * <br>
+ * Unlike {@link de.greenrobot.event.EventBus}, handlers are plain interface implementations
+ * registered for specific event types, so delivery involves no reflection. Handlers matching each
+ * concrete event class, including handlers registered for its superclasses, are resolved once and
+ * cached as an array ordered by priority until registrations change.
+ * <br>
+ * Main thread handlers are called right away if event is posted from main thread, otherwise event
+ * is queued for main thread. Asynchronous handlers are called on supplied {@link Executor}.
+ */
+final class EventRouter {
+
+    /**
+     * Handler of events of a specific type.
+     *
+     * @param <E> Type of handled events.
+     */
+    interface EventHandler<E> {
+
+        void onEvent(@NonNull final E event);
+    }
+
+    private static final Registration[] EMPTY = new Registration[0];
+
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    @NonNull
+    private final Executor executor;
+    /**
+     * All registrations ordered by priority, replaced on every change.
+     */
+    @NonNull
+    private volatile Registration[] registrations = EMPTY;
+    /**
+     * Registrations matching concrete event classes.
+     */
+    private final Map<Class<?>, Registration[]> resolved = new ConcurrentHashMap<>();
+    /**
+     * Events waiting for delivery on main thread, each one followed by its registrations.
+     */
+    private final Queue<Object> mainQueue = new ArrayDeque<>();
+    private boolean drainScheduled;
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drainMainQueue();
+        }
+    };
+
+    EventRouter(@NonNull final Executor executor) {
+        this.executor = executor;
+    }
+
+    @NonNull
+    private Registration[] resolve(@NonNull final Class<?> eventClass) {
+        final Registration[] cached = resolved.get(eventClass);
+        if (cached != null) {
+            return cached;
+        }
+        final Registration[] registrations = this.registrations;
+        final Collection<Registration> matching = new ArrayList<>();
+        for (final Registration registration : registrations) {
+            if (registration.type.isAssignableFrom(eventClass)) {
+                matching.add(registration);
+            }
+        }
+        final Registration[] result = matching.isEmpty()
+                ? EMPTY
+                : matching.toArray(new Registration[matching.size()]);
+        if (registrations == this.registrations) {
+            // Don't cache result computed for outdated registrations
+            resolved.put(eventClass, result);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void deliver(@NonNull final Registration[] registrations,
+                                @NonNull final Object event,
+                                final boolean async) {
+        for (final Registration registration : registrations) {
+            if (registration.async == async) {
+                registration.handler.onEvent(event);
+            }
+        }
+    }
+
+    private void drainMainQueue() {
+        while (true) {
+            final Object event;
+            final Registration[] registrations;
+            synchronized (mainQueue) {
+                event = mainQueue.poll();
+                if (event == null) {
+                    drainScheduled = false;
+                    return;
+                }
+                registrations = (Registration[]) mainQueue.poll();
+            }
+            deliver(registrations, event, false);
+        }
+    }
+
+    /**
+     * Registers handler for events of supplied type.
+     *
+     * @param owner    Object handler belongs to, used to unregister it.
+     * @param type     Type of events to handle, including subclasses.
+     * @param async    True to call handler on background thread, false to call it on main thread.
+     * @param priority Handlers with higher priority are called first.
+     * @param handler  Handler to register.
+     * @param <E>      Type of events to handle.
+     */
+    synchronized <E> void register(@NonNull final Object owner,
+                                   @NonNull final Class<E> type,
+                                   final boolean async,
+                                   final int priority,
+                                   @NonNull final EventHandler<? super E> handler) {
+        final Registration[] oldRegistrations = registrations;
+        final Registration[] newRegistrations = new Registration[oldRegistrations.length + 1];
+        int index = 0;
+        while (index < oldRegistrations.length && oldRegistrations[index].priority >= priority) {
+            newRegistrations[index] = oldRegistrations[index];
+            index++;
+        }
+        newRegistrations[index] = new Registration(owner, type, async, priority, handler);
+        System.arraycopy(oldRegistrations, index, newRegistrations, index + 1,
+                         oldRegistrations.length - index);
+        registrations = newRegistrations;
+        resolved.clear();
+    }
+
+    /**
+     * Unregisters all handlers belonging to supplied owner.
+     *
+     * @param owner Object to unregister handlers of.
+     */
+    synchronized void unregister(@NonNull final Object owner) {
+        final Collection<Registration> remaining = new ArrayList<>();
+        for (final Registration registration : registrations) {
+            if (registration.owner != owner) {
+                remaining.add(registration);
+            }
+        }
+        registrations = remaining.toArray(new Registration[remaining.size()]);
+        resolved.clear();
+    }
+
+    /**
+     * Indicates whether supplied owner has any registered handlers.
+     *
+     * @param owner Object to check.
+     * @return True if owner has registered handlers, false otherwise.
+     */
+    boolean isRegistered(@NonNull final Object owner) {
+        for (final Registration registration : registrations) {
+            if (registration.owner == owner) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Delivers event to all matching handlers.
+     *
+     * @param event Event to deliver.
+     * @return True if event had at least one matching handler, false otherwise.
+     */
+    boolean post(@NonNull final Object event) {
+        final Registration[] registrations = resolve(event.getClass());
+        if (registrations.length == 0) {
+            return false;
+        }
+        boolean hasMain = false;
+        boolean hasAsync = false;
+        for (final Registration registration : registrations) {
+            hasMain |= !registration.async;
+            hasAsync |= registration.async;
+        }
+        if (hasAsync) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(registrations, event, true);
+                }
+            });
+        }
+        if (hasMain) {
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                deliver(registrations, event, false);
+            } else {
+                synchronized (mainQueue) {
+                    mainQueue.add(event);
+                    mainQueue.add(registrations);
+                    if (!drainScheduled) {
+                        drainScheduled = true;
+                        handler.post(drain);
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static final class Registration {
+
+        @NonNull
+        private final Object owner;
+        @NonNull
+        private final Class<?> type;
+        private final boolean async;
+        private final int priority;
+        @SuppressWarnings("rawtypes")
+        @NonNull
+        private final EventHandler handler;
+
+        Registration(@NonNull final Object owner,
+                     @NonNull final Class<?> type,
+                     final boolean async,
+                     final int priority,
+                     @NonNull final EventHandler<?> handler) {
+            this.owner = owner;
+            this.type = type;
+            this.async = async;
+            this.priority = priority;
+            this.handler = handler;
+        }
+    }
+}
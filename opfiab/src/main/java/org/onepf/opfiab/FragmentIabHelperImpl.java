@@ -78,7 +78,7 @@ class FragmentIabHelperImpl extends ComponentIabHelper implements FragmentIabHel
         } else if (type == ComponentState.DESTROY) {
             // Destroy - fragment is being destroyed, unsubscribe from everything
             unregister();
-            OPFIab.unregister(this);
+            detach();
         }
     }
 
@@ -19,6 +19,7 @@ package org.onepf.opfiab;
 import android.support.annotation.NonNull;
 
 import org.onepf.opfiab.api.IabHelper;
+import org.onepf.opfiab.metrics.BillingMetricsRecorder;
 import org.onepf.opfiab.model.billing.Purchase;
 import org.onepf.opfiab.model.event.billing.BillingRequest;
 import org.onepf.opfiab.model.event.billing.ConsumeRequest;
@@ -50,6 +51,7 @@ class IabHelperImpl implements IabHelper {
      * @see BillingBase
      */
     protected void postRequest(@NonNull final BillingRequest billingRequest) {
+        BillingMetricsRecorder.onPosted(billingRequest);
         billingBase.postRequest(billingRequest);
     }
 
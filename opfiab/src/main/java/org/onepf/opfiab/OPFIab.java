@@ -31,13 +31,21 @@ import org.onepf.opfiab.api.FragmentIabHelper;
 import org.onepf.opfiab.api.IabHelper;
 import org.onepf.opfiab.api.SimpleIabHelper;
 import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.metrics.BillingMetricsRecorder;
+import org.onepf.opfiab.EventRouter.EventHandler;
 import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.event.RequestHandledEvent;
+import org.onepf.opfiab.model.event.SetupResponse;
+import org.onepf.opfiab.model.event.SetupStartedEvent;
+import org.onepf.opfiab.model.event.android.FragmentLifecycleEvent;
+import org.onepf.opfiab.model.event.android.SupportFragmentLifecycleEvent;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
 import org.onepf.opfutils.OPFChecks;
 import org.onepf.opfutils.OPFLog;
 import org.onepf.opfutils.exception.InitException;
 
 import java.util.Collection;
-import java.util.concurrent.Executors;
 
 import de.greenrobot.event.EventBus;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
@@ -63,13 +71,15 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
  */
 public final class OPFIab {
 
+    private static final EventExecutor EVENT_EXECUTOR = new EventExecutor();
     private static final EventBus EVENT_BUS = EventBus.builder()
-            // Must use only one background thread
-            .executorService(Executors.newSingleThreadExecutor())
+            // Background threads are picked according to configuration
+            .executorService(EVENT_EXECUTOR)
             .throwSubscriberException(true)
             .eventInheritance(true)
             .logSubscriberExceptions(OPFLog.isEnabled())
             .build();
+    private static final EventRouter EVENT_ROUTER = new EventRouter(EVENT_EXECUTOR);
 
     private static Context context;
     private static Configuration configuration;
@@ -87,25 +97,146 @@ public final class OPFIab {
         }
     }
 
-    static void register(@NonNull final Object subscriber, final int priority) {
-        if (!EVENT_BUS.isRegistered(subscriber)) {
-            EVENT_BUS.register(subscriber, priority);
-        }
+    static <E> void register(@NonNull final Object owner,
+                             @NonNull final Class<E> type,
+                             final boolean async,
+                             final int priority,
+                             @NonNull final EventHandler<? super E> handler) {
+        EVENT_ROUTER.register(owner, type, async, priority, handler);
     }
 
     static void unregister(@NonNull final Object subscriber) {
         if (EVENT_BUS.isRegistered(subscriber)) {
             EVENT_BUS.unregister(subscriber);
         }
+        if (EVENT_ROUTER.isRegistered(subscriber)) {
+            EVENT_ROUTER.unregister(subscriber);
+        }
+    }
+
+    /**
+     * Routes library own billing and lifecycle events to their handlers without reflection.
+     *
+     * @see EventRouter
+     */
+    @SuppressWarnings("PMD.ExcessiveMethodLength")
+    private static void registerHandlers(@NonNull final BillingBase billingBase,
+                                         @NonNull final BillingRequestScheduler scheduler,
+                                         @NonNull final SetupManager setupManager,
+                                         @NonNull final BillingEventDispatcher dispatcher) {
+        // BillingBase must process events before anyone else
+        final int priority = Integer.MAX_VALUE;
+        register(billingBase, SetupResponse.class, false, priority,
+                 new EventHandler<SetupResponse>() {
+                     @Override
+                     public void onEvent(@NonNull final SetupResponse event) {
+                         billingBase.onEventMainThread(event);
+                     }
+                 });
+        register(billingBase, RequestHandledEvent.class, false, priority,
+                 new EventHandler<RequestHandledEvent>() {
+                     @Override
+                     public void onEvent(@NonNull final RequestHandledEvent event) {
+                         billingBase.onEventMainThread(event);
+                     }
+                 });
+        register(billingBase, BillingResponse.class, false, priority,
+                 new EventHandler<BillingResponse>() {
+                     @Override
+                     public void onEvent(@NonNull final BillingResponse event) {
+                         billingBase.onEventMainThread(event);
+                     }
+                 });
+
+        register(scheduler, RequestHandledEvent.class, false, 0,
+                 new EventHandler<RequestHandledEvent>() {
+                     @Override
+                     public void onEvent(@NonNull final RequestHandledEvent event) {
+                         scheduler.onEventMainThread(event);
+                     }
+                 });
+        register(scheduler, SetupResponse.class, false, 0,
+                 new EventHandler<SetupResponse>() {
+                     @Override
+                     public void onEvent(@NonNull final SetupResponse event) {
+                         scheduler.onEventMainThread(event);
+                     }
+                 });
+
+        register(setupManager, SetupResponse.class, false, 0,
+                 new EventHandler<SetupResponse>() {
+                     @Override
+                     public void onEvent(@NonNull final SetupResponse event) {
+                         setupManager.onEventMainThread(event);
+                     }
+                 });
+        register(setupManager, SetupStartedEvent.class, true, 0,
+                 new EventHandler<SetupStartedEvent>() {
+                     @Override
+                     public void onEvent(@NonNull final SetupStartedEvent event) {
+                         setupManager.onEventAsync(event);
+                     }
+                 });
+
+        register(dispatcher, SetupStartedEvent.class, false, 0,
+                 new EventHandler<SetupStartedEvent>() {
+                     @Override
+                     public void onEvent(@NonNull final SetupStartedEvent event) {
+                         dispatcher.onEventMainThread(event);
+                     }
+                 });
+        register(dispatcher, SetupResponse.class, false, 0,
+                 new EventHandler<SetupResponse>() {
+                     @Override
+                     public void onEvent(@NonNull final SetupResponse event) {
+                         dispatcher.onEventMainThread(event);
+                     }
+                 });
+        register(dispatcher, BillingResponse.class, false, 0,
+                 new EventHandler<BillingResponse>() {
+                     @Override
+                     public void onEvent(@NonNull final BillingResponse event) {
+                         dispatcher.onEventMainThread(event);
+                     }
+                 });
+        register(dispatcher, BillingRequest.class, false, 0,
+                 new EventHandler<BillingRequest>() {
+                     @Override
+                     public void onEvent(@NonNull final BillingRequest event) {
+                         dispatcher.onEventMainThread(event);
+                     }
+                 });
+
+        // Lifecycle events are routed only to helpers attached to reporting fragment
+        register(ComponentIabHelper.class, FragmentLifecycleEvent.class, false, 0,
+                 new EventHandler<FragmentLifecycleEvent>() {
+                     @Override
+                     public void onEvent(@NonNull final FragmentLifecycleEvent event) {
+                         ComponentIabHelper.routeState(event.getFragment(), event.getType());
+                     }
+                 });
+        register(ComponentIabHelper.class, SupportFragmentLifecycleEvent.class, false, 0,
+                 new EventHandler<SupportFragmentLifecycleEvent>() {
+                     @Override
+                     public void onEvent(@NonNull final SupportFragmentLifecycleEvent event) {
+                         ComponentIabHelper.routeState(event.getFragment(), event.getType());
+                     }
+                 });
     }
 
     /**
      * Posts event object for delivery to all subscribers.
      * Intend to be used by {@link BillingProvider} implementations.
+     * <br>
+     * Library own billing events are delivered directly to their handlers, everything else goes
+     * through {@link EventBus}.
      *
      * @param event Event object to deliver.
      */
     public static void post(@NonNull final Object event) {
+        if (EVENT_ROUTER.post(event)) {
+            return;
+        }
         if (EVENT_BUS.hasSubscriberForEvent(event.getClass())) {
             EVENT_BUS.post(event);
         } else {
@@ -230,15 +361,15 @@ public final class OPFIab {
         final BillingRequestScheduler scheduler = BillingRequestScheduler.getInstance();
         if (OPFIab.configuration == null) {
             // first init
-            register(billingBase, Integer.MAX_VALUE);
-            register(scheduler);
-            register(SetupManager.getInstance(application));
-            register(BillingEventDispatcher.getInstance());
+            registerHandlers(billingBase, scheduler, SetupManager.getInstance(application),
+                             BillingEventDispatcher.getInstance());
 
             application.registerActivityLifecycleCallbacks(ActivityMonitor.getInstance());
         }
 
         scheduler.dropQueue();
+        EVENT_EXECUTOR.setConfiguration(configuration);
+        BillingMetricsRecorder.setMetrics(configuration.getBillingMetrics());
         billingBase.setConfiguration(configuration);
         OPFIab.configuration = configuration;
     }
@@ -17,10 +17,16 @@
 package org.onepf.opfiab;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.onepf.opfiab.billing.BaseBillingProvider;
 import org.onepf.opfiab.billing.BillingProvider;
 import org.onepf.opfiab.model.BillingProviderInfo;
 import org.onepf.opfiab.model.Configuration;
@@ -33,6 +39,21 @@ import org.onepf.opfutils.OPFLog;
 import org.onepf.opfutils.OPFPreferences;
 import org.onepf.opfutils.OPFUtils;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import static org.onepf.opfiab.model.event.SetupResponse.Status.FAILED;
 import static org.onepf.opfiab.model.event.SetupResponse.Status.PROVIDER_CHANGED;
 import static org.onepf.opfiab.model.event.SetupResponse.Status.SUCCESS;
@@ -44,16 +65,41 @@ import static org.onepf.opfiab.model.event.SetupResponse.Status.SUCCESS;
  * Providers are picked according to this priority rules:
  * <ul>
  * <li> Only available providers will be considered, according to {@link BillingProvider#isAvailable()}.
+ * All providers are checked concurrently, those which fail to respond within
+ * {@link Configuration#getProbeTimeout()} are considered unavailable.
  * <li> If provider had been already used by this app, it is considered first.
  * <li> If provider has {@link BillingProviderInfo#getInstaller()} that matches this application
  * package installer, it is considered next.
  * <li> First suitable provider will be picked according to order it was added in
  * {@link Builder#addBillingProvider(BillingProvider)}.
  * </ul>
+ * If {@link Configuration#fastSetup()} is set, response for the last successful setup is sent
+ * right away and then revalidated. Another response is sent only if revalidation gives a different
+ * result.
  */
 final class SetupManager {
 
     private static final String KEY_LAST_PROVIDER = SetupManager.class.getName() + ".last_provider";
+    private static final String KEY_SNAPSHOT = SetupManager.class.getName() + ".snapshot";
+    private static final String NAME_PROVIDER = "provider";
+    private static final String NAME_AUTHORIZED = "authorized";
+    private static final String NAME_TIME = "time";
+    /**
+     * Snapshots older than this are not used for fast setup.
+     */
+    private static final long SNAPSHOT_LIFETIME = 86400000L; // 1 day
+    private static final Handler HANDLER = new Handler(Looper.getMainLooper());
+    /**
+     * Probe threads must not keep process alive, late probes are left to finish on their own.
+     */
+    private static final ThreadFactory PROBE_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull final Runnable runnable) {
+            final Thread thread = new Thread(runnable, "OPFIab setup probe");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
 
     private static SetupManager instance;
 
@@ -69,6 +115,11 @@ final class SetupManager {
 
     private final Context context;
     private final OPFPreferences preferences;
+    /**
+     * Used to check all providers concurrently.
+     */
+    private final ExecutorService probeExecutor =
+            Executors.newCachedThreadPool(PROBE_THREAD_FACTORY);
     /**
      * Flag indicating whether setup process is happening at the moment.
      */
@@ -80,6 +131,11 @@ final class SetupManager {
      */
     @Nullable
     private Configuration lastConfiguration;
+    /**
+     * Response sent from snapshot while actual setup is still in progress.
+     */
+    @Nullable
+    private volatile SetupResponse fastResponse;
 
     private SetupManager(@NonNull final Context context) {
         super();
@@ -87,28 +143,16 @@ final class SetupManager {
         preferences = new OPFPreferences(context);
     }
 
-    @Nullable
-    private SetupResponse withProvider(@NonNull final Configuration configuration,
-                                       @NonNull final BillingProvider billingProvider,
-                                       final boolean providerChanged) {
-        final boolean authorized = billingProvider.isAuthorised();
-        OPFLog.d(billingProvider.getInfo().getName() + " isAuthorized = " + authorized);
-        if (authorized || !configuration.skipUnauthorised()) {
-            // Provider is authorized or we don't care about authorization
-            final SetupResponse.Status status = providerChanged ? PROVIDER_CHANGED : SUCCESS;
-            return new SetupResponse(configuration, status, billingProvider, authorized);
-        }
-        OPFLog.d("Skipping: %s", billingProvider);
-        return null;
-    }
-
+    /**
+     * Collects providers in order they should be considered in.
+     *
+     * @param configuration Configuration to pick providers from.
+     * @return Map of providers to flag indicating whether picking it means change of provider.
+     */
     @NonNull
-    private SetupResponse newResponse(@NonNull final SetupStartedEvent setupStartedEvent) {
-        OPFLog.logMethod(setupStartedEvent);
-
-        final Configuration configuration = setupStartedEvent.getConfiguration();
-        final Iterable<BillingProvider> providers = configuration.getProviders();
-        final Iterable<BillingProvider> availableProviders = OPFIabUtils.getAvailable(providers);
+    private Map<BillingProvider, Boolean> getCandidates(@NonNull final Configuration configuration) {
+        final Set<BillingProvider> providers = configuration.getProviders();
+        final Map<BillingProvider, Boolean> candidates = new LinkedHashMap<>();
 
         final boolean hadProvider = preferences.contains(KEY_LAST_PROVIDER);
         if (hadProvider) {
@@ -116,14 +160,12 @@ final class SetupManager {
             final String lastProvider = preferences.getString(KEY_LAST_PROVIDER, "");
             final BillingProviderInfo info = BillingProviderInfo.fromJson(lastProvider);
             final BillingProvider provider;
-            final SetupResponse setupResponse;
             OPFLog.d("Previous provider: %s", lastProvider);
             if (info != null
                     // Last provider info is valid
-                    && (provider = OPFIabUtils.findWithInfo(availableProviders, info)) != null
-                    // Provider is present in configuration
-                    && (setupResponse = withProvider(configuration, provider, false)) != null) {
-                return setupResponse;
+                    && (provider = OPFIabUtils.findWithInfo(providers, info)) != null) {
+                // Provider is present in configuration
+                candidates.put(provider, false);
             }
         }
 
@@ -132,21 +174,85 @@ final class SetupManager {
         if (!TextUtils.isEmpty(packageInstaller)) {
             // If package installer is set, try it before anything else
             final BillingProvider installerProvider = OPFIabUtils
-                    .withInstaller(availableProviders, packageInstaller);
-            final SetupResponse setupResponse;
-            if (installerProvider != null
-                    // Provider is present in configuration
-                    && (setupResponse = withProvider(configuration, installerProvider,
-                                                     hadProvider)) != null) {
-                return setupResponse;
+                    .withInstaller(providers, packageInstaller);
+            if (installerProvider != null && !candidates.containsKey(installerProvider)) {
+                candidates.put(installerProvider, hadProvider);
+            }
+        }
+
+        // Rest of providers in order they were added to configuration
+        for (final BillingProvider provider : providers) {
+            if (!candidates.containsKey(provider)) {
+                candidates.put(provider, hadProvider);
             }
         }
+        return candidates;
+    }
+
+    /**
+     * Waits for result of provider probe.
+     *
+     * @param provider Provider being probed.
+     * @param probe    Future result of the probe.
+     * @param deadline Time since boot in milliseconds to wait until.
+     * @return Authorization status if provider is available, null otherwise.
+     */
+    @Nullable
+    private Boolean await(@NonNull final BillingProvider provider,
+                          @NonNull final Future<Boolean> probe,
+                          final long deadline) {
+        final long timeout = Math.max(0L, deadline - SystemClock.elapsedRealtime());
+        try {
+            return probe.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exception) {
+            OPFLog.e("", exception);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException exception) {
+            OPFLog.e("", exception);
+        } catch (TimeoutException exception) {
+            OPFLog.e("Provider probe timeout: %s", provider.getInfo());
+        }
+        return null;
+    }
+
+    @NonNull
+    private SetupResponse newResponse(@NonNull final SetupStartedEvent setupStartedEvent) {
+        OPFLog.logMethod(setupStartedEvent);
 
-        // Pick first available provider that satisfies current configuration
-        for (final BillingProvider provider : availableProviders) {
-            final SetupResponse setupResponse = withProvider(configuration, provider, hadProvider);
-            if (setupResponse != null) {
-                return setupResponse;
+        final Configuration configuration = setupStartedEvent.getConfiguration();
+        final Map<BillingProvider, Boolean> candidates = getCandidates(configuration);
+        final long deadline = SystemClock.elapsedRealtime() + configuration.getProbeTimeout();
+
+        // Probe all providers at once
+        final Map<BillingProvider, Future<Boolean>> probes = new HashMap<>();
+        final Collection<Probe> pendingProbes = new ArrayList<>(candidates.size());
+        for (final BillingProvider provider : candidates.keySet()) {
+            final Probe probe = new Probe(provider);
+            pendingProbes.add(probe);
+            probes.put(provider, probeExecutor.submit(probe));
+        }
+        try {
+            // Pick first suitable provider, don't wait for the rest of probes
+            for (final Map.Entry<BillingProvider, Boolean> entry : candidates.entrySet()) {
+                final BillingProvider provider = entry.getKey();
+                final Boolean authorized = await(provider, probes.get(provider), deadline);
+                if (authorized == null) {
+                    continue;
+                }
+                if (authorized || !configuration.skipUnauthorised()) {
+                    // Provider is authorized or we don't care about authorization
+                    final SetupResponse.Status status = entry.getValue() ? PROVIDER_CHANGED : SUCCESS;
+                    return new SetupResponse(configuration, status, provider, authorized);
+                }
+                OPFLog.d("Skipping: %s", provider);
+            }
+        } finally {
+            // Don't interrupt probes in the middle of binding to services, just ignore them
+            for (final Probe probe : pendingProbes) {
+                probe.late = true;
+            }
+            for (final Future<Boolean> probe : probes.values()) {
+                probe.cancel(false);
             }
         }
 
@@ -154,6 +260,19 @@ final class SetupManager {
         return new SetupResponse(configuration, FAILED, null);
     }
 
+    /**
+     * Lets providers start connecting to their services while setup is being performed.
+     *
+     * @param configuration Configuration object to warm up providers from.
+     */
+    private void warmUp(@NonNull final Configuration configuration) {
+        for (final BillingProvider provider : configuration.getProviders()) {
+            if (provider instanceof BaseBillingProvider) {
+                ((BaseBillingProvider) provider).warmUp();
+            }
+        }
+    }
+
     /**
      * Tries to start setup process for the supplied configuration.
      * <br>
@@ -171,13 +290,22 @@ final class SetupManager {
         }
 
         setupInProgress = true;
+        if (configuration.warmUp()) {
+            warmUp(configuration);
+        }
         OPFIab.post(new SetupStartedEvent(configuration));
     }
 
-    @SuppressWarnings("UnusedParameters")
-    public void onEventMainThread(@NonNull final SetupResponse setupResponse) {
+    /**
+     * Marks current setup as finished and starts pending one, if any.
+     *
+     * @param configuration Configuration object setup has finished for.
+     */
+    private void finishSetup(@NonNull final Configuration configuration) {
+        OPFChecks.checkThread(true);
         setupInProgress = false;
-        if (lastConfiguration != null && lastConfiguration != setupResponse.getConfiguration()) {
+        fastResponse = null;
+        if (lastConfiguration != null && lastConfiguration != configuration) {
             // If another setup was requested with different configuration
             startSetup(lastConfiguration);
         } else {
@@ -185,15 +313,145 @@ final class SetupManager {
         }
     }
 
+    /**
+     * Makes setup response from snapshot of the last successful setup.
+     *
+     * @param configuration Configuration object to make response for.
+     * @return SetupResponse if snapshot is present, fresh and suitable for supplied configuration,
+     * null otherwise.
+     */
+    @Nullable
+    private SetupResponse snapshotResponse(@NonNull final Configuration configuration) {
+        final String snapshot = preferences.getString(KEY_SNAPSHOT, null);
+        if (snapshot == null) {
+            return null;
+        }
+        try {
+            final JSONObject jsonObject = new JSONObject(snapshot);
+            final long age = System.currentTimeMillis() - jsonObject.getLong(NAME_TIME);
+            final String providerJson = jsonObject.getJSONObject(NAME_PROVIDER).toString();
+            final BillingProviderInfo info = BillingProviderInfo.fromJson(providerJson);
+            final boolean authorized = jsonObject.getBoolean(NAME_AUTHORIZED);
+            final BillingProvider provider;
+            if (age >= 0L && age < SNAPSHOT_LIFETIME
+                    && info != null
+                    && (provider = OPFIabUtils.findWithInfo(configuration.getProviders(),
+                                                            info)) != null
+                    && (authorized || !configuration.skipUnauthorised())) {
+                return new SetupResponse(configuration, SUCCESS, provider, authorized);
+            }
+        } catch (JSONException exception) {
+            OPFLog.e("", exception);
+        }
+        return null;
+    }
+
+    /**
+     * Stores result of setup to be used by the next fast setup.
+     *
+     * @param setupResponse SetupResponse to take snapshot of.
+     */
+    private void saveSnapshot(@NonNull final SetupResponse setupResponse) {
+        final BillingProvider provider = setupResponse.getBillingProvider();
+        if (!setupResponse.isSuccessful() || provider == null) {
+            preferences.remove(KEY_SNAPSHOT);
+            return;
+        }
+        final BillingProviderInfo info = provider.getInfo();
+        // Suitable provider successfully picked, remember it to prioritize for next setup.
+        preferences.put(KEY_LAST_PROVIDER, info.toJson().toString());
+        try {
+            final JSONObject jsonObject = new JSONObject();
+            jsonObject.put(NAME_PROVIDER, info.toJson());
+            jsonObject.put(NAME_AUTHORIZED, setupResponse.isAuthorized());
+            jsonObject.put(NAME_TIME, System.currentTimeMillis());
+            preferences.put(KEY_SNAPSHOT, jsonObject.toString());
+        } catch (JSONException exception) {
+            OPFLog.e("", exception);
+        }
+    }
+
+    public void onEventMainThread(@NonNull final SetupResponse setupResponse) {
+        if (setupResponse != fastResponse) {
+            // Fast response doesn't finish setup, background one does
+            finishSetup(setupResponse.getConfiguration());
+        }
+    }
+
     public void onEventAsync(@NonNull final SetupStartedEvent setupStartedEvent) {
+        final Configuration configuration = setupStartedEvent.getConfiguration();
+        final SetupResponse fastResponse = configuration.fastSetup()
+                ? snapshotResponse(configuration)
+                : null;
+        if (fastResponse != null) {
+            OPFLog.d("Fast setup: %s", fastResponse);
+            this.fastResponse = fastResponse;
+            OPFIab.post(fastResponse);
+        }
+
         final SetupResponse setupResponse = newResponse(setupStartedEvent);
-        final BillingProvider provider;
-        if (setupResponse.isSuccessful()
-                && (provider = setupResponse.getBillingProvider()) != null) {
-            // Suitable provider successfully picked, remember it to prioritize for next setup.
-            final BillingProviderInfo info = provider.getInfo();
-            preferences.put(KEY_LAST_PROVIDER, info.toJson().toString());
-        }
-        OPFIab.post(setupResponse);
+        saveSnapshot(setupResponse);
+        if (fastResponse == null) {
+            OPFIab.post(setupResponse);
+            return;
+        }
+
+        final BillingProvider provider = setupResponse.getBillingProvider();
+        if (provider != fastResponse.getBillingProvider()) {
+            // Revalidation picked another provider
+            OPFIab.post(provider == null
+                                ? setupResponse
+                                : new SetupResponse(configuration, PROVIDER_CHANGED, provider,
+                                                    setupResponse.isAuthorized()));
+        } else if (setupResponse.isAuthorized() != fastResponse.isAuthorized()) {
+            // Same provider, but authorization status has changed
+            OPFIab.post(new SetupResponse(configuration, SUCCESS, provider,
+                                          setupResponse.isAuthorized()));
+        } else {
+            // Snapshot was correct, nothing to announce
+            OPFLog.d("Fast setup confirmed: %s", setupResponse);
+            HANDLER.post(new Runnable() {
+                @Override
+                public void run() {
+                    finishSetup(configuration);
+                }
+            });
+        }
+    }
+
+    /**
+     * Checks whether provider is available and authorized.
+     * <br>
+     * Results in null if provider is unavailable, authorization status otherwise.
+     */
+    private static final class Probe implements Callable<Boolean> {
+
+        @NonNull
+        private final BillingProvider provider;
+        /**
+         * Set once setup has finished, result of the probe is not needed anymore.
+         */
+        private volatile boolean late;
+
+        Probe(@NonNull final BillingProvider provider) {
+            this.provider = provider;
+        }
+
+        @Nullable
+        @Override
+        public Boolean call() {
+            final boolean available = provider.isAvailable();
+            if (late) {
+                OPFLog.d("Dropping late probe result: %s", provider.getInfo().getName());
+                return null;
+            }
+            if (!available) {
+                OPFLog.d("Unavailable: %s", provider.getInfo().getName());
+                return null;
+            }
+            final boolean authorized = provider.isAuthorised();
+            OPFLog.d(provider.getInfo().getName() + " isAuthorized = " + authorized);
+            return authorized;
+        }
     }
 }
@@ -83,6 +83,16 @@ public abstract class ActivityBillingProvider<R extends SkuResolver, V extends P
         super(context, skuResolver, purchaseVerifier);
     }
 
+    protected ActivityBillingProvider(@NonNull final Context context,
+                                      @NonNull final R skuResolver,
+                                      @NonNull final V purchaseVerifier,
+                                      @Nullable final SkuDetailsCache skuDetailsCache,
+                                      @Nullable final InventoryStore inventoryStore,
+                                      @Nullable final ProviderStateCache providerStateCache) {
+        super(context, skuResolver, purchaseVerifier, skuDetailsCache, inventoryStore,
+              providerStateCache);
+    }
+
     /**
      * Handles result of activity previously started with {@link #REQUEST_CODE}.
      */
@@ -107,8 +117,32 @@ public abstract class ActivityBillingProvider<R extends SkuResolver, V extends P
             super.onEventAsync(billingRequest);
             return;
         }
-        // We have to start OPFIabActivity to properly handle this request
-        pendingRequest = (PurchaseRequest) billingRequest;
+        serialize(new Runnable() {
+            @Override
+            public void run() {
+                final BillingRequest activityRequest = startActivity(purchaseRequest);
+                if (activityRequest == null) {
+                    // Can't process request without activity
+                    OPFLog.e("Failed to add activity to request: %s", purchaseRequest);
+                    OPFIab.post(new RequestHandledEvent(purchaseRequest));
+                    postEmptyResponse(purchaseRequest, Status.UNKNOWN_ERROR);
+                } else {
+                    handleSerialized(activityRequest);
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts {@link OPFIabActivity} to properly handle purchase request and waits for it.
+     *
+     * @param purchaseRequest Request which needs an activity.
+     * @return Copy of the request with started activity attached, null if activity didn't start
+     * in time.
+     */
+    @Nullable
+    private BillingRequest startActivity(@NonNull final PurchaseRequest purchaseRequest) {
+        pendingRequest = purchaseRequest;
         semaphore.drainPermits();
         activityRequest = null;
         final Activity activity = purchaseRequest.getActivity();
@@ -116,28 +150,20 @@ public abstract class ActivityBillingProvider<R extends SkuResolver, V extends P
         try {
             // Wait for activity to start
             if (!semaphore.tryAcquire(ACTIVITY_TIMEOUT, TimeUnit.MILLISECONDS)) {
-                OPFLog.e("Fake activity start time out. Request: %s", billingRequest);
+                OPFLog.e("Fake activity start time out. Request: %s", purchaseRequest);
             }
         } catch (InterruptedException exception) {
             OPFLog.e("", exception);
         }
         pendingRequest = null;
-        final BillingRequest activityRequest = this.activityRequest;
-        if (activityRequest == null) {
-            // Can't process request without activity
-            OPFLog.e("Failed to add activity to request: %s", billingRequest);
-            OPFIab.post(new RequestHandledEvent(billingRequest));
-            postEmptyResponse(billingRequest, Status.UNKNOWN_ERROR);
-        } else {
-            super.onEventAsync(activityRequest);
-        }
+        return activityRequest;
     }
 
     public void onEventMainThread(@NonNull final ActivityNewIntentEvent intentEvent) {
         final PurchaseRequest pendingRequest = this.pendingRequest;
         if (pendingRequest != null) {
             final Activity activity = intentEvent.getActivity();
-            activityRequest = new PurchaseRequest(activity, pendingRequest.getSku());
+            activityRequest = new PurchaseRequest(pendingRequest, activity);
             semaphore.release();
         }
     }
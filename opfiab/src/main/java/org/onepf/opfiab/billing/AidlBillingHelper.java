@@ -21,27 +21,37 @@ import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.ServiceConnection;
-import android.content.pm.PackageManager;
-import android.content.pm.ResolveInfo;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.IInterface;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
+import org.onepf.opfiab.OPFIab;
+import org.onepf.opfiab.metrics.BillingMetricsRecorder;
+import org.onepf.opfiab.metrics.BillingStage;
+import org.onepf.opfiab.util.LatchFuture;
 import org.onepf.opfutils.OPFLog;
 import org.onepf.opfutils.OPFUtils;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Collection;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Helper class intended to simplify interaction with {@link Service} declared using Android
  * Interface Definition Language (AIDL).
+ * <br>
+ * Connection is established asynchronously, see {@link #connect()}. Once connected, service stays
+ * bound for a keep-alive period which adapts to the frequency of {@link #getService()} calls.
+ * <br>
+ * Every finished connection attempt is reported with {@link ConnectionEvent}, so requests can wait
+ * for connection without blocking.
  *
  * @param <AIDL> AIDL class to bind to.
  */
@@ -53,28 +63,44 @@ public abstract class AidlBillingHelper<AIDL extends IInterface> implements Serv
      */
     private static final long CONNECTION_TIMEOUT = 3000L; // 3 seconds
     /**
-     * Automatically disconnect from service after this delay since last usage.
+     * Minimal delay since last usage after which service is automatically disconnected.
      */
-    private static final long DISCONNECT_DELAY = 60000L; // 1 minute
-
+    private static final long MIN_KEEP_ALIVE = 60000L; // 1 minute
+    /**
+     * Maximal delay since last usage after which service is automatically disconnected.
+     */
+    private static final long MAX_KEEP_ALIVE = 600000L; // 10 minutes
     /**
-     * Used to block library thread and wait for service to connect.
+     * Keep-alive is this many times longer than average interval between service usages.
      */
-    private final Semaphore serviceSemaphore = new Semaphore(0);
+    private static final int KEEP_ALIVE_FACTOR = 2;
+    /**
+     * Weight of the previous average in average interval between service usages.
+     */
+    private static final int AVERAGE_WEIGHT = 3;
+
     /**
      * Task to be used to disconnect from service.
      */
     private final Runnable disconnect = new Runnable() {
         @Override
         public void run() {
-            if (service != null) {
-                context.unbindService(AidlBillingHelper.this);
-                service = null;
-            }
+            unbind(false);
+        }
+    };
+    /**
+     * Task to be used to give up on pending connection.
+     */
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            onConnectionTimeout();
         }
     };
     @NonNull
     protected final Context context;
+    @NonNull
+    private final ServiceBinder serviceBinder;
     /**
      * Method that is used to connect to the service.
      */
@@ -82,9 +108,39 @@ public abstract class AidlBillingHelper<AIDL extends IInterface> implements Serv
     private final Method asInterface;
     @Nullable
     private volatile AIDL service;
+    /**
+     * Future representing current connection, null if service is not bound.
+     */
+    @Nullable
+    private LatchFuture<AIDL> connection;
+    /**
+     * Whether the last finished connection attempt was given up on due to timeout.
+     */
+    private volatile boolean timedOut;
+    /**
+     * Time of the last {@link #getService()} call.
+     */
+    private long lastUsage;
+    /**
+     * Average interval between {@link #getService()} calls which didn't fit in minimal keep-alive.
+     */
+    private long averageInterval;
+    private volatile long keepAlive = MIN_KEEP_ALIVE;
 
     protected AidlBillingHelper(@NonNull final Context context, @NonNull final Class<AIDL> clazz) {
+        this(context, clazz, ServiceBinder.DEFAULT);
+    }
+
+    /**
+     * @param context       Context object.
+     * @param clazz         AIDL class to bind to.
+     * @param serviceBinder Object used to bind to service.
+     */
+    protected AidlBillingHelper(@NonNull final Context context,
+                                @NonNull final Class<AIDL> clazz,
+                                @NonNull final ServiceBinder serviceBinder) {
         this.context = context.getApplicationContext();
+        this.serviceBinder = serviceBinder;
         final Class<?>[] classes = clazz.getDeclaredClasses();
         for (final Class<?> declaredClass : classes) {
             if ("Stub".equals(declaredClass.getSimpleName())
@@ -101,11 +157,87 @@ public abstract class AidlBillingHelper<AIDL extends IInterface> implements Serv
     }
 
     /**
-     * Schedules {@link #disconnect} after {@link #DISCONNECT_DELAY} milliseconds.
+     * Schedules {@link #disconnect} after current {@link #keepAlive} delay.
      */
     private void scheduleDisconnect() {
         HANDLER.removeCallbacks(disconnect);
-        HANDLER.postDelayed(disconnect, DISCONNECT_DELAY);
+        HANDLER.postDelayed(disconnect, keepAlive);
+    }
+
+    /**
+     * Updates {@link #keepAlive} according to the frequency of service usage.
+     * <br>
+     * Intervals shorter than {@link #MIN_KEEP_ALIVE} are already covered and don't affect average.
+     * If service is used too rarely, keep-alive falls back to minimal value.
+     */
+    private synchronized void updateKeepAlive() {
+        final long now = SystemClock.elapsedRealtime();
+        final long interval = now - lastUsage;
+        if (lastUsage > 0L && interval > MIN_KEEP_ALIVE) {
+            averageInterval = averageInterval == 0L
+                    ? interval
+                    : (averageInterval * AVERAGE_WEIGHT + interval) / (AVERAGE_WEIGHT + 1);
+        }
+        lastUsage = now;
+        final long adaptiveKeepAlive = averageInterval * KEEP_ALIVE_FACTOR;
+        keepAlive = adaptiveKeepAlive > MAX_KEEP_ALIVE
+                ? MIN_KEEP_ALIVE
+                : Math.max(MIN_KEEP_ALIVE, adaptiveKeepAlive);
+    }
+
+    /**
+     * Completes connection attempt and notifies library about it.
+     *
+     * @param connection Connection to complete.
+     * @param service    Connected service, null if connection has failed.
+     */
+    private void complete(@NonNull final LatchFuture<AIDL> connection,
+                          @Nullable final AIDL service) {
+        if (!connection.isDone()) {
+            connection.complete(service);
+            OPFIab.post(new ConnectionEvent(this, service != null, timedOut));
+        }
+    }
+
+    /**
+     * Unbinds from service and completes pending connection, if any.
+     *
+     * @param timedOut Whether pending connection is given up on due to timeout.
+     */
+    private void unbind(final boolean timedOut) {
+        final LatchFuture<AIDL> connection;
+        synchronized (this) {
+            connection = this.connection;
+            if (connection == null) {
+                return;
+            }
+            if (!connection.isDone()) {
+                this.timedOut = timedOut;
+            }
+            HANDLER.removeCallbacks(timeout);
+            HANDLER.removeCallbacks(disconnect);
+            this.connection = null;
+            service = null;
+            try {
+                serviceBinder.unbind(context, this);
+            } catch (IllegalArgumentException exception) {
+                OPFLog.e("", exception);
+            }
+        }
+        complete(connection, null);
+    }
+
+    /**
+     * Gives up on pending connection.
+     * <br>
+     * Called by {@link #timeout}, package-private to let tests emulate it.
+     */
+    synchronized void onConnectionTimeout() {
+        final LatchFuture<AIDL> connection = this.connection;
+        if (connection != null && !connection.isDone()) {
+            OPFLog.e("AIDL service connection timeout: %s", asInterface.getDeclaringClass());
+            unbind(true);
+        }
     }
 
     /**
@@ -116,56 +248,183 @@ public abstract class AidlBillingHelper<AIDL extends IInterface> implements Serv
     @NonNull
     protected abstract Intent getServiceIntent();
 
+    /**
+     * Starts connecting to {@link Service} if it's not already connected or connecting.
+     * <br>
+     * This call doesn't block and can be used to warm up connection before it's actually needed.
+     * Requests should wait for returned future to be done, e.g. by waiting for
+     * {@link ConnectionEvent}, before calling {@link #getService()}.
+     *
+     * @return Future which holds {@link IInterface} instance once {@link Service} is connected,
+     * or null if connection has failed.
+     * @see #isTimedOut()
+     */
+    @NonNull
+    public Future<AIDL> connect() {
+        final LatchFuture<AIDL> connection;
+        synchronized (this) {
+            if (this.connection != null) {
+                return this.connection;
+            }
+            final Intent serviceIntent = getServiceIntent();
+            // Service might be connected right away, from within bind() call
+            connection = new LatchFuture<>();
+            this.connection = connection;
+            if (serviceBinder.bind(context, serviceIntent, this)) {
+                if (!connection.isDone()) {
+                    HANDLER.postDelayed(timeout, CONNECTION_TIMEOUT);
+                }
+                return connection;
+            }
+            OPFLog.d("Can't bind to service: %s", OPFUtils.toString(serviceIntent));
+            this.connection = null;
+            timedOut = false;
+        }
+        complete(connection, null);
+        return connection;
+    }
+
+    /**
+     * Checks whether service is currently connected, without blocking.
+     *
+     * @return True if service is connected, false otherwise.
+     */
+    public boolean isConnected() {
+        return service != null;
+    }
+
+    /**
+     * Checks whether the last failed connection attempt was given up on due to timeout, rather
+     * than because service can't be bound at all.
+     *
+     * @return True if service didn't connect in time, false otherwise.
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
     /**
      * Blocking call to retrieve {@link IInterface} instance to interact with {@link Service}.
+     * <br>
+     * Waits for connection started by {@link #connect()} for no longer than
+     * {@link #CONNECTION_TIMEOUT}. Doesn't block if connection is already done.
      *
      * @return {@link IInterface} instance if {@link Service} connection was successful, null otherwise.
      */
     @Nullable
     public AIDL getService() {
+        updateKeepAlive();
         final AIDL service = this.service;
         if (service != null) {
             scheduleDisconnect();
             return service;
         }
-
-        final Intent serviceIntent = getServiceIntent();
-        final PackageManager packageManager = context.getPackageManager();
-        final Collection<ResolveInfo> infos = packageManager.queryIntentServices(serviceIntent, 0);
-        if (infos == null || infos.isEmpty()
-                || !context.bindService(getServiceIntent(), this, Context.BIND_AUTO_CREATE)) {
-            OPFLog.d("Can't bind to service: %s", asInterface.getDeclaringClass());
-            return null;
-        }
-        serviceSemaphore.drainPermits();
+        final Future<AIDL> connection = connect();
+        final long start = BillingMetricsRecorder.start();
         try {
-            if (!serviceSemaphore.tryAcquire(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS)) {
-                OPFLog.e("AIDL service connection timeout: %s", OPFUtils.toString(serviceIntent));
-            }
+            return connection.get(CONNECTION_TIMEOUT, TimeUnit.MILLISECONDS);
         } catch (InterruptedException exception) {
             OPFLog.d("", exception);
+        } catch (TimeoutException exception) {
+            OPFLog.e("AIDL service connection timeout: %s", asInterface.getDeclaringClass());
+        } catch (ExecutionException exception) {
+            OPFLog.e("", exception);
+        } finally {
+            BillingMetricsRecorder.record(BillingStage.CONNECT, start);
         }
         return this.service;
     }
 
     @Override
     public void onServiceConnected(final ComponentName name, final IBinder service) {
+        AIDL aidl = null;
         //https://code.google.com/p/android/issues/detail?id=153406
         //noinspection TryWithIdenticalCatches
         try {
             //noinspection unchecked
-            this.service = (AIDL) asInterface.invoke(null, service);
+            aidl = (AIDL) asInterface.invoke(null, service);
         } catch (IllegalAccessException exception) {
             OPFLog.e("", exception);
         } catch (InvocationTargetException exception) {
             OPFLog.e("", exception);
         }
-        scheduleDisconnect();
-        serviceSemaphore.release();
+        final LatchFuture<AIDL> connection;
+        synchronized (this) {
+            if (this.connection == null || this.connection.isDone()) {
+                // Binding outlived dropped connection, adopt it so keep-alive releases it
+                this.connection = new LatchFuture<>();
+            }
+            connection = this.connection;
+            HANDLER.removeCallbacks(timeout);
+            this.service = aidl;
+            timedOut = false;
+            scheduleDisconnect();
+        }
+        complete(connection, aidl);
     }
 
     @Override
     public void onServiceDisconnected(final ComponentName name) {
-        service = null;
+        // Binding is still active, system will call onServiceConnected() once service is restarted
+        synchronized (this) {
+            service = null;
+            final LatchFuture<AIDL> connection = this.connection;
+            if (connection != null && connection.isDone()) {
+                // Callers holding completed connection keep dead service, new callers wait
+                this.connection = new LatchFuture<>();
+                // Don't let callers wait for a service which might never be restarted
+                HANDLER.removeCallbacks(timeout);
+                HANDLER.postDelayed(timeout, CONNECTION_TIMEOUT);
+            }
+        }
+    }
+
+    /**
+     * Event indicating that connection attempt of {@link AidlBillingHelper} has finished.
+     * <br>
+     * Intended for internal usage.
+     */
+    public static final class ConnectionEvent {
+
+        @NonNull
+        private final AidlBillingHelper<?> helper;
+        private final boolean connected;
+        private final boolean timedOut;
+
+        ConnectionEvent(@NonNull final AidlBillingHelper<?> helper,
+                        final boolean connected,
+                        final boolean timedOut) {
+            this.helper = helper;
+            this.connected = connected;
+            this.timedOut = timedOut;
+        }
+
+        /**
+         * Gets helper which was connecting to service.
+         *
+         * @return AidlBillingHelper object.
+         */
+        @NonNull
+        public AidlBillingHelper<?> getHelper() {
+            return helper;
+        }
+
+        /**
+         * Indicates whether service was connected.
+         *
+         * @return True if service is connected, false otherwise.
+         */
+        public boolean isConnected() {
+            return connected;
+        }
+
+        /**
+         * Indicates whether connection was given up on due to timeout.
+         *
+         * @return True if service didn't connect in time, false if it connected or can't be bound.
+         */
+        public boolean isTimedOut() {
+            return timedOut;
+        }
     }
 }
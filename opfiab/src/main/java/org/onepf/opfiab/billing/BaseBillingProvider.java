@@ -25,6 +25,9 @@ import android.text.TextUtils;
 
 import org.onepf.opfiab.ActivityMonitor;
 import org.onepf.opfiab.OPFIab;
+import org.onepf.opfiab.metrics.BillingMetricsRecorder;
+import org.onepf.opfiab.metrics.BillingStage;
+import org.onepf.opfiab.model.Configuration;
 import org.onepf.opfiab.model.BillingProviderInfo;
 import org.onepf.opfiab.model.billing.Purchase;
 import org.onepf.opfiab.model.billing.SkuDetails;
@@ -42,21 +45,29 @@ import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
 import org.onepf.opfiab.model.event.billing.Status;
 import org.onepf.opfiab.sku.SkuResolver;
 import org.onepf.opfiab.util.OPFIabUtils;
+import org.onepf.opfiab.util.PackageIndex;
+import org.onepf.opfiab.verification.BatchPurchaseVerifier;
 import org.onepf.opfiab.verification.PurchaseVerifier;
 import org.onepf.opfiab.verification.VerificationResult;
 import org.onepf.opfutils.OPFLog;
-import org.onepf.opfutils.OPFUtils;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 import static org.onepf.opfiab.model.event.billing.Status.BILLING_UNAVAILABLE;
 import static org.onepf.opfiab.model.event.billing.Status.ITEM_UNAVAILABLE;
+import static org.onepf.opfiab.model.event.billing.Status.SUCCESS;
 import static org.onepf.opfiab.model.event.billing.Status.USER_CANCELED;
 
 /**
@@ -76,13 +87,61 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
     protected final R skuResolver;
     @NonNull
     protected final V purchaseVerifier;
+    @Nullable
+    protected final SkuDetailsCache skuDetailsCache;
+    @Nullable
+    protected final InventoryStore inventoryStore;
+    @Nullable
+    protected final ProviderStateCache providerStateCache;
+    /**
+     * Cached parts of SKU details requests waiting for the rest of details to be loaded, mapped by
+     * request ids.
+     */
+    private final Map<Long, Collection<SkuDetails>> partialHits = new HashMap<>();
+    /**
+     * Tasks of this provider waiting to be executed one at a time, see {@link #serialize(Runnable)}.
+     */
+    private final Queue<Runnable> lane = new ConcurrentLinkedQueue<>();
+    /**
+     * Whether some thread is executing tasks from {@link #lane} at the moment.
+     */
+    private final AtomicBoolean laneBusy = new AtomicBoolean();
+    /**
+     * Ids of the last handled request of each type, used to correlate responses with requests.
+     */
+    private final AtomicLongArray requestIds =
+            new AtomicLongArray(BillingRequest.Type.values().length);
 
     protected BaseBillingProvider(@NonNull final Context context,
                                   @NonNull final R skuResolver,
                                   @NonNull final V purchaseVerifier) {
+        this(context, skuResolver, purchaseVerifier, null, null, null);
+    }
+
+    protected BaseBillingProvider(@NonNull final Context context,
+                                  @NonNull final R skuResolver,
+                                  @NonNull final V purchaseVerifier,
+                                  @Nullable final SkuDetailsCache skuDetailsCache,
+                                  @Nullable final InventoryStore inventoryStore,
+                                  @Nullable final ProviderStateCache providerStateCache) {
         this.context = context.getApplicationContext();
         this.purchaseVerifier = purchaseVerifier;
         this.skuResolver = skuResolver;
+        this.skuDetailsCache = skuDetailsCache;
+        this.inventoryStore = inventoryStore;
+        this.providerStateCache = providerStateCache;
+        if (providerStateCache != null) {
+            providerStateCache.attach(this.context);
+        }
+    }
+
+    /**
+     * Starts connecting to underlying billing service in advance, without blocking.
+     * <br>
+     * Called during setup if {@link Configuration#warmUp()} is set. Does nothing by default.
+     */
+    public void warmUp() {
+        // Nothing to warm up by default
     }
 
     /**
@@ -139,6 +198,7 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
     @SuppressFBWarnings({"BC_UNCONFIRMED_CAST"})
     protected void handleRequest(@NonNull final BillingRequest billingRequest) {
         OPFLog.logMethod(billingRequest);
+        requestIds.set(billingRequest.getType().ordinal(), billingRequest.getId());
 
         final String resolvedSku;
         switch (billingRequest.getType()) {
@@ -168,29 +228,183 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
                 break;
             case SKU_DETAILS:
                 final SkuDetailsRequest skuDetailsRequest = (SkuDetailsRequest) billingRequest;
-                final Set<String> skus = skuDetailsRequest.getSkus();
-                final Set<String> resolvedSkus = OPFIabUtils.resolveSkus(skuResolver, skus);
-                skuDetails(resolvedSkus);
+                handleSkuDetailsRequest(skuDetailsRequest.getSkus());
                 break;
             case INVENTORY:
                 final InventoryRequest inventoryRequest = (InventoryRequest) billingRequest;
-                final boolean startOver = inventoryRequest.startOver();
-                inventory(startOver);
+                handleInventoryRequest(inventoryRequest.startOver());
                 break;
             default:
                 throw new IllegalStateException();
         }
     }
 
+    /**
+     * Loads details for supplied SKUs, using {@link SkuDetailsCache} if one is set.
+     * <br>
+     * Only SKUs missing from cache are passed to {@link #skuDetails(Set)}, cached part is merged
+     * with loaded details in {@link #postSkuDetailsResponse(Status, Collection)}.
+     *
+     * @param skus Unresolved SKUs to load details for.
+     */
+    private void handleSkuDetailsRequest(@NonNull final Set<String> skus) {
+        if (skuDetailsCache == null) {
+            skuDetails(OPFIabUtils.resolveSkus(skuResolver, skus));
+            return;
+        }
+        skuDetailsCache.attach(context, getInfo());
+        final Collection<SkuDetails> cached = new ArrayList<>(skus.size());
+        final Set<String> missing = new HashSet<>();
+        skuDetailsCache.get(skus, cached, missing);
+        OPFLog.d("SKU details cache. Hits: %d, misses: %d.", cached.size(), missing.size());
+        if (missing.isEmpty()) {
+            // Everything is fresh, there's no need to bother billing provider
+            postResponse(new SkuDetailsResponse(SUCCESS, getInfo(), cached,
+                                                getRequestId(BillingRequest.Type.SKU_DETAILS)));
+            return;
+        }
+        synchronized (partialHits) {
+            partialHits.put(getRequestId(BillingRequest.Type.SKU_DETAILS), cached);
+        }
+        skuDetails(OPFIabUtils.resolveSkus(skuResolver, missing));
+    }
+
+    /**
+     * Loads user's inventory, using {@link InventoryStore} if one is set.
+     * <br>
+     * When inventory is loaded from the start, stored inventory is verified and sent right away and
+     * {@link #inventory(boolean)} results are sent as delta.
+     *
+     * @param startOver Flag indicating whether inventory should be loaded from the start.
+     */
+    private void handleInventoryRequest(final boolean startOver) {
+        final InventoryStore store = getInventoryStore();
+        if (store != null) {
+            if (startOver) {
+                final Map<Purchase, VerificationResult> inventory = store.getInventory();
+                if (inventory != null) {
+                    OPFLog.d("Sending stored inventory: %d items.", inventory.size());
+                    final long requestId = getRequestId(BillingRequest.Type.INVENTORY);
+                    postResponse(new InventoryResponse(SUCCESS, getInfo(), inventory, false,
+                                                       true, null, requestId));
+                }
+                store.startSync();
+            }
+        }
+        inventory(startOver);
+    }
+
+    /**
+     * Picks cached part of SKU details request with supplied id.
+     *
+     * @param requestId Id of the request being answered.
+     * @return Cached SkuDetails to add to response, null if there's none.
+     */
+    @Nullable
+    private Collection<SkuDetails> pollPartialHit(final long requestId) {
+        synchronized (partialHits) {
+            return partialHits.remove(requestId);
+        }
+    }
+
+    /**
+     * Gets id of the last handled request of supplied type.
+     * <br>
+     * Responses constructed without explicit request id carry this id. It's only reliable while
+     * request is being handled, providers receiving responses asynchronously should remember it
+     * and pass it to response methods explicitly.
+     *
+     * @param type Type of the request.
+     * @return Id of the request, 0 if no requests of this type were handled.
+     * @see BillingRequest#getId()
+     */
+    protected long getRequestId(@NonNull final BillingRequest.Type type) {
+        return requestIds.get(type.ordinal());
+    }
+
+    /**
+     * Drops state cached for the previous user of this provider.
+     * <br>
+     * Intended for providers which can tell that another user has logged in. Cached
+     * availability and authorization are forgotten, {@link InventoryStore} is switched to the new
+     * user.
+     */
+    protected void onUserChanged() {
+        OPFLog.d("User has changed: %s", getInfo().getName());
+        if (providerStateCache != null) {
+            providerStateCache.clear();
+        }
+        getInventoryStore();
+    }
+
     /**
      * Notifies library about billing response from this billing provider.
      *
      * @param billingResponse BillingResponse object to send to library.
      */
     protected void postResponse(@NonNull final BillingResponse billingResponse) {
+        if (providerStateCache != null) {
+            providerStateCache.onStatus(billingResponse.getStatus());
+        }
+        if (OPFIabUtils.isFinal(billingResponse)) {
+            BillingMetricsRecorder.onResponse(null, billingResponse);
+        }
         OPFIab.post(billingResponse);
     }
 
+    /**
+     * Gets provider specific signature of supplied purchase.
+     * <br>
+     * Signature is persisted by {@link InventoryStore} and passed back to
+     * {@link #restorePurchase(Purchase, String)}.
+     *
+     * @param purchase Purchase delivered by this provider.
+     * @return Signature of the purchase, can be null.
+     */
+    @Nullable
+    protected String getSignature(@NonNull final Purchase purchase) {
+        return null;
+    }
+
+    /**
+     * Rebuilds provider specific purchase model from the one loaded by {@link InventoryStore}.
+     *
+     * @param purchase  Purchase restored from its JSON representation.
+     * @param signature Signature previously returned by {@link #getSignature(Purchase)}, can be
+     *                  null.
+     * @return Purchase model as it would be delivered by this provider.
+     */
+    @NonNull
+    protected Purchase restorePurchase(@NonNull final Purchase purchase,
+                                       @Nullable final String signature) {
+        return purchase;
+    }
+
+    /**
+     * Gets id of the user currently logged in with this provider.
+     * <br>
+     * {@link InventoryStore} keeps separate inventory for each user. Must not block.
+     *
+     * @return User id, null if provider can't tell users apart.
+     */
+    @Nullable
+    protected String getUserId() {
+        return null;
+    }
+
+    /**
+     * Gets {@link InventoryStore} bound to the current user.
+     *
+     * @return Attached InventoryStore, null if it's not set.
+     */
+    @Nullable
+    private InventoryStore getInventoryStore() {
+        if (inventoryStore != null) {
+            inventoryStore.attach(context, this);
+        }
+        return inventoryStore;
+    }
+
     /**
      * Constructs and sends empty {@link BillingResponse}.
      *
@@ -208,6 +422,9 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
      * <br>
      * SKUs available from {@link SkuDetails#getSku()} will be reverted with supplied
      * {@link SkuResolver}.
+     * <br>
+     * If {@link SkuDetailsCache} is set, successfully loaded details are cached and merged with
+     * cached part of the request.
      *
      * @param status      Status object to use in response.
      * @param skusDetails Can be null. Collection of SkuDetails objects to add in response.
@@ -215,17 +432,64 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
      */
     protected void postSkuDetailsResponse(@NonNull final Status status,
                                           @Nullable final Collection<SkuDetails> skusDetails) {
-        final SkuDetailsResponse response;
-        if (skusDetails == null) {
-            response = new SkuDetailsResponse(status, getInfo(), null);
-        } else {
-            final Collection<SkuDetails> revertedSkusDetails = new ArrayList<>(skusDetails.size());
+        postSkuDetailsResponse(status, skusDetails, getRequestId(BillingRequest.Type.SKU_DETAILS));
+    }
+
+    /**
+     * Constructs and sends {@link SkuDetailsResponse} for the request with supplied id.
+     *
+     * @param status      Status object to use in response.
+     * @param skusDetails Can be null. Collection of SkuDetails objects to add in response.
+     * @param requestId   Id of the request being answered.
+     * @see #postSkuDetailsResponse(Status, Collection)
+     */
+    protected void postSkuDetailsResponse(@NonNull final Status status,
+                                          @Nullable final Collection<SkuDetails> skusDetails,
+                                          final long requestId) {
+        Collection<SkuDetails> revertedSkusDetails = null;
+        if (skusDetails != null) {
+            final long start = BillingMetricsRecorder.start();
+            revertedSkusDetails = new ArrayList<>(skusDetails.size());
             for (final SkuDetails skuDetails : skusDetails) {
                 revertedSkusDetails.add(OPFIabUtils.revert(skuResolver, skuDetails));
             }
-            response = new SkuDetailsResponse(status, getInfo(), revertedSkusDetails);
+            BillingMetricsRecorder.record(BillingStage.REVERT, start, requestId);
         }
-        postResponse(response);
+        if (skuDetailsCache != null) {
+            final Collection<SkuDetails> cached = pollPartialHit(requestId);
+            if (status == SUCCESS && revertedSkusDetails != null) {
+                skuDetailsCache.putAll(revertedSkusDetails);
+                if (cached != null) {
+                    revertedSkusDetails.addAll(cached);
+                }
+            }
+        }
+        postResponse(new SkuDetailsResponse(status, getInfo(), revertedSkusDetails, requestId));
+    }
+
+    /**
+     * Verifies supplied purchases, in a single batch if {@link PurchaseVerifier} supports it.
+     *
+     * @param purchases Purchases to verify.
+     * @param requestId Id of the request to attribute verification time to.
+     * @return Verification results in order of {@code purchases}.
+     * @see BatchPurchaseVerifier
+     */
+    @NonNull
+    List<VerificationResult> verifyAll(@NonNull final List<Purchase> purchases,
+                                       final long requestId) {
+        final long start = BillingMetricsRecorder.start();
+        final List<VerificationResult> results;
+        if (purchaseVerifier instanceof BatchPurchaseVerifier) {
+            results = ((BatchPurchaseVerifier) purchaseVerifier).verifyAll(purchases);
+        } else {
+            results = new ArrayList<>(purchases.size());
+            for (final Purchase purchase : purchases) {
+                results.add(purchaseVerifier.verify(purchase));
+            }
+        }
+        BillingMetricsRecorder.record(BillingStage.VERIFY, start, requestId);
+        return results;
     }
 
     /**
@@ -233,6 +497,9 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
      * <br>
      * SKUs available from {@link Purchase#getSku()} will be reverted with supplied
      * {@link SkuResolver}.
+     * <br>
+     * If {@link InventoryStore} is set, successfully loaded inventory is stored and response only
+     * contains changes since stored inventory.
      *
      * @param status    Status object to use in response.
      * @param inventory Can be null. Collection of Purchase objects to add in response.
@@ -242,17 +509,53 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
     protected void postInventoryResponse(@NonNull final Status status,
                                          @Nullable final Iterable<Purchase> inventory,
                                          final boolean hasMore) {
+        postInventoryResponse(status, inventory, hasMore,
+                              getRequestId(BillingRequest.Type.INVENTORY));
+    }
+
+    /**
+     * Constructs and sends {@link InventoryResponse} for the request with supplied id.
+     *
+     * @param status    Status object to use in response.
+     * @param inventory Can be null. Collection of Purchase objects to add in response.
+     * @param hasMore   Flag indicating whether more items are available in user inventory.
+     * @param requestId Id of the request being answered.
+     * @see #postInventoryResponse(Status, Iterable, boolean)
+     */
+    protected void postInventoryResponse(@NonNull final Status status,
+                                         @Nullable final Iterable<Purchase> inventory,
+                                         final boolean hasMore,
+                                         final long requestId) {
         final InventoryResponse response;
         if (inventory == null) {
-            response = new InventoryResponse(status, getInfo(), null, hasMore);
+            response = new InventoryResponse(status, getInfo(), null, hasMore, false, null,
+                                             requestId);
         } else {
-            final Map<Purchase, VerificationResult> verifiedRevertedInventory = new HashMap<>();
+            final List<Purchase> purchases = new ArrayList<>();
             for (final Purchase purchase : inventory) {
-                final VerificationResult result = purchaseVerifier.verify(purchase);
-                final Purchase revertedPurchase = OPFIabUtils.revert(skuResolver, purchase);
-                verifiedRevertedInventory.put(revertedPurchase, result);
+                purchases.add(purchase);
+            }
+            final List<VerificationResult> results = verifyAll(purchases, requestId);
+            final long start = BillingMetricsRecorder.start();
+            final Map<Purchase, VerificationResult> verifiedRevertedInventory = new HashMap<>();
+            for (int i = 0; i < purchases.size(); i++) {
+                final Purchase revertedPurchase = OPFIabUtils.revert(skuResolver, purchases.get(i));
+                verifiedRevertedInventory.put(revertedPurchase, results.get(i));
+            }
+            BillingMetricsRecorder.record(BillingStage.REVERT, start, requestId);
+            final InventoryStore store = status == SUCCESS ? getInventoryStore() : null;
+            if (store != null) {
+                final Collection<Purchase> removed = new ArrayList<>();
+                final Map<Purchase, VerificationResult> delta =
+                        store.sync(verifiedRevertedInventory, hasMore, removed);
+                OPFLog.d("Inventory delta. Changed: %d, removed: %d.", delta.size(),
+                         removed.size());
+                response = new InventoryResponse(status, getInfo(), delta, hasMore, false,
+                                                 removed, requestId);
+            } else {
+                response = new InventoryResponse(status, getInfo(), verifiedRevertedInventory,
+                                                 hasMore, false, null, requestId);
             }
-            response = new InventoryResponse(status, getInfo(), verifiedRevertedInventory, hasMore);
         }
         postResponse(response);
     }
@@ -269,13 +572,36 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
      */
     protected void postPurchaseResponse(@NonNull final Status status,
                                         @Nullable final Purchase purchase) {
+        postPurchaseResponse(status, purchase, getRequestId(BillingRequest.Type.PURCHASE));
+    }
+
+    /**
+     * Constructs and sends {@link PurchaseResponse} for the request with supplied id.
+     *
+     * @param status    Status object to use in response.
+     * @param purchase  Can be null. Purchase object to add in response.
+     * @param requestId Id of the request being answered.
+     * @see #postPurchaseResponse(Status, Purchase)
+     */
+    protected void postPurchaseResponse(@NonNull final Status status,
+                                        @Nullable final Purchase purchase,
+                                        final long requestId) {
         final PurchaseResponse response;
         if (purchase == null) {
-            response = new PurchaseResponse(status, getInfo(), null, null);
+            response = new PurchaseResponse(status, getInfo(), null, null, requestId);
         } else {
+            long start = BillingMetricsRecorder.start();
             final VerificationResult result = purchaseVerifier.verify(purchase);
+            BillingMetricsRecorder.record(BillingStage.VERIFY, start, requestId);
+            start = BillingMetricsRecorder.start();
             final Purchase revertedPurchase = OPFIabUtils.revert(skuResolver, purchase);
-            response = new PurchaseResponse(status, getInfo(), revertedPurchase, result);
+            BillingMetricsRecorder.record(BillingStage.REVERT, start, requestId);
+            response = new PurchaseResponse(status, getInfo(), revertedPurchase, result,
+                                            requestId);
+            final InventoryStore store = status == SUCCESS ? getInventoryStore() : null;
+            if (store != null) {
+                store.put(revertedPurchase, result);
+            }
         }
         postResponse(response);
     }
@@ -291,20 +617,119 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
      */
     protected void postConsumeResponse(@NonNull final Status status,
                                        @NonNull final Purchase purchase) {
+        postConsumeResponse(status, purchase, getRequestId(BillingRequest.Type.CONSUME));
+    }
+
+    /**
+     * Constructs and sends {@link ConsumeResponse} for the request with supplied id.
+     *
+     * @param status    Status object to use in response.
+     * @param purchase  Can't be null. Purchase object to add in response.
+     * @param requestId Id of the request being answered.
+     * @see #postConsumeResponse(Status, Purchase)
+     */
+    protected void postConsumeResponse(@NonNull final Status status,
+                                       @NonNull final Purchase purchase,
+                                       final long requestId) {
         final Purchase revertedPurchase = OPFIabUtils.revert(skuResolver, purchase);
-        postResponse(new ConsumeResponse(status, getInfo(), revertedPurchase));
+        final InventoryStore store = status == SUCCESS ? getInventoryStore() : null;
+        if (store != null) {
+            store.remove(revertedPurchase);
+        }
+        postResponse(new ConsumeResponse(status, getInfo(), revertedPurchase, requestId));
     }
 
-    @Override
-    public void onEventAsync(@NonNull final BillingRequest billingRequest) {
-        if (!isAvailable()) {
-            postEmptyResponse(billingRequest, BILLING_UNAVAILABLE);
-        } else {
-            handleRequest(billingRequest);
+    /**
+     * Checks availability of this provider using {@link ProviderStateCache}, if it's set.
+     *
+     * @return True if this provider is available, false otherwise.
+     * @see #isAvailable()
+     */
+    protected boolean checkAvailable() {
+        if (providerStateCache == null) {
+            return isAvailable();
+        }
+        final Boolean cached = providerStateCache.getAvailable();
+        if (cached != null) {
+            return cached;
+        }
+        final boolean available = isAvailable();
+        providerStateCache.putAvailable(available);
+        return available;
+    }
+
+    /**
+     * Checks authorization of this provider using {@link ProviderStateCache}, if it's set.
+     *
+     * @return True if this provider is authorized, false otherwise.
+     * @see #isAuthorised()
+     */
+    protected boolean checkAuthorised() {
+        if (providerStateCache == null) {
+            return isAuthorised();
+        }
+        final Boolean cached = providerStateCache.getAuthorised();
+        if (cached != null) {
+            return cached;
+        }
+        final boolean authorised = isAuthorised();
+        providerStateCache.putAuthorised(authorised);
+        return authorised;
+    }
+
+    /**
+     * Executes supplied task after all previously serialized tasks of this provider.
+     * <br>
+     * Used to handle requests one at a time, even if library delivers them on several threads.
+     * Never blocks: if another thread is executing tasks of this provider, supplied task is left
+     * to it and this call returns right away. Otherwise task is executed on the calling thread.
+     *
+     * @param task Task to execute.
+     */
+    protected final void serialize(@NonNull final Runnable task) {
+        lane.add(task);
+        // Task might be added right after busy thread has checked the lane for the last time
+        while (!lane.isEmpty() && laneBusy.compareAndSet(false, true)) {
+            try {
+                Runnable next;
+                while ((next = lane.poll()) != null) {
+                    next.run();
+                }
+            } finally {
+                laneBusy.set(false);
+            }
+        }
+    }
+
+    /**
+     * Handles supplied request, must be called from {@link #serialize(Runnable)} task.
+     *
+     * @param billingRequest Request to handle.
+     */
+    void handleSerialized(@NonNull final BillingRequest billingRequest) {
+        BillingMetricsRecorder.onHandling(billingRequest);
+        try {
+            if (!checkAvailable()) {
+                postEmptyResponse(billingRequest, BILLING_UNAVAILABLE);
+            } else {
+                handleRequest(billingRequest);
+            }
+        } finally {
+            BillingMetricsRecorder.onHandled();
         }
         OPFIab.post(new RequestHandledEvent(billingRequest));
     }
 
+    @Override
+    public void onEventAsync(@NonNull final BillingRequest billingRequest) {
+        serialize(new Runnable() {
+            @Override
+            public void run() {
+                handleSerialized(billingRequest);
+            }
+        });
+    }
+
     @Override
     public boolean isAvailable() {
         final String packageName = getInfo().getPackageName();
@@ -312,7 +737,7 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
             throw new UnsupportedOperationException(
                     "You must override this method for packageless Billing Providers.");
         }
-        return OPFUtils.isInstalled(context, packageName);
+        return PackageIndex.getInstance(context).isInstalled(packageName);
     }
 
     @Override
@@ -375,6 +800,12 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
         protected R skuResolver;
         @NonNull
         protected V purchaseVerifier;
+        @Nullable
+        protected SkuDetailsCache skuDetailsCache;
+        @Nullable
+        protected InventoryStore inventoryStore;
+        @Nullable
+        protected ProviderStateCache providerStateCache;
 
         protected Builder(@NonNull final Context context,
                           @NonNull final R skuResolver,
@@ -406,6 +837,47 @@ public abstract class BaseBillingProvider<R extends SkuResolver, V extends Purch
             return this;
         }
 
+        /**
+         * Sets {@link SkuDetailsCache} to use with this BillingProvider.
+         * <br>
+         * By default SKU details are not cached.
+         *
+         * @param skuDetailsCache SkuDetailsCache to use with this BillingProvider, can be null.
+         * @return this object.
+         */
+        protected Builder setSkuDetailsCache(@Nullable final SkuDetailsCache skuDetailsCache) {
+            this.skuDetailsCache = skuDetailsCache;
+            return this;
+        }
+
+        /**
+         * Sets {@link InventoryStore} to use with this BillingProvider.
+         * <br>
+         * By default inventory is not stored.
+         *
+         * @param inventoryStore InventoryStore to use with this BillingProvider, can be null.
+         * @return this object.
+         */
+        protected Builder setInventoryStore(@Nullable final InventoryStore inventoryStore) {
+            this.inventoryStore = inventoryStore;
+            return this;
+        }
+
+        /**
+         * Sets {@link ProviderStateCache} to use with this BillingProvider.
+         * <br>
+         * By default availability and authorization are checked before every request.
+         *
+         * @param providerStateCache ProviderStateCache to use with this BillingProvider, can be
+         *                           null.
+         * @return this object.
+         */
+        protected Builder setProviderStateCache(
+                @Nullable final ProviderStateCache providerStateCache) {
+            this.providerStateCache = providerStateCache;
+            return this;
+        }
+
         /**
          * Constructs a new {@link BillingProvider} object.
          *
@@ -0,0 +1,473 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.billing;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.onepf.opfiab.model.billing.Purchase;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.InventoryResponse;
+import org.onepf.opfiab.verification.PurchaseVerifier;
+import org.onepf.opfiab.verification.VerificationResult;
+import org.onepf.opfutils.OPFLog;
+import org.onepf.opfutils.OPFPreferences;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Persistent store of user inventory loaded by a single {@link BaseBillingProvider}.
+ * <br>
+ * Stored purchases are sent right away as cached {@link InventoryResponse}, while billing provider
+ * is synchronized in background. Subsequent responses only contain changes since stored inventory.
+ * <br>
+ * Inventory is stored separately for each user reported by
+ * {@link BaseBillingProvider#getUserId()}. Verification results are never persisted, stored
+ * purchases are verified again with {@link PurchaseVerifier} once they are loaded.
+ *
+ * @see BaseBillingProvider.Builder#setInventoryStore(InventoryStore)
+ * @see InventoryResponse#isCached()
+ * @see InventoryResponse#isDelta()
+ */
+public final class InventoryStore {
+
+    private static final String NAME_PURCHASE = "purchase";
+    private static final String NAME_SIGNATURE = "signature";
+    private static final String KEY_PREFIX_ENTRY = InventoryStore.class.getName() + ".entry.";
+    /**
+     * Indicates that inventory was synchronized at least once, even if it turned out to be empty.
+     */
+    private static final String KEY_LOADED = InventoryStore.class.getName() + ".loaded";
+    /**
+     * Whole inventory stored under a single key by previous versions.
+     */
+    private static final String KEY_LEGACY_ENTRIES = InventoryStore.class.getName() + ".entries";
+    private static final String PREFERENCES_POSTFIX = "inventory_store.";
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+    /**
+     * Number of bytes of user id digest used in preferences name.
+     */
+    private static final int USER_DIGEST_BYTES = 8;
+
+
+    /**
+     * Stored purchases mapped by their identity.
+     *
+     * @see #key(Purchase)
+     */
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    /**
+     * Purchases received since last synchronization from the start.
+     */
+    private final Set<String> syncedKeys = new HashSet<>();
+
+    @Nullable
+    private OPFPreferences preferences;
+    /**
+     * Billing provider owning this store, used to restore and verify its own purchase models.
+     */
+    @Nullable
+    private BaseBillingProvider<?, ?> provider;
+    /**
+     * Id of the user whose inventory is currently loaded.
+     */
+    @Nullable
+    private String userId;
+    /**
+     * Indicates that store content was either loaded from disk or received from billing provider.
+     */
+    private boolean loaded;
+    private boolean syncing;
+
+    @NonNull
+    private static String key(@NonNull final Purchase purchase) {
+        final String token = purchase.getToken();
+        return TextUtils.isEmpty(token) ? purchase.getSku() : token;
+    }
+
+    /**
+     * Builds name of preferences holding inventory of supplied user.
+     * <br>
+     * User id is hashed, so that account names don't end up in file names.
+     */
+    @SuppressFBWarnings({"DM_DEFAULT_ENCODING", "MDM_STRING_BYTES_ENCODING"})
+    @NonNull
+    private static String preferencesName(@NonNull final String providerName,
+                                          @Nullable final String userId) {
+        if (userId == null) {
+            return PREFERENCES_POSTFIX + providerName;
+        }
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST_ALGORITHM).digest(userId.getBytes());
+        } catch (NoSuchAlgorithmException exception) {
+            throw new IllegalStateException("Can't create MessageDigest.", exception);
+        }
+        final StringBuilder builder = new StringBuilder(PREFERENCES_POSTFIX)
+                .append(providerName)
+                .append('.');
+        for (int i = 0; i < USER_DIGEST_BYTES; i++) {
+            builder.append(Character.forDigit((digest[i] >> 4) & 0xF, 16))
+                    .append(Character.forDigit(digest[i] & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    private void load(@NonNull final OPFPreferences preferences) {
+        if (preferences.contains(KEY_LEGACY_ENTRIES)) {
+            // Legacy format persisted verification results, which can't be trusted
+            preferences.remove(KEY_LEGACY_ENTRIES);
+        }
+        if (!preferences.getBoolean(KEY_LOADED, false)) {
+            return;
+        }
+        final List<String> malformed = new ArrayList<>();
+        for (final Map.Entry<String, ?> pref : preferences.getPreferences().getAll().entrySet()) {
+            final String prefKey = pref.getKey();
+            if (!prefKey.startsWith(KEY_PREFIX_ENTRY) || !(pref.getValue() instanceof String)) {
+                continue;
+            }
+            try {
+                final JSONObject jsonObject = new JSONObject((String) pref.getValue());
+                final String signature = jsonObject.isNull(NAME_SIGNATURE)
+                        ? null : jsonObject.getString(NAME_SIGNATURE);
+                final Purchase storedPurchase = Purchase.fromJson(
+                        jsonObject.getString(NAME_PURCHASE));
+                if (storedPurchase == null) {
+                    malformed.add(prefKey);
+                    continue;
+                }
+                final Purchase purchase = provider == null
+                        ? storedPurchase
+                        : provider.restorePurchase(storedPurchase, signature);
+                // Verification result is unknown until purchase is verified again
+                entries.put(key(purchase), new Entry(purchase, null, signature));
+            } catch (JSONException exception) {
+                OPFLog.e("Failed to load stored purchase.", exception);
+                malformed.add(prefKey);
+            }
+        }
+        if (!malformed.isEmpty()) {
+            preferences.remove(malformed.toArray(new String[malformed.size()]));
+        }
+        loaded = true;
+    }
+
+    /**
+     * Persists supplied changes only, instead of rewriting the whole inventory.
+     *
+     * @param changedKeys Keys of the entries which were added, changed or removed.
+     */
+    private void save(@NonNull final Collection<String> changedKeys) {
+        if (preferences == null) {
+            return;
+        }
+        final SharedPreferences.Editor editor = preferences.edit();
+        editor.putBoolean(KEY_LOADED, true);
+        for (final String key : changedKeys) {
+            final Entry entry = entries.get(key);
+            if (entry == null) {
+                editor.remove(KEY_PREFIX_ENTRY + key);
+                continue;
+            }
+            final JSONObject jsonObject = new JSONObject();
+            try {
+                jsonObject.put(NAME_PURCHASE, entry.json);
+                if (entry.signature != null) {
+                    jsonObject.put(NAME_SIGNATURE, entry.signature);
+                }
+            } catch (JSONException exception) {
+                OPFLog.e("Failed to save purchase.", exception);
+                continue;
+            }
+            editor.putString(KEY_PREFIX_ENTRY + key, jsonObject.toString());
+        }
+        editor.apply();
+    }
+
+    /**
+     * Creates new store entry, keeping purchase signature provided by {@link #provider}.
+     */
+    @NonNull
+    private Entry newEntry(@NonNull final Purchase purchase,
+                           @NonNull final VerificationResult verificationResult) {
+        final String signature = provider == null ? null : provider.getSignature(purchase);
+        return new Entry(purchase, verificationResult, signature);
+    }
+
+    /**
+     * Binds this store to billing provider which uses it and loads stored inventory of the current
+     * user.
+     * <br>
+     * Stored purchases are restored with
+     * {@link BaseBillingProvider#restorePurchase(Purchase, String)}. If user has changed since
+     * previous call, inventory of the new user is loaded instead.
+     *
+     * @param context  Context object to use for persistence.
+     * @param provider BillingProvider owning this store.
+     */
+    synchronized void attach(@NonNull final Context context,
+                             @NonNull final BaseBillingProvider<?, ?> provider) {
+        final String userId = provider.getUserId();
+        // Keep current inventory if user is temporarily unknown
+        if (preferences != null && (userId == null || userId.equals(this.userId))) {
+            return;
+        }
+        if (preferences != null) {
+            OPFLog.d("User has changed, switching stored inventory.");
+        }
+        entries.clear();
+        syncedKeys.clear();
+        loaded = false;
+        syncing = false;
+        this.provider = provider;
+        this.userId = userId;
+        final String name = preferencesName(provider.getInfo().getName(), userId);
+        preferences = new OPFPreferences(context, name);
+        load(preferences);
+    }
+
+    /**
+     * Gets stored inventory.
+     * <br>
+     * Purchases loaded from disk are verified with
+     * {@link BaseBillingProvider#verifyAll(List, long)} before they are returned for the first time.
+     *
+     * @return Stored purchases mapped to their verification results, null if nothing was stored
+     * yet.
+     */
+    @Nullable
+    synchronized Map<Purchase, VerificationResult> getInventory() {
+        if (!loaded) {
+            return null;
+        }
+        final List<Entry> unverified = new ArrayList<>();
+        for (final Entry entry : entries.values()) {
+            if (entry.verificationResult == null) {
+                unverified.add(entry);
+            }
+        }
+        if (!unverified.isEmpty() && provider != null) {
+            final List<Purchase> purchases = new ArrayList<>(unverified.size());
+            for (final Entry entry : unverified) {
+                purchases.add(entry.purchase);
+            }
+            final long requestId = provider.getRequestId(BillingRequest.Type.INVENTORY);
+            final List<VerificationResult> results = provider.verifyAll(purchases, requestId);
+            for (int i = 0; i < unverified.size(); i++) {
+                final Entry entry = unverified.get(i);
+                entries.put(key(entry.purchase),
+                            new Entry(entry.purchase, results.get(i), entry.signature));
+            }
+        }
+        final Map<Purchase, VerificationResult> inventory = new HashMap<>(entries.size());
+        for (final Entry entry : entries.values()) {
+            if (entry.verificationResult != null) {
+                inventory.put(entry.purchase, entry.verificationResult);
+            }
+        }
+        return inventory;
+    }
+
+    /**
+     * Marks start of synchronization of the whole inventory.
+     * <br>
+     * Stored purchases missing from subsequently received inventory will be removed once
+     * synchronization is finished.
+     */
+    synchronized void startSync() {
+        syncing = true;
+        syncedKeys.clear();
+    }
+
+    /**
+     * Merges inventory received from billing provider into this store.
+     * <br>
+     * Only new, changed and removed purchases are written to disk.
+     *
+     * @param inventory Reverted purchases mapped to their verification results.
+     * @param hasMore   Flag indicating whether more items are available in user inventory.
+     * @param removed   Collection to add purchases which are no longer owned by user to.
+     * @return New and changed purchases.
+     */
+    @NonNull
+    synchronized Map<Purchase, VerificationResult> sync(
+            @NonNull final Map<Purchase, VerificationResult> inventory,
+            final boolean hasMore,
+            @NonNull final Collection<Purchase> removed) {
+        final Map<Purchase, VerificationResult> delta = new HashMap<>();
+        final Collection<String> changedKeys = new ArrayList<>();
+        for (final Map.Entry<Purchase, VerificationResult> mapEntry : inventory.entrySet()) {
+            final Entry entry = newEntry(mapEntry.getKey(), mapEntry.getValue());
+            final String key = key(entry.purchase);
+            syncedKeys.add(key);
+            final Entry oldEntry = entries.put(key, entry);
+            if (!entry.equals(oldEntry)) {
+                delta.put(entry.purchase, entry.verificationResult);
+                if (oldEntry == null || !entry.isPersistedAs(oldEntry)) {
+                    changedKeys.add(key);
+                }
+            }
+        }
+        if (syncing && !hasMore) {
+            final Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<String, Entry> mapEntry = iterator.next();
+                if (!syncedKeys.contains(mapEntry.getKey())) {
+                    removed.add(mapEntry.getValue().purchase);
+                    changedKeys.add(mapEntry.getKey());
+                    iterator.remove();
+                }
+            }
+            syncing = false;
+            syncedKeys.clear();
+        }
+        if (!loaded || !changedKeys.isEmpty()) {
+            save(changedKeys);
+        }
+        loaded = true;
+        return delta;
+    }
+
+    /**
+     * Stores newly made purchase.
+     *
+     * @param purchase           Reverted purchase.
+     * @param verificationResult Verification result of the purchase.
+     */
+    synchronized void put(@NonNull final Purchase purchase,
+                          @NonNull final VerificationResult verificationResult) {
+        final String key = key(purchase);
+        entries.put(key, newEntry(purchase, verificationResult));
+        save(Collections.singleton(key));
+    }
+
+    /**
+     * Removes consumed purchase from this store.
+     *
+     * @param purchase Reverted purchase.
+     */
+    synchronized void remove(@NonNull final Purchase purchase) {
+        final String key = key(purchase);
+        if (entries.remove(key) != null) {
+            save(Collections.singleton(key));
+        }
+    }
+
+    /**
+     * Removes all stored purchases of the current user, including persisted ones.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        syncedKeys.clear();
+        loaded = false;
+        syncing = false;
+        if (preferences != null) {
+            preferences.clear();
+        }
+    }
+
+    /**
+     * Gets number of purchases currently stored.
+     *
+     * @return Store size.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+
+        @NonNull
+        private final Purchase purchase;
+        /**
+         * Verification result, null if purchase was loaded from disk and isn't verified yet.
+         */
+        @Nullable
+        private final VerificationResult verificationResult;
+        /**
+         * Serialized purchase, used for persistence and to detect changed purchases.
+         */
+        @NonNull
+        private final String json;
+        /**
+         * Provider specific signature which isn't a part of {@link Purchase#toJson()}.
+         */
+        @Nullable
+        private final String signature;
+
+        Entry(@NonNull final Purchase purchase,
+              @Nullable final VerificationResult verificationResult,
+              @Nullable final String signature) {
+            this.purchase = purchase;
+            this.verificationResult = verificationResult;
+            this.json = purchase.toJson().toString();
+            this.signature = signature;
+        }
+
+        /**
+         * Checks whether this entry has the same persisted form as supplied one.
+         */
+        boolean isPersistedAs(@NonNull final Entry entry) {
+            return json.equals(entry.json) && TextUtils.equals(signature, entry.signature);
+        }
+
+        //CHECKSTYLE:OFF
+        @SuppressWarnings({"PMD", "RedundantIfStatement"})
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Entry)) return false;
+
+            final Entry entry = (Entry) o;
+
+            if (verificationResult != entry.verificationResult) return false;
+            if (!json.equals(entry.json)) return false;
+            if (signature != null ? !signature.equals(entry.signature) : entry.signature != null)
+                return false;
+
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = verificationResult != null ? verificationResult.hashCode() : 0;
+            result = 31 * result + json.hashCode();
+            result = 31 * result + (signature != null ? signature.hashCode() : 0);
+            return result;
+        }
+        //CHECKSTYLE:ON
+    }
+}
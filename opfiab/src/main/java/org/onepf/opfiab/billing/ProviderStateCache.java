@@ -0,0 +1,219 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.billing;
+
+import android.accounts.AccountManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.SystemClock;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.model.event.billing.Status;
+import org.onepf.opfutils.OPFLog;
+
+/**
+ * Cache of availability and authorization state of a single {@link BaseBillingProvider}.
+ * <br>
+ * Cached state is considered fresh for a configured time and is dropped when billing request fails
+ * with {@link Status#BILLING_UNAVAILABLE} or {@link Status#UNAUTHORISED}, when installed packages
+ * change or when accounts on device change.
+ *
+ * @see BaseBillingProvider.Builder#setProviderStateCache(ProviderStateCache)
+ */
+public final class ProviderStateCache extends BroadcastReceiver {
+
+    /**
+     * Default time during which availability is considered fresh, 5 minutes.
+     */
+    public static final long DEFAULT_AVAILABILITY_TIME_TO_LIVE = 5L * 60L * 1000L;
+    /**
+     * Default time during which authorization is considered fresh, 5 minutes.
+     */
+    public static final long DEFAULT_AUTHORISATION_TIME_TO_LIVE = 5L * 60L * 1000L;
+
+
+    private final long availabilityTimeToLive;
+    private final long authorisationTimeToLive;
+    @Nullable
+    private State availability;
+    @Nullable
+    private State authorisation;
+    private boolean attached;
+
+    ProviderStateCache(final long availabilityTimeToLive, final long authorisationTimeToLive) {
+        super();
+        this.availabilityTimeToLive = availabilityTimeToLive;
+        this.authorisationTimeToLive = authorisationTimeToLive;
+    }
+
+    @Nullable
+    private static Boolean get(@Nullable final State state, final long timeToLive) {
+        if (state == null) {
+            return null;
+        }
+        final long age = SystemClock.elapsedRealtime() - state.time;
+        return age < timeToLive ? state.value : null;
+    }
+
+    /**
+     * Starts listening for events which invalidate cached state.
+     *
+     * @param context Context to register broadcast receivers with.
+     */
+    synchronized void attach(@NonNull final Context context) {
+        if (attached) {
+            return;
+        }
+        attached = true;
+        final Context appContext = context.getApplicationContext();
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addDataScheme("package");
+        appContext.registerReceiver(this, packageFilter);
+        appContext.registerReceiver(this,
+                                    new IntentFilter(AccountManager.LOGIN_ACCOUNTS_CHANGED_ACTION));
+    }
+
+    /**
+     * Gets cached availability.
+     *
+     * @return Availability if it's cached and fresh, null otherwise.
+     */
+    @Nullable
+    synchronized Boolean getAvailable() {
+        return get(availability, availabilityTimeToLive);
+    }
+
+    synchronized void putAvailable(final boolean available) {
+        availability = new State(available);
+    }
+
+    /**
+     * Gets cached authorization.
+     *
+     * @return Authorization if it's cached and fresh, null otherwise.
+     */
+    @Nullable
+    synchronized Boolean getAuthorised() {
+        return get(authorisation, authorisationTimeToLive);
+    }
+
+    synchronized void putAuthorised(final boolean authorised) {
+        authorisation = new State(authorised);
+    }
+
+    /**
+     * Drops cached state affected by the supplied request status.
+     *
+     * @param status Status of handled billing request.
+     */
+    synchronized void onStatus(@NonNull final Status status) {
+        if (status == Status.BILLING_UNAVAILABLE) {
+            availability = null;
+        } else if (status == Status.UNAUTHORISED) {
+            authorisation = null;
+        }
+    }
+
+    /**
+     * Drops all cached state.
+     */
+    public synchronized void clear() {
+        availability = null;
+        authorisation = null;
+    }
+
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        OPFLog.d("Provider state invalidated: %s", intent.getAction());
+        if (AccountManager.LOGIN_ACCOUNTS_CHANGED_ACTION.equals(intent.getAction())) {
+            synchronized (this) {
+                authorisation = null;
+            }
+        } else {
+            clear();
+        }
+    }
+
+    private static final class State {
+
+        private final boolean value;
+        private final long time = SystemClock.elapsedRealtime();
+
+        State(final boolean value) {
+            this.value = value;
+        }
+    }
+
+    /**
+     * Builder class for {@link ProviderStateCache}.
+     */
+    public static class Builder {
+
+        private long availabilityTimeToLive = DEFAULT_AVAILABILITY_TIME_TO_LIVE;
+        private long authorisationTimeToLive = DEFAULT_AUTHORISATION_TIME_TO_LIVE;
+
+        /**
+         * Sets time during which cached availability is considered fresh.
+         * <br>
+         * Default value is {@link #DEFAULT_AVAILABILITY_TIME_TO_LIVE}.
+         *
+         * @param availabilityTimeToLive Time to live in milliseconds.
+         * @return this object.
+         * @see BillingProvider#isAvailable()
+         */
+        public Builder setAvailabilityTimeToLive(final long availabilityTimeToLive) {
+            if (availabilityTimeToLive <= 0L) {
+                throw new IllegalArgumentException("Time to live must be positive.");
+            }
+            this.availabilityTimeToLive = availabilityTimeToLive;
+            return this;
+        }
+
+        /**
+         * Sets time during which cached authorization is considered fresh.
+         * <br>
+         * Default value is {@link #DEFAULT_AUTHORISATION_TIME_TO_LIVE}.
+         *
+         * @param authorisationTimeToLive Time to live in milliseconds.
+         * @return this object.
+         * @see BillingProvider#isAuthorised()
+         */
+        public Builder setAuthorisationTimeToLive(final long authorisationTimeToLive) {
+            if (authorisationTimeToLive <= 0L) {
+                throw new IllegalArgumentException("Time to live must be positive.");
+            }
+            this.authorisationTimeToLive = authorisationTimeToLive;
+            return this;
+        }
+
+        /**
+         * Constructs a new {@link ProviderStateCache} object.
+         *
+         * @return new ProviderStateCache.
+         */
+        public ProviderStateCache build() {
+            return new ProviderStateCache(availabilityTimeToLive, authorisationTimeToLive);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.billing;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.os.IBinder;
+import android.support.annotation.NonNull;
+
+import java.util.Collection;
+
+/**
+ * Interface intended to bind {@link AidlBillingHelper} to its service.
+ * <br>
+ * Can be replaced to connect helper to a local service implementation, e.g. in benchmarks.
+ */
+public interface ServiceBinder {
+
+    /**
+     * Default implementation of {@link ServiceBinder}.
+     * <br>
+     * Binds to a service resolved by the system from supplied intent.
+     */
+    @NonNull
+    ServiceBinder DEFAULT = new ServiceBinder() {
+        @Override
+        public boolean bind(@NonNull final Context context,
+                            @NonNull final Intent serviceIntent,
+                            @NonNull final ServiceConnection connection) {
+            final PackageManager packageManager = context.getPackageManager();
+            final Collection<ResolveInfo> infos =
+                    packageManager.queryIntentServices(serviceIntent, 0);
+            return infos != null && !infos.isEmpty()
+                    && context.bindService(serviceIntent, connection, Context.BIND_AUTO_CREATE);
+        }
+
+        @Override
+        public void unbind(@NonNull final Context context,
+                           @NonNull final ServiceConnection connection) {
+            context.unbindService(connection);
+        }
+    };
+
+
+    /**
+     * Starts connecting to service.
+     * <br>
+     * Once connected {@link ServiceConnection#onServiceConnected(android.content.ComponentName,
+     * IBinder)} must be called, possibly from within this method.
+     *
+     * @param context       Context object.
+     * @param serviceIntent Intent identifying the service.
+     * @param connection    Connection to notify about the service state.
+     * @return True if connection has started, false otherwise.
+     */
+    boolean bind(@NonNull final Context context,
+                 @NonNull final Intent serviceIntent,
+                 @NonNull final ServiceConnection connection);
+
+    /**
+     * Disconnects from service bound with {@link #bind(Context, Intent, ServiceConnection)}.
+     *
+     * @param context    Context object.
+     * @param connection Connection used to bind to service.
+     */
+    void unbind(@NonNull final Context context, @NonNull final ServiceConnection connection);
+}
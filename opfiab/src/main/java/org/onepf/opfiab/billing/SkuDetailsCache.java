@@ -0,0 +1,328 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.billing;
+
+import android.content.Context;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.onepf.opfiab.model.BillingProviderInfo;
+import org.onepf.opfiab.model.billing.SkuDetails;
+import org.onepf.opfutils.OPFLog;
+import org.onepf.opfutils.OPFPreferences;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of {@link SkuDetails} loaded by a single {@link BaseBillingProvider}.
+ * <br>
+ * Entries are stored by reverted SKU and considered fresh for a configured time to live. Cache size is
+ * bounded, least recently used entries are evicted first.
+ * <br>
+ * If persistence is enabled, cache content survives process restart.
+ *
+ * @see BaseBillingProvider.Builder#setSkuDetailsCache(SkuDetailsCache)
+ */
+public final class SkuDetailsCache {
+
+    private static final String NAME_TIME = "time";
+    private static final String NAME_SKU_DETAILS = "sku_details";
+    private static final String KEY_ENTRIES = SkuDetailsCache.class.getName() + ".entries";
+    private static final String PREFERENCES_POSTFIX = "sku_details_cache.";
+
+    /**
+     * Default time to live for cached entries, 1 hour.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = 60L * 60L * 1000L;
+    /**
+     * Default maximum number of cached entries.
+     */
+    public static final int DEFAULT_MAX_SIZE = 200;
+
+
+    private final long timeToLive;
+    private final int maxSize;
+    private final boolean persistent;
+    @SuppressWarnings("serial")
+    private final Map<String, CachedSkuDetails> entries = new LinkedHashMap<String, CachedSkuDetails>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, CachedSkuDetails> eldest) {
+            return size() > maxSize;
+        }
+    };
+
+    @Nullable
+    private OPFPreferences preferences;
+    private long hitCount;
+    private long missCount;
+
+    SkuDetailsCache(final long timeToLive, final int maxSize, final boolean persistent) {
+        this.timeToLive = timeToLive;
+        this.maxSize = maxSize;
+        this.persistent = persistent;
+    }
+
+    private boolean isFresh(@NonNull final CachedSkuDetails entry, final long now) {
+        return entry.time <= now && now - entry.time < timeToLive;
+    }
+
+    private void load(@NonNull final OPFPreferences preferences) {
+        final String json = preferences.getString(KEY_ENTRIES);
+        if (TextUtils.isEmpty(json)) {
+            return;
+        }
+        try {
+            final JSONArray jsonArray = new JSONArray(json);
+            final long now = System.currentTimeMillis();
+            for (int i = 0; i < jsonArray.length(); i++) {
+                final JSONObject jsonObject = jsonArray.getJSONObject(i);
+                final long time = jsonObject.getLong(NAME_TIME);
+                final String skuDetailsJson = jsonObject.getString(NAME_SKU_DETAILS);
+                final SkuDetails skuDetails = SkuDetails.fromJson(skuDetailsJson);
+                if (skuDetails == null) {
+                    continue;
+                }
+                final CachedSkuDetails entry = new CachedSkuDetails(skuDetails, time);
+                if (isFresh(entry, now)) {
+                    entries.put(skuDetails.getSku(), entry);
+                }
+            }
+        } catch (JSONException exception) {
+            OPFLog.e("Failed to load cached SKU details.", exception);
+            preferences.remove(KEY_ENTRIES);
+        }
+    }
+
+    private void save() {
+        if (preferences == null) {
+            return;
+        }
+        final JSONArray jsonArray = new JSONArray();
+        try {
+            for (final CachedSkuDetails entry : entries.values()) {
+                final JSONObject jsonObject = new JSONObject();
+                jsonObject.put(NAME_TIME, entry.time);
+                jsonObject.put(NAME_SKU_DETAILS, entry.skuDetails.toJson().toString());
+                jsonArray.put(jsonObject);
+            }
+        } catch (JSONException exception) {
+            OPFLog.e("Failed to save cached SKU details.", exception);
+            return;
+        }
+        preferences.put(KEY_ENTRIES, jsonArray.toString());
+    }
+
+    /**
+     * Binds this cache to billing provider which uses it.
+     * <br>
+     * Loads persisted entries if persistence is enabled.
+     *
+     * @param context      Context object to use for persistence.
+     * @param providerInfo Info of BillingProvider owning this cache.
+     */
+    synchronized void attach(@NonNull final Context context,
+                             @NonNull final BillingProviderInfo providerInfo) {
+        if (!persistent || preferences != null) {
+            return;
+        }
+        preferences = new OPFPreferences(context, PREFERENCES_POSTFIX + providerInfo.getName());
+        load(preferences);
+    }
+
+    /**
+     * Looks up fresh cached details for supplied SKUs.
+     *
+     * @param skus    Reverted SKUs to look up.
+     * @param hits    Collection to add found SkuDetails objects to.
+     * @param missing Collection to add SKUs without fresh details to.
+     */
+    synchronized void get(@NonNull final Iterable<String> skus,
+                          @NonNull final Collection<SkuDetails> hits,
+                          @NonNull final Set<String> missing) {
+        final long now = System.currentTimeMillis();
+        for (final String sku : skus) {
+            final CachedSkuDetails entry = entries.get(sku);
+            if (entry != null && isFresh(entry, now)) {
+                hits.add(entry.skuDetails);
+                hitCount++;
+            } else {
+                if (entry != null) {
+                    entries.remove(sku);
+                }
+                missing.add(sku);
+                missCount++;
+            }
+        }
+    }
+
+    /**
+     * Stores freshly loaded details.
+     * <br>
+     * Empty SkuDetails objects are not cached, since unrecognized SKUs might become available later.
+     *
+     * @param skusDetails Reverted SkuDetails objects to store.
+     * @see SkuDetails#isEmpty()
+     */
+    synchronized void putAll(@NonNull final Iterable<SkuDetails> skusDetails) {
+        final long now = System.currentTimeMillis();
+        boolean changed = false;
+        for (final SkuDetails skuDetails : skusDetails) {
+            if (!skuDetails.isEmpty()) {
+                entries.put(skuDetails.getSku(), new CachedSkuDetails(skuDetails, now));
+                changed = true;
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    /**
+     * Removes all expired entries from this cache.
+     */
+    public synchronized void trim() {
+        final long now = System.currentTimeMillis();
+        final Iterator<CachedSkuDetails> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            if (!isFresh(iterator.next(), now)) {
+                iterator.remove();
+            }
+        }
+        save();
+    }
+
+    /**
+     * Removes all entries from this cache, including persisted ones.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        if (preferences != null) {
+            preferences.remove(KEY_ENTRIES);
+        }
+    }
+
+    /**
+     * Gets number of SKUs which had fresh details in this cache when requested.
+     *
+     * @return Number of cache hits.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Gets number of SKUs which had to be loaded from billing provider.
+     *
+     * @return Number of cache misses.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Gets number of entries currently stored in this cache.
+     *
+     * @return Cache size, including entries which might be expired.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class CachedSkuDetails {
+
+        @NonNull
+        private final SkuDetails skuDetails;
+        private final long time;
+
+        CachedSkuDetails(@NonNull final SkuDetails skuDetails, final long time) {
+            this.skuDetails = skuDetails;
+            this.time = time;
+        }
+    }
+
+    /**
+     * Builder class for {@link SkuDetailsCache}.
+     */
+    public static class Builder {
+
+        private long timeToLive = DEFAULT_TIME_TO_LIVE;
+        private int maxSize = DEFAULT_MAX_SIZE;
+        private boolean persistent;
+
+        /**
+         * Sets time during which cached SkuDetails are considered fresh.
+         * <br>
+         * Default value is {@link #DEFAULT_TIME_TO_LIVE}.
+         *
+         * @param timeToLive Time to live in milliseconds.
+         * @return this object.
+         */
+        public Builder setTimeToLive(final long timeToLive) {
+            if (timeToLive <= 0L) {
+                throw new IllegalArgumentException("Time to live must be positive.");
+            }
+            this.timeToLive = timeToLive;
+            return this;
+        }
+
+        /**
+         * Sets maximum number of cached SkuDetails, least recently used ones are evicted first.
+         * <br>
+         * Default value is {@link #DEFAULT_MAX_SIZE}.
+         *
+         * @param maxSize Maximum cache size.
+         * @return this object.
+         */
+        public Builder setMaxSize(final int maxSize) {
+            if (maxSize <= 0) {
+                throw new IllegalArgumentException("Max size must be positive.");
+            }
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * Sets whether cached SkuDetails should survive process restart.
+         * <br>
+         * Default value is false.
+         *
+         * @param persistent True to persist cache content.
+         * @return this object.
+         */
+        public Builder setPersistent(final boolean persistent) {
+            this.persistent = persistent;
+            return this;
+        }
+
+        /**
+         * Constructs a new {@link SkuDetailsCache} object.
+         *
+         * @return new SkuDetailsCache.
+         */
+        public SkuDetailsCache build() {
+            return new SkuDetailsCache(timeToLive, maxSize, persistent);
+        }
+    }
+}
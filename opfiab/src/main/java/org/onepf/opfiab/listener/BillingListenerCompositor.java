@@ -27,22 +27,27 @@ import org.onepf.opfiab.model.event.billing.InventoryResponse;
 import org.onepf.opfiab.model.event.billing.PurchaseResponse;
 import org.onepf.opfiab.model.event.billing.SkuDetailsResponse;
 
-import java.util.Collection;
-import java.util.HashSet;
-
 /**
  * Handy implementation of {@link BillingListener} interface which aggregates multiple listener
  * objects.
+ * <br>
+ * Listeners are kept in {@link ListenerRegistry}s, so they can be safely added and removed from
+ * within callbacks. Each listener can be given a priority and can be registered as one-shot, in
+ * which case it's removed after the first matching response.
  */
 public class BillingListenerCompositor implements BillingListener {
 
-    protected final Collection<BillingListener> billingListeners = new HashSet<>();
+    protected final ListenerRegistry<BillingListener> billingListeners = new ListenerRegistry<>();
 
-    protected final Collection<OnSetupListener> setupListeners = new HashSet<>();
-    protected final Collection<OnPurchaseListener> purchaseListeners = new HashSet<>();
-    protected final Collection<OnInventoryListener> inventoryListeners = new HashSet<>();
-    protected final Collection<OnSkuDetailsListener> skuDetailsListeners = new HashSet<>();
-    protected final Collection<OnConsumeListener> consumeListeners = new HashSet<>();
+    protected final ListenerRegistry<OnSetupListener> setupListeners = new ListenerRegistry<>();
+    protected final ListenerRegistry<OnPurchaseListener> purchaseListeners =
+            new ListenerRegistry<>();
+    protected final ListenerRegistry<OnInventoryListener> inventoryListeners =
+            new ListenerRegistry<>();
+    protected final ListenerRegistry<OnSkuDetailsListener> skuDetailsListeners =
+            new ListenerRegistry<>();
+    protected final ListenerRegistry<OnConsumeListener> consumeListeners =
+            new ListenerRegistry<>();
 
     public BillingListenerCompositor() {
         super();
@@ -52,85 +57,215 @@ public class BillingListenerCompositor implements BillingListener {
         setupListeners.add(setupListener);
     }
 
+    /**
+     * Adds setup listener with supplied priority.
+     *
+     * @param setupListener Listener to add.
+     * @param priority      Listeners with higher priority are called first.
+     * @param oneShot       If true, listener is removed after first {@link SetupResponse}.
+     */
+    public void addSetupListener(@NonNull final OnSetupListener setupListener,
+                                 final int priority,
+                                 final boolean oneShot) {
+        setupListeners.add(setupListener, priority, oneShot);
+    }
+
     public void addPurchaseListener(@NonNull final OnPurchaseListener purchaseListener) {
         purchaseListeners.add(purchaseListener);
     }
 
+    /**
+     * Adds purchase listener with supplied priority.
+     *
+     * @param purchaseListener Listener to add.
+     * @param priority         Listeners with higher priority are called first.
+     * @param oneShot          If true, listener is removed after first {@link PurchaseResponse}.
+     */
+    public void addPurchaseListener(@NonNull final OnPurchaseListener purchaseListener,
+                                    final int priority,
+                                    final boolean oneShot) {
+        purchaseListeners.add(purchaseListener, priority, oneShot);
+    }
+
     public void addInventoryListener(@NonNull final OnInventoryListener inventoryListener) {
         inventoryListeners.add(inventoryListener);
     }
 
+    /**
+     * Adds inventory listener with supplied priority.
+     *
+     * @param inventoryListener Listener to add.
+     * @param priority          Listeners with higher priority are called first.
+     * @param oneShot           If true, listener is removed after first {@link InventoryResponse}.
+     */
+    public void addInventoryListener(@NonNull final OnInventoryListener inventoryListener,
+                                     final int priority,
+                                     final boolean oneShot) {
+        inventoryListeners.add(inventoryListener, priority, oneShot);
+    }
+
     public void addSkuDetailsListener(@NonNull final OnSkuDetailsListener skuInfoListener) {
         skuDetailsListeners.add(skuInfoListener);
     }
 
+    /**
+     * Adds SKU details listener with supplied priority.
+     *
+     * @param skuInfoListener Listener to add.
+     * @param priority        Listeners with higher priority are called first.
+     * @param oneShot         If true, listener is removed after first {@link SkuDetailsResponse}.
+     */
+    public void addSkuDetailsListener(@NonNull final OnSkuDetailsListener skuInfoListener,
+                                      final int priority,
+                                      final boolean oneShot) {
+        skuDetailsListeners.add(skuInfoListener, priority, oneShot);
+    }
+
     public void addConsumeListener(@NonNull final OnConsumeListener consumeListener) {
         consumeListeners.add(consumeListener);
     }
 
+    /**
+     * Adds consume listener with supplied priority.
+     *
+     * @param consumeListener Listener to add.
+     * @param priority        Listeners with higher priority are called first.
+     * @param oneShot         If true, listener is removed after first {@link ConsumeResponse}.
+     */
+    public void addConsumeListener(@NonNull final OnConsumeListener consumeListener,
+                                   final int priority,
+                                   final boolean oneShot) {
+        consumeListeners.add(consumeListener, priority, oneShot);
+    }
+
     public void addBillingListener(@NonNull final BillingListener billingListener) {
-        billingListeners.add(billingListener);
+        addBillingListener(billingListener, 0);
+    }
+
+    /**
+     * Adds listener for all billing events with supplied priority.
+     *
+     * @param billingListener Listener to add.
+     * @param priority        Listeners with higher priority are called first.
+     */
+    public void addBillingListener(@NonNull final BillingListener billingListener,
+                                   final int priority) {
+        billingListeners.add(billingListener, priority, false);
+
+        addSetupListener(billingListener, priority, false);
+        addPurchaseListener(billingListener, priority, false);
+        addInventoryListener(billingListener, priority, false);
+        addSkuDetailsListener(billingListener, priority, false);
+        addConsumeListener(billingListener, priority, false);
+    }
+
+    public void removeSetupListener(@NonNull final OnSetupListener setupListener) {
+        setupListeners.remove(setupListener);
+    }
+
+    public void removePurchaseListener(@NonNull final OnPurchaseListener purchaseListener) {
+        purchaseListeners.remove(purchaseListener);
+    }
+
+    public void removeInventoryListener(@NonNull final OnInventoryListener inventoryListener) {
+        inventoryListeners.remove(inventoryListener);
+    }
+
+    public void removeSkuDetailsListener(@NonNull final OnSkuDetailsListener skuInfoListener) {
+        skuDetailsListeners.remove(skuInfoListener);
+    }
+
+    public void removeConsumeListener(@NonNull final OnConsumeListener consumeListener) {
+        consumeListeners.remove(consumeListener);
+    }
+
+    public void removeBillingListener(@NonNull final BillingListener billingListener) {
+        billingListeners.remove(billingListener);
 
-        addSetupListener(billingListener);
-        addPurchaseListener(billingListener);
-        addInventoryListener(billingListener);
-        addSkuDetailsListener(billingListener);
-        addConsumeListener(billingListener);
+        removeSetupListener(billingListener);
+        removePurchaseListener(billingListener);
+        removeInventoryListener(billingListener);
+        removeSkuDetailsListener(billingListener);
+        removeConsumeListener(billingListener);
     }
 
     @Override
     public void onRequest(@NonNull final BillingRequest billingRequest) {
-        for (final BillingListener billingListener : billingListeners) {
-            billingListener.onRequest(billingRequest);
+        for (final ListenerRegistry.Entry<BillingListener> entry : billingListeners.entries()) {
+            if (entry.isActive()) {
+                entry.getListener().onRequest(billingRequest);
+            }
         }
     }
 
     @Override
     public void onResponse(@NonNull final BillingResponse billingResponse) {
-        for (final BillingListener billingListener : billingListeners) {
-            billingListener.onResponse(billingResponse);
+        for (final ListenerRegistry.Entry<BillingListener> entry : billingListeners.entries()) {
+            if (entry.isActive()) {
+                entry.getListener().onResponse(billingResponse);
+            }
         }
     }
 
     @Override
     public void onSetupStarted(@NonNull final SetupStartedEvent setupStartedEvent) {
-        for (final OnSetupListener setupListener : setupListeners) {
-            setupListener.onSetupStarted(setupStartedEvent);
+        for (final ListenerRegistry.Entry<OnSetupListener> entry : setupListeners.entries()) {
+            if (entry.isActive()) {
+                entry.getListener().onSetupStarted(setupStartedEvent);
+            }
         }
     }
 
     @Override
     public void onSetupResponse(@NonNull final SetupResponse setupResponse) {
-        for (final OnSetupListener setupListener : setupListeners) {
-            setupListener.onSetupResponse(setupResponse);
+        for (final ListenerRegistry.Entry<OnSetupListener> entry : setupListeners.entries()) {
+            if (entry.isActive()) {
+                setupListeners.consume(entry);
+                entry.getListener().onSetupResponse(setupResponse);
+            }
         }
     }
 
     @Override
     public void onPurchase(@NonNull final PurchaseResponse purchaseResponse) {
-        for (final OnPurchaseListener purchaseListener : purchaseListeners) {
-            purchaseListener.onPurchase(purchaseResponse);
+        for (final ListenerRegistry.Entry<OnPurchaseListener> entry
+                : purchaseListeners.entries()) {
+            if (entry.isActive()) {
+                purchaseListeners.consume(entry);
+                entry.getListener().onPurchase(purchaseResponse);
+            }
         }
     }
 
     @Override
     public void onConsume(@NonNull final ConsumeResponse consumeResponse) {
-        for (final OnConsumeListener consumeListener : consumeListeners) {
-            consumeListener.onConsume(consumeResponse);
+        for (final ListenerRegistry.Entry<OnConsumeListener> entry : consumeListeners.entries()) {
+            if (entry.isActive()) {
+                consumeListeners.consume(entry);
+                entry.getListener().onConsume(consumeResponse);
+            }
         }
     }
 
     @Override
     public void onInventory(@NonNull final InventoryResponse inventoryResponse) {
-        for (final OnInventoryListener inventoryListener : inventoryListeners) {
-            inventoryListener.onInventory(inventoryResponse);
+        for (final ListenerRegistry.Entry<OnInventoryListener> entry
+                : inventoryListeners.entries()) {
+            if (entry.isActive()) {
+                inventoryListeners.consume(entry);
+                entry.getListener().onInventory(inventoryResponse);
+            }
         }
     }
 
     @Override
     public void onSkuDetails(@NonNull final SkuDetailsResponse skuDetailsResponse) {
-        for (final OnSkuDetailsListener skuDetailsListener : skuDetailsListeners) {
-            skuDetailsListener.onSkuDetails(skuDetailsResponse);
+        for (final ListenerRegistry.Entry<OnSkuDetailsListener> entry
+                : skuDetailsListeners.entries()) {
+            if (entry.isActive()) {
+                skuDetailsListeners.consume(entry);
+                entry.getListener().onSkuDetails(skuDetailsResponse);
+            }
         }
     }
 }
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.listener;
+
+import android.support.annotation.NonNull;
+
+/**
+ * Copy-on-write collection of listeners used by {@link BillingListenerCompositor}.
+ * <br>
+ * Every modification replaces the array returned by {@link #entries()}, thus dispatch can walk a
+ * plain array without any allocation while listeners are added or removed from within callbacks.
+ * <br>
+ * Listeners with higher priority come first, listeners with equal priority keep their
+ * registration order.
+ *
+ * @param <L> Type of stored listeners.
+ */
+public final class ListenerRegistry<L> {
+
+    @SuppressWarnings("rawtypes")
+    private static final Entry[] EMPTY = new Entry[0];
+
+
+    @SuppressWarnings("unchecked")
+    @NonNull
+    private volatile Entry<L>[] entries = EMPTY;
+
+    public ListenerRegistry() {
+        super();
+    }
+
+    private int indexOf(@NonNull final Entry<L>[] entries, @NonNull final L listener) {
+        for (int i = 0; i < entries.length; i++) {
+            if (entries[i].listener.equals(listener)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @NonNull
+    private Entry<L>[] without(@NonNull final Entry<L>[] entries, final int index) {
+        if (entries.length == 1) {
+            return EMPTY;
+        }
+        final Entry<L>[] newEntries = new Entry[entries.length - 1];
+        System.arraycopy(entries, 0, newEntries, 0, index);
+        System.arraycopy(entries, index + 1, newEntries, index, entries.length - index - 1);
+        return newEntries;
+    }
+
+    /**
+     * Adds listener with default priority.
+     *
+     * @param listener Listener to add.
+     * @see #add(Object, int, boolean)
+     */
+    public void add(@NonNull final L listener) {
+        add(listener, 0, false);
+    }
+
+    /**
+     * Adds listener to this registry, replacing previous registration of the same listener.
+     *
+     * @param listener Listener to add.
+     * @param priority Listeners with higher priority are called first.
+     * @param oneShot  If true, listener is removed after it's {@link #consume(Entry) consumed}.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public synchronized void add(@NonNull final L listener,
+                                 final int priority,
+                                 final boolean oneShot) {
+        final Entry<L>[] oldEntries = entries;
+        final int oldIndex = indexOf(oldEntries, listener);
+        final Entry<L>[] baseEntries = oldIndex == -1 ? oldEntries : without(oldEntries, oldIndex);
+        if (oldIndex != -1) {
+            oldEntries[oldIndex].removed = true;
+        }
+        final Entry<L>[] newEntries = new Entry[baseEntries.length + 1];
+        int index = 0;
+        while (index < baseEntries.length && baseEntries[index].priority >= priority) {
+            newEntries[index] = baseEntries[index];
+            index++;
+        }
+        newEntries[index] = new Entry<>(listener, priority, oneShot);
+        System.arraycopy(baseEntries, index, newEntries, index + 1, baseEntries.length - index);
+        entries = newEntries;
+    }
+
+    /**
+     * Removes listener from this registry.
+     *
+     * @param listener Listener to remove.
+     * @return True if listener was registered, false otherwise.
+     */
+    public synchronized boolean remove(@NonNull final L listener) {
+        final Entry<L>[] oldEntries = entries;
+        final int index = indexOf(oldEntries, listener);
+        if (index == -1) {
+            return false;
+        }
+        oldEntries[index].removed = true;
+        entries = without(oldEntries, index);
+        return true;
+    }
+
+    /**
+     * Removes all listeners from this registry.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized void clear() {
+        for (final Entry<L> entry : entries) {
+            entry.removed = true;
+        }
+        entries = EMPTY;
+    }
+
+    /**
+     * Notifies registry that supplied entry received matching event.
+     * <br>
+     * One-shot entries are removed.
+     *
+     * @param entry Entry which listener was just called.
+     */
+    public void consume(@NonNull final Entry<L> entry) {
+        if (entry.oneShot && !entry.removed) {
+            synchronized (this) {
+                final Entry<L>[] oldEntries = entries;
+                for (int i = 0; i < oldEntries.length; i++) {
+                    if (oldEntries[i] == entry) {
+                        entry.removed = true;
+                        entries = without(oldEntries, i);
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return entries.length == 0;
+    }
+
+    /**
+     * Gets current snapshot of registered listeners.
+     * <br>
+     * Returned array must not be modified. Entries removed after snapshot was taken report
+     * {@link Entry#isActive()} as false.
+     *
+     * @return Array of entries ordered by priority.
+     */
+    @NonNull
+    public Entry<L>[] entries() {
+        return entries;
+    }
+
+    /**
+     * Single listener registration.
+     *
+     * @param <L> Type of listener.
+     */
+    public static final class Entry<L> {
+
+        @NonNull
+        private final L listener;
+        private final int priority;
+        private final boolean oneShot;
+        private volatile boolean removed;
+
+        Entry(@NonNull final L listener, final int priority, final boolean oneShot) {
+            this.listener = listener;
+            this.priority = priority;
+            this.oneShot = oneShot;
+        }
+
+        @NonNull
+        public L getListener() {
+            return listener;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public boolean isOneShot() {
+            return oneShot;
+        }
+
+        /**
+         * Indicates whether this entry is still registered.
+         *
+         * @return False if listener was removed, true otherwise.
+         */
+        public boolean isActive() {
+            return !removed;
+        }
+    }
+}
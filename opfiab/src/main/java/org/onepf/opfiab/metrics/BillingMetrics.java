@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.metrics;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.model.Configuration;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+
+/**
+ * Receives timings of executed {@link BillingRequest}s.
+ *
+ * @see Configuration.Builder#setBillingMetrics(BillingMetrics)
+ * @see HistogramBillingMetrics
+ */
+public interface BillingMetrics {
+
+    /**
+     * Called from the main thread when response to a request has been delivered to all listeners.
+     * <br>
+     * Supplied object is reused after this method returns and must not be retained.
+     *
+     * @param timings Timings of finished request.
+     */
+    void onRequestFinished(@NonNull final RequestTimings timings);
+}
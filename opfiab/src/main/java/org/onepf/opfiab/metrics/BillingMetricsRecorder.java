@@ -0,0 +1,348 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.metrics;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Collects {@link RequestTimings} of billing requests and reports them to {@link BillingMetrics}.
+ * <br>
+ * Recording doesn't allocate: timings are kept in a preallocated ring, and the oldest
+ * unfinished record is reused if all of them are taken.
+ * <br>
+ * {@link BillingProvider} implementations can report time spent in their own stages with
+ * {@link #start()} and {@link #record(BillingStage, long)}. Such stages are attributed to the
+ * request being handled on the calling thread. Providers receiving responses on other threads
+ * should use {@link #record(BillingStage, long, long)} instead.
+ */
+public final class BillingMetricsRecorder {
+
+    private static final int CAPACITY = 64;
+
+    private static final Object LOCK = new Object();
+    private static final RequestTimings[] TIMINGS = new RequestTimings[CAPACITY];
+    /**
+     * Maps requests and responses to their timings by identity.
+     */
+    private static final Map<Object, RequestTimings> INDEX = new IdentityHashMap<>(CAPACITY * 2);
+    /**
+     * Timings of request being handled on current thread.
+     */
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            TIMINGS[i] = new RequestTimings();
+        }
+    }
+
+    @Nullable
+    private static volatile BillingMetrics metrics;
+    private static int next;
+
+    private BillingMetricsRecorder() {
+        throw new UnsupportedOperationException();
+    }
+
+    private static void release(@NonNull final RequestTimings timings) {
+        INDEX.remove(timings.request);
+        if (timings.response != null) {
+            INDEX.remove(timings.response);
+        }
+        timings.request = null;
+        timings.response = null;
+    }
+
+    /**
+     * Finds timings of the request with supplied id.
+     * <br>
+     * Must be called while holding {@link #LOCK}.
+     *
+     * @param requestId Id of the request.
+     * @return Timings of the request, null if it's not recorded.
+     */
+    @Nullable
+    private static RequestTimings find(final long requestId) {
+        if (requestId == 0L) {
+            return null;
+        }
+        // Linear scan of a small ring doesn't allocate, unlike boxed keys
+        for (final RequestTimings timings : TIMINGS) {
+            final BillingRequest request = timings.request;
+            if (request != null && request.getId() == requestId) {
+                return timings;
+            }
+        }
+        return null;
+    }
+
+    @NonNull
+    private static RequestTimings acquire(@NonNull final BillingRequest request, final long now) {
+        final RequestTimings timings = TIMINGS[next];
+        next = (next + 1) % CAPACITY;
+        if (timings.isInUse()) {
+            // Request was dropped or never answered
+            release(timings);
+        }
+        timings.reset(request, now);
+        INDEX.put(request, timings);
+        return timings;
+    }
+
+    /**
+     * Sets metrics to report timings to.
+     *
+     * @param metrics BillingMetrics object, null to disable recording.
+     */
+    public static void setMetrics(@Nullable final BillingMetrics metrics) {
+        synchronized (LOCK) {
+            BillingMetricsRecorder.metrics = metrics;
+            for (final RequestTimings timings : TIMINGS) {
+                release(timings);
+            }
+            INDEX.clear();
+        }
+    }
+
+    /**
+     * Indicates whether timings are currently being recorded.
+     *
+     * @return True if {@link BillingMetrics} is set, false otherwise.
+     */
+    public static boolean isEnabled() {
+        return metrics != null;
+    }
+
+    /**
+     * Starts measuring a stage.
+     *
+     * @return Start timestamp to pass to {@link #record(BillingStage, long)}.
+     */
+    public static long start() {
+        return metrics == null ? 0L : System.nanoTime();
+    }
+
+    /**
+     * Adds time passed since supplied timestamp to stage of the request being handled on current
+     * thread.
+     *
+     * @param stage Stage to add time to.
+     * @param start Timestamp returned by {@link #start()}.
+     */
+    public static void record(@NonNull final BillingStage stage, final long start) {
+        if (start == 0L) {
+            return;
+        }
+        final long duration = System.nanoTime() - start;
+        synchronized (LOCK) {
+            final RequestTimings timings = CURRENT.get();
+            if (timings != null) {
+                timings.add(stage, duration);
+            }
+        }
+    }
+
+    /**
+     * Adds time passed since supplied timestamp to stage of the request with supplied id.
+     * <br>
+     * Intended for stages executed outside of the thread handling request, e.g. in SDK callbacks.
+     *
+     * @param stage     Stage to add time to.
+     * @param start     Timestamp returned by {@link #start()}.
+     * @param requestId Id of the request to attribute stage to.
+     */
+    public static void record(@NonNull final BillingStage stage,
+                              final long start,
+                              final long requestId) {
+        if (start == 0L) {
+            return;
+        }
+        final long duration = System.nanoTime() - start;
+        synchronized (LOCK) {
+            final RequestTimings timings = find(requestId);
+            if (timings != null) {
+                timings.add(stage, duration);
+            }
+        }
+    }
+
+    /**
+     * Starts recording timings of a request which was just posted by helper.
+     *
+     * @param request Posted request.
+     */
+    public static void onPosted(@NonNull final BillingRequest request) {
+        if (metrics == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        synchronized (LOCK) {
+            if (!INDEX.containsKey(request)) {
+                acquire(request, now);
+            }
+        }
+    }
+
+    /**
+     * Notifies recorder that request was sent to {@link BillingProvider}.
+     * <br>
+     * Requests which weren't posted by helper, e.g. merged ones, are recorded from this point.
+     *
+     * @param request Sent request.
+     */
+    public static void onSent(@NonNull final BillingRequest request) {
+        if (metrics == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        synchronized (LOCK) {
+            final RequestTimings timings = INDEX.get(request);
+            if (timings == null) {
+                acquire(request, now);
+            } else {
+                timings.add(BillingStage.QUEUE, now - timings.postedAt);
+                timings.sentAt = now;
+            }
+        }
+    }
+
+    /**
+     * Notifies recorder that current thread started handling supplied request.
+     *
+     * @param request Request being handled.
+     * @see #onHandled()
+     */
+    public static void onHandling(@NonNull final BillingRequest request) {
+        if (metrics == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        synchronized (LOCK) {
+            final RequestTimings timings = INDEX.get(request);
+            if (timings != null) {
+                final BillingStage stage = timings.deferred
+                        ? BillingStage.CONNECT
+                        : BillingStage.DISPATCH;
+                timings.add(stage, now - timings.sentAt);
+                timings.deferred = false;
+            }
+            CURRENT.set(timings);
+        }
+    }
+
+    /**
+     * Notifies recorder that provider postponed handling of supplied request until its service
+     * is connected.
+     * <br>
+     * Time until request is handled again is recorded as {@link BillingStage#CONNECT}.
+     *
+     * @param request Postponed request.
+     * @see #onHandling(BillingRequest)
+     */
+    public static void onDeferred(@NonNull final BillingRequest request) {
+        if (metrics == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        synchronized (LOCK) {
+            final RequestTimings timings = INDEX.get(request);
+            if (timings != null && !timings.deferred) {
+                timings.add(BillingStage.DISPATCH, now - timings.sentAt);
+                timings.sentAt = now;
+                timings.deferred = true;
+            }
+        }
+    }
+
+    /**
+     * Notifies recorder that current thread finished handling request.
+     *
+     * @see #onHandling(BillingRequest)
+     */
+    public static void onHandled() {
+        if (CURRENT.get() != null) {
+            CURRENT.set(null);
+        }
+    }
+
+    /**
+     * Notifies recorder that response was sent.
+     *
+     * @param request  Request being answered, null to look it up by
+     *                 {@link BillingResponse#getRequestId()}, falling back to request handled on
+     *                 current thread.
+     * @param response Sent response.
+     */
+    public static void onResponse(@Nullable final BillingRequest request,
+                                  @NonNull final BillingResponse response) {
+        if (metrics == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        synchronized (LOCK) {
+            RequestTimings timings = request == null
+                    ? find(response.getRequestId())
+                    : INDEX.get(request);
+            if (timings == null && request == null) {
+                timings = CURRENT.get();
+            }
+            if (timings != null && timings.response == null) {
+                timings.response = response;
+                timings.respondedAt = now;
+                INDEX.put(response, timings);
+            }
+        }
+    }
+
+    /**
+     * Finishes recording timings of request answered with supplied response and reports them to
+     * {@link BillingMetrics}.
+     * <br>
+     * Must be called from the main thread.
+     *
+     * @param response Response which was just delivered to all listeners.
+     */
+    public static void onDelivered(@NonNull final BillingResponse response) {
+        final BillingMetrics metrics = BillingMetricsRecorder.metrics;
+        if (metrics == null) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final RequestTimings timings;
+        synchronized (LOCK) {
+            timings = INDEX.get(response);
+            if (timings == null) {
+                return;
+            }
+            timings.add(BillingStage.DELIVERY, now - timings.respondedAt);
+            timings.finishedAt = now;
+        }
+        // Timings are only reused from the main thread, so they can't change during callback
+        metrics.onRequestFinished(timings);
+        synchronized (LOCK) {
+            release(timings);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.metrics;
+
+import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfiab.listener.BillingListener;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+
+/**
+ * Stages of {@link BillingRequest} execution measured by {@link BillingMetricsRecorder}.
+ */
+public enum BillingStage {
+
+    /**
+     * Time between request being posted by helper and being sent to {@link BillingProvider},
+     * including time spent in pending requests queue.
+     */
+    QUEUE,
+    /**
+     * Time between request being sent to BillingProvider and provider starting to handle it on
+     * background thread.
+     */
+    DISPATCH,
+    /**
+     * Time spent waiting for billing service connection.
+     */
+    CONNECT,
+    /**
+     * Time spent in billing service calls.
+     */
+    CALL,
+    /**
+     * Time spent parsing billing service data.
+     */
+    PARSE,
+    /**
+     * Time spent verifying purchases.
+     */
+    VERIFY,
+    /**
+     * Time spent reverting SKUs of the response.
+     */
+    REVERT,
+    /**
+     * Time between {@link BillingResponse} being sent and all {@link BillingListener}s being
+     * notified on main thread.
+     */
+    DELIVERY,
+}
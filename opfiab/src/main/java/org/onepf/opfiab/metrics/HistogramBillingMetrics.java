@@ -0,0 +1,155 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.metrics;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link BillingMetrics} implementation which aggregates timings in preallocated histograms, one
+ * per {@link BillingStage} and {@link BillingRequest.Type}.
+ * <br>
+ * Histogram buckets grow exponentially starting from 1 microsecond, thus reported percentiles are
+ * accurate up to a factor of 2.
+ */
+public class HistogramBillingMetrics implements BillingMetrics {
+
+    /**
+     * Number of buckets. Last one holds everything longer than ~35 minutes.
+     */
+    private static final int BUCKETS = 32;
+    private static final int STAGES = BillingStage.values().length;
+    private static final int TYPES = BillingRequest.Type.values().length;
+
+
+    /**
+     * Counts indexed by request type, stage (last one being total duration) and bucket.
+     */
+    private final long[][][] histograms = new long[TYPES][STAGES + 1][BUCKETS];
+    private final long[] requests = new long[TYPES];
+
+    public HistogramBillingMetrics() {
+        super();
+    }
+
+    private static int bucket(final long nanos) {
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        if (micros <= 1L) {
+            return 0;
+        }
+        final int bucket = Long.SIZE - Long.numberOfLeadingZeros(micros - 1L);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    private static long percentile(@NonNull final long[] histogram, final double percentile) {
+        long total = 0L;
+        for (final long count : histogram) {
+            total += count;
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+        final long rank = (long) Math.ceil(total * percentile / 100d);
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                // Upper bound of the bucket
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    private long percentile(@NonNull final BillingRequest.Type type,
+                            final int index,
+                            final double percentile) {
+        if (percentile < 0d || percentile > 100d) {
+            throw new IllegalArgumentException("Percentile must be in [0, 100].");
+        }
+        return percentile(histograms[type.ordinal()][index], percentile);
+    }
+
+    @Override
+    public synchronized void onRequestFinished(@NonNull final RequestTimings timings) {
+        final int type = timings.getType().ordinal();
+        final long[][] typeHistograms = histograms[type];
+        for (final BillingStage stage : BillingStage.values()) {
+            final long duration = timings.getDuration(stage);
+            if (duration > 0L) {
+                typeHistograms[stage.ordinal()][bucket(duration)]++;
+            }
+        }
+        typeHistograms[STAGES][bucket(timings.getTotalDuration())]++;
+        requests[type]++;
+    }
+
+    /**
+     * Gets number of finished requests of supplied type.
+     *
+     * @param type Type of requests.
+     * @return Number of recorded requests.
+     */
+    public synchronized long getCount(@NonNull final BillingRequest.Type type) {
+        return requests[type.ordinal()];
+    }
+
+    /**
+     * Gets approximate percentile of time spent in supplied stage.
+     * <br>
+     * Only requests which reached the stage are considered.
+     *
+     * @param type       Type of requests.
+     * @param stage      Stage to get percentile for.
+     * @param percentile Percentile in [0, 100].
+     * @return Upper bound of the percentile in microseconds.
+     */
+    public synchronized long getPercentile(@NonNull final BillingRequest.Type type,
+                                           @NonNull final BillingStage stage,
+                                           final double percentile) {
+        return percentile(type, stage.ordinal(), percentile);
+    }
+
+    /**
+     * Gets approximate percentile of total request duration.
+     *
+     * @param type       Type of requests.
+     * @param percentile Percentile in [0, 100].
+     * @return Upper bound of the percentile in microseconds.
+     * @see RequestTimings#getTotalDuration()
+     */
+    public synchronized long getTotalPercentile(@NonNull final BillingRequest.Type type,
+                                                final double percentile) {
+        return percentile(type, STAGES, percentile);
+    }
+
+    /**
+     * Discards all recorded timings.
+     */
+    public synchronized void reset() {
+        for (final long[][] typeHistograms : histograms) {
+            for (final long[] histogram : typeHistograms) {
+                Arrays.fill(histogram, 0L);
+            }
+        }
+        Arrays.fill(requests, 0L);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.metrics;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfiab.model.BillingProviderInfo;
+import org.onepf.opfiab.model.event.billing.BillingRequest;
+import org.onepf.opfiab.model.event.billing.BillingResponse;
+import org.onepf.opfiab.model.event.billing.Status;
+
+import java.util.Arrays;
+
+/**
+ * Timings of a single {@link BillingRequest} execution.
+ * <br>
+ * Instances are preallocated and reused by {@link BillingMetricsRecorder}.
+ */
+public final class RequestTimings {
+
+    private static final int STAGES = BillingStage.values().length;
+
+
+    private final long[] durations = new long[STAGES];
+    @Nullable
+    BillingRequest request;
+    @Nullable
+    BillingResponse response;
+    long postedAt;
+    long sentAt;
+    long respondedAt;
+    long finishedAt;
+    /**
+     * Whether provider postponed handling of the request until its service is connected.
+     */
+    boolean deferred;
+
+    RequestTimings() {
+        super();
+    }
+
+    void reset(@NonNull final BillingRequest request, final long now) {
+        Arrays.fill(durations, 0L);
+        this.request = request;
+        this.response = null;
+        this.postedAt = now;
+        this.sentAt = now;
+        this.respondedAt = now;
+        this.finishedAt = now;
+        this.deferred = false;
+    }
+
+    void add(@NonNull final BillingStage stage, final long duration) {
+        durations[stage.ordinal()] += duration;
+    }
+
+    boolean isInUse() {
+        return request != null;
+    }
+
+    /**
+     * Gets type of executed request.
+     *
+     * @return Request type.
+     */
+    @NonNull
+    public BillingRequest.Type getType() {
+        if (request == null) {
+            throw new IllegalStateException();
+        }
+        return request.getType();
+    }
+
+    /**
+     * Gets provider which handled request.
+     *
+     * @return BillingProviderInfo object, null if request wasn't handled by any provider.
+     */
+    @Nullable
+    public BillingProviderInfo getProviderInfo() {
+        return response == null ? null : response.getProviderInfo();
+    }
+
+    /**
+     * Gets final status of the request.
+     *
+     * @return Response status, null if request wasn't answered.
+     */
+    @Nullable
+    public Status getStatus() {
+        return response == null ? null : response.getStatus();
+    }
+
+    /**
+     * Gets time spent in supplied stage.
+     *
+     * @param stage Stage to get duration of.
+     * @return Duration in nanoseconds, 0 if stage wasn't reached or measured.
+     */
+    public long getDuration(@NonNull final BillingStage stage) {
+        return durations[stage.ordinal()];
+    }
+
+    /**
+     * Gets time between request being posted and response being delivered.
+     *
+     * @return Duration in nanoseconds.
+     */
+    public long getTotalDuration() {
+        return finishedAt - postedAt;
+    }
+}
@@ -21,13 +21,18 @@ import android.support.annotation.Nullable;
 
 import org.onepf.opfiab.OPFIab;
 import org.onepf.opfiab.api.AdvancedIabHelper;
+import org.onepf.opfiab.billing.BaseBillingProvider;
 import org.onepf.opfiab.billing.BillingProvider;
 import org.onepf.opfiab.listener.BillingListener;
 import org.onepf.opfiab.listener.DefaultBillingListener;
+import org.onepf.opfiab.metrics.BillingMetrics;
+import org.onepf.opfiab.metrics.HistogramBillingMetrics;
+import org.onepf.opfiab.model.event.SetupResponse;
 
 import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 /**
  * Model class representing library configuration.
@@ -38,6 +43,7 @@ import java.util.Set;
 public final class Configuration {
 
     private static final long DEFAULT_REQUEST_DELAY = 50L;
+    private static final long DEFAULT_PROBE_TIMEOUT = 5000L; // 5 seconds
 
 
     @NonNull
@@ -47,14 +53,35 @@ public final class Configuration {
     private final long subsequentRequestDelay;
     private final boolean skipUnauthorised;
     private final boolean autoRecover;
+    private final boolean warmUp;
+    private final long probeTimeout;
+    private final boolean fastSetup;
+    private final int workerThreads;
+    @Nullable
+    private final Executor eventExecutor;
+    @Nullable
+    private final BillingMetrics billingMetrics;
 
+    @SuppressWarnings({"checkstyle:parameternumber"})
     Configuration(@NonNull final Set<BillingProvider> providers,
                   @Nullable final BillingListener billingListener,
                   final long subsequentRequestDelay,
                   final boolean skipUnauthorised,
-                  final boolean autoRecover) {
+                  final boolean autoRecover,
+                  final boolean warmUp,
+                  final long probeTimeout,
+                  final boolean fastSetup,
+                  final int workerThreads,
+                  @Nullable final Executor eventExecutor,
+                  @Nullable final BillingMetrics billingMetrics) {
         this.subsequentRequestDelay = subsequentRequestDelay;
         this.autoRecover = autoRecover;
+        this.warmUp = warmUp;
+        this.probeTimeout = probeTimeout;
+        this.fastSetup = fastSetup;
+        this.workerThreads = workerThreads;
+        this.eventExecutor = eventExecutor;
+        this.billingMetrics = billingMetrics;
         this.providers = Collections.unmodifiableSet(providers);
         this.billingListener = billingListener;
         this.skipUnauthorised = skipUnauthorised;
@@ -85,7 +112,10 @@ public final class Configuration {
      * Gets minimal time gap between pending requests.
      *
      * @return Time gap in milliseconds.
+     * @deprecated Pending requests are dispatched as soon as previous request is handled, this
+     * value is ignored.
      */
+    @Deprecated
     public long getSubsequentRequestDelay() {
         return subsequentRequestDelay;
     }
@@ -111,6 +141,69 @@ public final class Configuration {
         return autoRecover;
     }
 
+    /**
+     * Indicates whether {@link BillingProvider}s should start connecting to their billing services
+     * as soon as setup is started.
+     *
+     * @return True if BillingProviders should be warmed up during setup. False otherwise.
+     * @see BaseBillingProvider#warmUp()
+     */
+    public boolean warmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Gets time given to each {@link BillingProvider} to report its availability during setup.
+     *
+     * @return Timeout in milliseconds.
+     * @see BillingProvider#isAvailable()
+     * @see BillingProvider#isAuthorised()
+     */
+    public long getProbeTimeout() {
+        return probeTimeout;
+    }
+
+    /**
+     * Indicates whether setup should be answered right away with previously picked
+     * {@link BillingProvider}, while actual setup is performed in background.
+     *
+     * @return True if fast setup is enabled. False otherwise.
+     */
+    public boolean fastSetup() {
+        return fastSetup;
+    }
+
+    /**
+     * Gets number of background threads used by library to handle events.
+     * <br>
+     * Ignored if {@link #getEventExecutor()} is set.
+     *
+     * @return Number of worker threads.
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * Gets executor supplied to handle library events in background.
+     *
+     * @return Executor object. Can be null.
+     */
+    @Nullable
+    public Executor getEventExecutor() {
+        return eventExecutor;
+    }
+
+    /**
+     * Gets metrics object receiving timings of billing requests.
+     *
+     * @return BillingMetrics object. Can be null.
+     */
+    @Nullable
+    public BillingMetrics getBillingMetrics() {
+        return billingMetrics;
+    }
+
     /**
      * Builder class for {@link Configuration} object.
      */
@@ -123,6 +216,14 @@ public final class Configuration {
         private long subsequentRequestDelay = DEFAULT_REQUEST_DELAY;
         private boolean skipUnauthorised;
         private boolean autoRecover;
+        private boolean warmUp;
+        private long probeTimeout = DEFAULT_PROBE_TIMEOUT;
+        private boolean fastSetup;
+        private int workerThreads = 1;
+        @Nullable
+        private Executor eventExecutor;
+        @Nullable
+        private BillingMetrics billingMetrics;
 
         /**
          * Adds supported billing provider.
@@ -159,7 +260,10 @@ public final class Configuration {
          * @param subsequentRequestDelay Time gap in milliseconds.
          * @see #getSubsequentRequestDelay()
          * @see AdvancedIabHelper
+         * @deprecated Pending requests are dispatched as soon as previous request is handled, this
+         * value is ignored.
          */
+        @Deprecated
         public Builder setSubsequentRequestDelay(final long subsequentRequestDelay) {
             this.subsequentRequestDelay = subsequentRequestDelay;
             return this;
@@ -191,6 +295,102 @@ public final class Configuration {
             return this;
         }
 
+        /**
+         * Sets flag indicating whether {@link BillingProvider}s should start connecting to their
+         * billing services as soon as setup is started.
+         * <br>
+         * This reduces latency of the first billing request at the cost of possibly unneeded
+         * connections to services of providers which won't be picked.
+         *
+         * @param warmUp True to warm up BillingProviders during setup.
+         * @return this object.
+         * @see BaseBillingProvider#warmUp()
+         */
+        public Builder setWarmUp(final boolean warmUp) {
+            this.warmUp = warmUp;
+            return this;
+        }
+
+        /**
+         * Sets time given to each {@link BillingProvider} to report its availability during setup.
+         * <br>
+         * Providers are checked concurrently, those which don't respond in time are considered
+         * unavailable.
+         *
+         * @param probeTimeout Timeout in milliseconds, must be positive.
+         * @return this object.
+         * @see BillingProvider#isAvailable()
+         */
+        public Builder setProbeTimeout(final long probeTimeout) {
+            if (probeTimeout <= 0L) {
+                throw new IllegalArgumentException("Probe timeout must be positive.");
+            }
+            this.probeTimeout = probeTimeout;
+            return this;
+        }
+
+        /**
+         * Sets flag indicating whether setup should be answered right away with previously picked
+         * {@link BillingProvider}.
+         * <br>
+         * Setup is still performed in background. If it picks a different provider, another
+         * {@link SetupResponse} is sent.
+         *
+         * @param fastSetup True to enable fast setup.
+         * @return this object.
+         */
+        public Builder setFastSetup(final boolean fastSetup) {
+            this.fastSetup = fastSetup;
+            return this;
+        }
+
+        /**
+         * Sets number of background threads used by library to handle events.
+         * <br>
+         * By default library uses a single thread. With several threads, requests to different
+         * {@link BillingProvider}s and long running calls don't stall each other, while requests
+         * to one BillingProvider are still handled one at a time.
+         *
+         * @param workerThreads Number of threads, must be positive.
+         * @return this object.
+         */
+        public Builder setWorkerThreads(final int workerThreads) {
+            if (workerThreads < 1) {
+                throw new IllegalArgumentException("Number of worker threads must be positive.");
+            }
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        /**
+         * Sets executor to handle library events in background, instead of library own threads.
+         * <br>
+         * Requests to one {@link BillingProvider} are still handled one at a time.
+         *
+         * @param eventExecutor Executor to use, null to use library threads.
+         * @return this object.
+         * @see #setWorkerThreads(int)
+         */
+        public Builder setEventExecutor(@Nullable final Executor eventExecutor) {
+            this.eventExecutor = eventExecutor;
+            return this;
+        }
+
+        /**
+         * Sets metrics object to receive timings of each billing request, broken down by
+         * execution stage.
+         * <br>
+         * Recording is disabled by default.
+         *
+         * @param billingMetrics BillingMetrics object to use, null to disable recording.
+         * @return this object.
+         * @see HistogramBillingMetrics
+         */
+        public Builder setBillingMetrics(@Nullable final BillingMetrics billingMetrics) {
+            this.billingMetrics = billingMetrics;
+            return this;
+        }
+
         /**
          * Constructs new Configuration object.
          *
@@ -198,7 +398,8 @@ public final class Configuration {
          */
         public Configuration build() {
             return new Configuration(providers, billingListener, subsequentRequestDelay,
-                                     skipUnauthorised, autoRecover);
+                                     skipUnauthorised, autoRecover, warmUp, probeTimeout,
+                                     fastSetup, workerThreads, eventExecutor, billingMetrics);
         }
     }
 }
@@ -36,10 +36,10 @@ import static org.json.JSONObject.NULL;
  */
 public abstract class BillingModel implements JsonCompatible, Serializable {
 
-    private static final String NAME_SKU = "sku";
-    private static final String NAME_TYPE = "type";
-    private static final String NAME_PROVIDER_INFO = "provider_info";
-    private static final String NAME_ORIGINAL_JSON = "original_json";
+    static final String NAME_SKU = "sku";
+    static final String NAME_TYPE = "type";
+    static final String NAME_PROVIDER_INFO = "provider_info";
+    static final String NAME_ORIGINAL_JSON = "original_json";
 
 
     @NonNull
@@ -50,6 +50,11 @@ public abstract class BillingModel implements JsonCompatible, Serializable {
     private final BillingProviderInfo providerInfo;
     @Nullable
     private final String originalJson;
+    /**
+     * Parsed {@link #originalJson}, lazily initialized by {@link #getOriginalJsonObject()}.
+     */
+    @Nullable
+    private transient volatile JSONObject originalJsonObject;
 
     protected BillingModel(@NonNull final String sku,
                            @Nullable final SkuType type,
@@ -101,6 +106,34 @@ public abstract class BillingModel implements JsonCompatible, Serializable {
         return originalJson;
     }
 
+    /**
+     * Gets parsed {@link #getOriginalJson()}.
+     * <br>
+     * Original JSON is parsed once per model instance, returned object is shared and must not be
+     * modified.
+     *
+     * @return Parsed original JSON, null if there's no original JSON.
+     * @throws JSONException if original JSON is malformed.
+     */
+    @Nullable
+    private JSONObject getOriginalJsonObject() throws JSONException {
+        if (originalJson == null) {
+            return null;
+        }
+        JSONObject jsonObject = originalJsonObject;
+        if (jsonObject == null) {
+            jsonObject = new JSONObject(originalJson);
+            originalJsonObject = jsonObject;
+        }
+        return jsonObject;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * Original JSON is embedded as the parsed object cached by this model, so it's not parsed
+     * again on every call. Returned object shares it with the model and must not be modified.
+     */
     @NonNull
     @Override
     public JSONObject toJson() {
@@ -109,8 +142,9 @@ public abstract class BillingModel implements JsonCompatible, Serializable {
             jsonObject.put(NAME_SKU, sku);
             jsonObject.put(NAME_TYPE, type);
             jsonObject.put(NAME_PROVIDER_INFO, providerInfo == null ? NULL : providerInfo.toJson());
+            final JSONObject originalJsonObject = getOriginalJsonObject();
             jsonObject.put(NAME_ORIGINAL_JSON,
-                           originalJson == null ? NULL : new JSONObject(originalJson));
+                           originalJsonObject == null ? NULL : originalJsonObject);
         } catch (JSONException exception) {
             OPFLog.e("", exception);
         }
@@ -36,6 +36,35 @@ public class Purchase extends BillingModel {
     private static final String NAME_CANCELED = "canceled";
 
 
+    /**
+     * Makes new {@link Purchase} instance from JSON representation returned by {@link #toJson()}.
+     *
+     * @param json JSON representation of {@link Purchase} object.
+     * @return New {@link Purchase} object if {@code json} was formatted correctly, null otherwise.
+     */
+    @Nullable
+    public static Purchase fromJson(@NonNull final String json) {
+        try {
+            final JSONObject jsonObject = new JSONObject(json);
+            final JSONObject providerInfo = jsonObject.optJSONObject(NAME_PROVIDER_INFO);
+            final JSONObject originalJson = jsonObject.optJSONObject(NAME_ORIGINAL_JSON);
+            return new Builder(jsonObject.getString(NAME_SKU))
+                    .setType(SkuType.valueOf(jsonObject.getString(NAME_TYPE)))
+                    .setProviderInfo(providerInfo == null
+                                             ? null
+                                             : BillingProviderInfo.fromJson(providerInfo.toString()))
+                    .setOriginalJson(originalJson == null ? null : originalJson.toString())
+                    .setToken(jsonObject.isNull(NAME_TOKEN) ? null : jsonObject.getString(NAME_TOKEN))
+                    .setPurchaseTime(jsonObject.getLong(NAME_PURCHASE_TIME))
+                    .setCanceled(jsonObject.getBoolean(NAME_CANCELED))
+                    .build();
+        } catch (JSONException | IllegalArgumentException exception) {
+            OPFLog.e("", exception);
+        }
+        return null;
+    }
+
+
     @Nullable
     private final String token;
     private final long purchaseTime;
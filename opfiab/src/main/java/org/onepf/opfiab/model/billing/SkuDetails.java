@@ -39,6 +39,43 @@ public class SkuDetails extends BillingModel {
     private static final String NAME_ICON_URL = "iconUrl";
 
 
+    /**
+     * Makes new {@link SkuDetails} instance from JSON representation returned by {@link #toJson()}.
+     *
+     * @param json JSON representation of {@link SkuDetails} object.
+     * @return New {@link SkuDetails} object if {@code json} was formatted correctly, null
+     * otherwise.
+     */
+    @Nullable
+    public static SkuDetails fromJson(@NonNull final String json) {
+        try {
+            final JSONObject jsonObject = new JSONObject(json);
+            final JSONObject providerInfo = jsonObject.optJSONObject(NAME_PROVIDER_INFO);
+            final JSONObject originalJson = jsonObject.optJSONObject(NAME_ORIGINAL_JSON);
+            return new Builder(jsonObject.getString(NAME_SKU))
+                    .setType(SkuType.valueOf(jsonObject.getString(NAME_TYPE)))
+                    .setProviderInfo(providerInfo == null
+                                             ? null
+                                             : BillingProviderInfo.fromJson(providerInfo.toString()))
+                    .setOriginalJson(originalJson == null ? null : originalJson.toString())
+                    .setPrice(getString(jsonObject, NAME_PRICE))
+                    .setTitle(getString(jsonObject, NAME_TITLE))
+                    .setDescription(getString(jsonObject, NAME_DESCRIPTION))
+                    .setIconUrl(getString(jsonObject, NAME_ICON_URL))
+                    .build();
+        } catch (JSONException | IllegalArgumentException exception) {
+            OPFLog.e("", exception);
+        }
+        return null;
+    }
+
+    @Nullable
+    private static String getString(@NonNull final JSONObject jsonObject,
+                                    @NonNull final String name) throws JSONException {
+        return jsonObject.isNull(name) ? null : jsonObject.getString(name);
+    }
+
+
     @Nullable
     private final String price;
     @Nullable
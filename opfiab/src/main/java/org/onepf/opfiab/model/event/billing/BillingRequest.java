@@ -18,17 +18,60 @@ package org.onepf.opfiab.model.event.billing;
 
 import android.support.annotation.NonNull;
 
+import org.json.JSONException;
+import org.json.JSONObject;
 import org.onepf.opfiab.billing.BillingProvider;
+import org.onepf.opfutils.OPFLog;
+
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Model class representing request for some action from {@link BillingProvider}.
  * <br>
  * Please note that not every single request will lead to a corresponding {@link BillingResponse},
  * different {@link BillingProvider}s can behave differently.
+ * <br>
+ * Each request is given unique id, which is carried by corresponding {@link BillingResponse}.
  */
 public abstract class BillingRequest extends BillingEvent {
 
-    protected BillingRequest(@NonNull final Type type) {
+    private static final String NAME_ID = "id";
+
+    private static final AtomicLong LAST_ID = new AtomicLong();
+
+
+    private final long id;
+
+    protected BillingRequest(@NonNull final Type type, final long id) {
         super(type);
+        this.id = id;
+    }
+
+    protected BillingRequest(@NonNull final Type type) {
+        this(type, LAST_ID.incrementAndGet());
+    }
+
+    /**
+     * Gets unique id of this request.
+     * <br>
+     * Ids are positive and grow monotonically within the process.
+     *
+     * @return Id of this request.
+     * @see BillingResponse#getRequestId()
+     */
+    public long getId() {
+        return id;
+    }
+
+    @NonNull
+    @Override
+    public JSONObject toJson() {
+        final JSONObject jsonObject = super.toJson();
+        try {
+            jsonObject.put(NAME_ID, id);
+        } catch (JSONException exception) {
+            OPFLog.e("", exception);
+        }
+        return jsonObject;
     }
 }
@@ -41,6 +41,7 @@ public abstract class BillingResponse extends BillingEvent {
 
     private static final String NAME_PROVIDER_INFO = "provider_info";
     private static final String NAME_STATUS = "status";
+    private static final String NAME_REQUEST_ID = "request_id";
 
     private static final Collection<Status> SUCCESSFUL = Arrays.asList(SUCCESS, PENDING);
 
@@ -49,13 +50,22 @@ public abstract class BillingResponse extends BillingEvent {
     private final BillingProviderInfo providerInfo;
     @NonNull
     private final Status status;
+    private final long requestId;
 
     protected BillingResponse(@NonNull final Type type,
                               @NonNull final Status status,
-                              @Nullable final BillingProviderInfo providerInfo) {
+                              @Nullable final BillingProviderInfo providerInfo,
+                              final long requestId) {
         super(type);
         this.status = status;
         this.providerInfo = providerInfo;
+        this.requestId = requestId;
+    }
+
+    protected BillingResponse(@NonNull final Type type,
+                              @NonNull final Status status,
+                              @Nullable final BillingProviderInfo providerInfo) {
+        this(type, status, providerInfo, 0L);
     }
 
     /**
@@ -81,6 +91,16 @@ public abstract class BillingResponse extends BillingEvent {
         return status;
     }
 
+    /**
+     * Gets id of the request this response corresponds to.
+     *
+     * @return Id of the {@link BillingRequest}, 0 if it's unknown.
+     * @see BillingRequest#getId()
+     */
+    public long getRequestId() {
+        return requestId;
+    }
+
     /**
      * Indicates whether status of this response is successful.
      *
@@ -96,6 +116,7 @@ public abstract class BillingResponse extends BillingEvent {
         final JSONObject jsonObject = super.toJson();
         try {
             jsonObject.put(NAME_STATUS, status);
+            jsonObject.put(NAME_REQUEST_ID, requestId);
             jsonObject.put(NAME_PROVIDER_INFO, providerInfo == null ? NULL : providerInfo.toJson());
         } catch (JSONException exception) {
             OPFLog.e("", exception);
@@ -38,11 +38,18 @@ public class ConsumeResponse extends BillingResponse {
 
     public ConsumeResponse(@NonNull final Status status,
                            @Nullable final BillingProviderInfo providerInfo,
-                           @NonNull final Purchase purchase) {
-        super(Type.CONSUME, status, providerInfo);
+                           @NonNull final Purchase purchase,
+                           final long requestId) {
+        super(Type.CONSUME, status, providerInfo, requestId);
         this.purchase = purchase;
     }
 
+    public ConsumeResponse(@NonNull final Status status,
+                           @Nullable final BillingProviderInfo providerInfo,
+                           @NonNull final Purchase purchase) {
+        this(status, providerInfo, purchase, 0L);
+    }
+
     /**
      * Gets Purchase intended for consumption.
      *
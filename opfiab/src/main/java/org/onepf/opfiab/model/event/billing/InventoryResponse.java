@@ -27,6 +27,7 @@ import org.onepf.opfiab.model.billing.Purchase;
 import org.onepf.opfiab.verification.VerificationResult;
 import org.onepf.opfutils.OPFLog;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 
@@ -39,19 +40,45 @@ public class InventoryResponse extends BillingResponse {
     private static final String NAME_PURCHASE = "purchase";
     private static final String NAME_VERIFICATION_RESULT = "verification_result";
     private static final String NAME_HAS_MORE = "has_more";
+    private static final String NAME_CACHED = "cached";
+    private static final String NAME_REMOVED = "removed";
 
 
     @Nullable
     private final Map<Purchase, VerificationResult> inventory;
     private final boolean hasMore;
+    private final boolean cached;
+    @Nullable
+    private final Collection<Purchase> removed;
 
     public InventoryResponse(@NonNull final Status status,
                              @Nullable final BillingProviderInfo providerInfo,
                              @Nullable final Map<Purchase, VerificationResult> inventory,
                              final boolean hasMore) {
-        super(Type.INVENTORY, status, providerInfo);
+        this(status, providerInfo, inventory, hasMore, false, null);
+    }
+
+    public InventoryResponse(@NonNull final Status status,
+                             @Nullable final BillingProviderInfo providerInfo,
+                             @Nullable final Map<Purchase, VerificationResult> inventory,
+                             final boolean hasMore,
+                             final boolean cached,
+                             @Nullable final Collection<Purchase> removed) {
+        this(status, providerInfo, inventory, hasMore, cached, removed, 0L);
+    }
+
+    public InventoryResponse(@NonNull final Status status,
+                             @Nullable final BillingProviderInfo providerInfo,
+                             @Nullable final Map<Purchase, VerificationResult> inventory,
+                             final boolean hasMore,
+                             final boolean cached,
+                             @Nullable final Collection<Purchase> removed,
+                             final long requestId) {
+        super(Type.INVENTORY, status, providerInfo, requestId);
         this.inventory = inventory == null ? null : Collections.unmodifiableMap(inventory);
         this.hasMore = hasMore;
+        this.cached = cached;
+        this.removed = removed == null ? null : Collections.unmodifiableCollection(removed);
     }
 
     /**
@@ -75,6 +102,44 @@ public class InventoryResponse extends BillingResponse {
         return hasMore;
     }
 
+    /**
+     * Indicates whether this inventory was loaded from local store instead of {@link BillingProvider}.
+     * <br>
+     * Cached inventory is followed by a delta response once billing provider is synchronized.
+     *
+     * @return True if this inventory comes from local store, false otherwise.
+     * @see #isDelta()
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * Indicates whether this response only contains changes since previously sent inventory.
+     * <br>
+     * If true, {@link #getInventory()} contains new and changed purchases and {@link #getRemoved()}
+     * contains purchases which are no longer owned by user.
+     *
+     * @return True if this response is a delta, false if it contains full inventory.
+     */
+    public boolean isDelta() {
+        return removed != null;
+    }
+
+    /**
+     * Gets purchases which are no longer owned by user.
+     * <br>
+     * Removed purchases are only known once the whole inventory is loaded, so this collection is empty
+     * for all responses but the last one.
+     *
+     * @return Removed purchases, null if this response is not a delta.
+     * @see #isDelta()
+     */
+    @Nullable
+    public Collection<Purchase> getRemoved() {
+        return removed;
+    }
+
     @NonNull
     @Override
     public JSONObject toJson() {
@@ -91,6 +156,14 @@ public class InventoryResponse extends BillingResponse {
                 }
             }
             jsonObject.put(NAME_HAS_MORE, hasMore);
+            jsonObject.put(NAME_CACHED, cached);
+            if (removed == null) {
+                jsonObject.put(NAME_REMOVED, JSONObject.NULL);
+            } else {
+                for (final Purchase purchase : removed) {
+                    jsonObject.accumulate(NAME_REMOVED, purchase.toJson());
+                }
+            }
         } catch (JSONException e) {
             OPFLog.e("", e);
         }
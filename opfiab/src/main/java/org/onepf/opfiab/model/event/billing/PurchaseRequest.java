@@ -68,6 +68,23 @@ public class PurchaseRequest extends BillingRequest {
         this(null, sku, true);
     }
 
+    /**
+     * Makes copy of supplied request which uses supplied activity.
+     * <br>
+     * Copy keeps id of the original request.
+     *
+     * @param request  Request to copy.
+     * @param activity Activity to use.
+     */
+    @SuppressFBWarnings({"SE_NO_SERIALVERSIONID"})
+    public PurchaseRequest(@NonNull final PurchaseRequest request,
+                           @NonNull final Activity activity) {
+        super(Type.PURCHASE, request.getId());
+        this.needsFakeActivity = false;
+        this.activityReference = new WeakReference<>(activity);
+        this.sku = request.getSku();
+    }
+
     /**
      * Gets Activity object to be used to start other activities if necessary.
      *
@@ -47,12 +47,20 @@ public class PurchaseResponse extends BillingResponse {
     public PurchaseResponse(@NonNull final Status status,
                             @Nullable final BillingProviderInfo providerInfo,
                             @Nullable final Purchase purchase,
-                            @Nullable final VerificationResult verificationResult) {
-        super(Type.PURCHASE, status, providerInfo);
+                            @Nullable final VerificationResult verificationResult,
+                            final long requestId) {
+        super(Type.PURCHASE, status, providerInfo, requestId);
         this.purchase = purchase;
         this.verificationResult = verificationResult;
     }
 
+    public PurchaseResponse(@NonNull final Status status,
+                            @Nullable final BillingProviderInfo providerInfo,
+                            @Nullable final Purchase purchase,
+                            @Nullable final VerificationResult verificationResult) {
+        this(status, providerInfo, purchase, verificationResult, 0L);
+    }
+
     /**
      * Gets purchase acquired by user with corresponding {@link BillingRequest}.
      *
@@ -44,13 +44,20 @@ public class SkuDetailsResponse extends BillingResponse {
 
     public SkuDetailsResponse(@NonNull final Status status,
                               @Nullable final BillingProviderInfo providerInfo,
-                              @Nullable final Collection<SkuDetails> skusDetails) {
-        super(Type.SKU_DETAILS, status, providerInfo);
+                              @Nullable final Collection<SkuDetails> skusDetails,
+                              final long requestId) {
+        super(Type.SKU_DETAILS, status, providerInfo, requestId);
         this.skusDetails = skusDetails == null
                 ? null
                 : Collections.unmodifiableCollection(skusDetails);
     }
 
+    public SkuDetailsResponse(@NonNull final Status status,
+                              @Nullable final BillingProviderInfo providerInfo,
+                              @Nullable final Collection<SkuDetails> skusDetails) {
+        this(status, providerInfo, skusDetails, 0L);
+    }
+
     /**
      * Gets details for corresponding SKUs.
      * <br>
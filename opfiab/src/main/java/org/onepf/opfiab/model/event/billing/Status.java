@@ -35,7 +35,7 @@ public enum Status {
      */
     UNAUTHORISED,
     /**
-     * Library is busy with another request.
+     * Library is busy with another request of the same kind.
      */
     BUSY,
     /**
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Simple {@link Future} implementation which is completed manually, e.g. from a callback.
+ * <br>
+ * Can't be cancelled, only the first {@link #complete(Object)} call has any effect.
+ *
+ * @param <V> Type of the result.
+ */
+public final class LatchFuture<V> implements Future<V> {
+
+    private final CountDownLatch latch = new CountDownLatch(1);
+    @Nullable
+    private volatile V value;
+
+    /**
+     * Completes this future, waking up all waiting threads.
+     *
+     * @param value Result of this future, can be null.
+     */
+    public synchronized void complete(@Nullable final V value) {
+        if (latch.getCount() > 0) {
+            this.value = value;
+            latch.countDown();
+        }
+    }
+
+    @Override
+    public boolean cancel(final boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return latch.getCount() == 0;
+    }
+
+    @Override
+    public V get() throws InterruptedException {
+        latch.await();
+        return value;
+    }
+
+    @Override
+    public V get(final long timeout, @NonNull final TimeUnit unit)
+            throws InterruptedException, TimeoutException {
+        if (!latch.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return value;
+    }
+}
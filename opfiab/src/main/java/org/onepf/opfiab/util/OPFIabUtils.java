@@ -155,21 +155,24 @@ public final class OPFIabUtils {
     public static BillingResponse emptyResponse(@Nullable final BillingProviderInfo providerInfo,
                                                 @NonNull final BillingRequest billingRequest,
                                                 @NonNull final Status status) {
+        final long requestId = billingRequest.getId();
         final BillingResponse billingResponse;
         switch (billingRequest.getType()) {
             case CONSUME:
                 final ConsumeRequest consumeRequest = (ConsumeRequest) billingRequest;
                 final Purchase purchase = consumeRequest.getPurchase();
-                billingResponse = new ConsumeResponse(status, providerInfo, purchase);
+                billingResponse = new ConsumeResponse(status, providerInfo, purchase, requestId);
                 break;
             case PURCHASE:
-                billingResponse = new PurchaseResponse(status, providerInfo, null, null);
+                billingResponse = new PurchaseResponse(status, providerInfo, null, null,
+                                                       requestId);
                 break;
             case SKU_DETAILS:
-                billingResponse = new SkuDetailsResponse(status, providerInfo, null);
+                billingResponse = new SkuDetailsResponse(status, providerInfo, null, requestId);
                 break;
             case INVENTORY:
-                billingResponse = new InventoryResponse(status, providerInfo, null, false);
+                billingResponse = new InventoryResponse(status, providerInfo, null, false, false,
+                                                        null, requestId);
                 break;
             default:
                 throw new IllegalArgumentException();
@@ -177,6 +180,21 @@ public final class OPFIabUtils {
         return billingResponse;
     }
 
+    /**
+     * Checks whether supplied response completes request it corresponds to.
+     * <br>
+     * Cached inventory is always followed by the actual response from billing provider.
+     *
+     * @param billingResponse Response to check.
+     *
+     * @return True if no further responses are expected for the same request, false otherwise.
+     * @see InventoryResponse#isCached()
+     */
+    public static boolean isFinal(@NonNull final BillingResponse billingResponse) {
+        return !(billingResponse instanceof InventoryResponse)
+                || !((InventoryResponse) billingResponse).isCached();
+    }
+
     public static SkuDetails substituteSku(@NonNull final SkuDetails skuDetails,
                                            @NonNull final String sku) {
         if (TextUtils.equals(skuDetails.getSku(), sku)) {
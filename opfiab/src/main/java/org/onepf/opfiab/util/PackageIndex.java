@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import org.onepf.opfutils.OPFLog;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Cached index of installed packages intended to answer billing providers availability checks.
+ * <br>
+ * Packages are looked up directly with {@link PackageManager#getPackageInfo(String, int)}, full
+ * list of installed packages is only loaded to match patterns which known candidates don't satisfy.
+ * All cached data is invalidated when packages are added, removed or changed.
+ */
+public final class PackageIndex extends BroadcastReceiver {
+
+    private static PackageIndex instance;
+
+    /**
+     * Gets shared PackageIndex instance, creating it if necessary.
+     *
+     * @param context Context to use.
+     * @return PackageIndex instance.
+     */
+    @NonNull
+    public static synchronized PackageIndex getInstance(@NonNull final Context context) {
+        if (instance == null) {
+            instance = new PackageIndex(context);
+        }
+        return instance;
+    }
+
+
+    @NonNull
+    private final Context context;
+    /**
+     * Known presence of packages mapped by package name.
+     */
+    private final Map<String, Boolean> installed = new ConcurrentHashMap<>();
+    /**
+     * Known results of pattern matching mapped by pattern.
+     */
+    private final Map<String, Boolean> matches = new ConcurrentHashMap<>();
+    /**
+     * Names of all installed packages, null if not loaded.
+     */
+    @Nullable
+    private volatile Collection<String> packages;
+
+    private PackageIndex(@NonNull final Context context) {
+        super();
+        this.context = context.getApplicationContext();
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        this.context.registerReceiver(this, filter);
+    }
+
+    @NonNull
+    private Collection<String> getPackages() {
+        Collection<String> packages = this.packages;
+        if (packages == null) {
+            final PackageManager packageManager = context.getPackageManager();
+            final List<PackageInfo> infos = packageManager.getInstalledPackages(0);
+            final Collection<String> names = new ArrayList<>(infos.size());
+            for (final PackageInfo info : infos) {
+                names.add(info.packageName);
+            }
+            this.packages = packages = Collections.unmodifiableCollection(names);
+        }
+        return packages;
+    }
+
+    /**
+     * Checks if package is installed.
+     *
+     * @param packageName Name of the package to look for.
+     * @return True if package is installed, false otherwise.
+     */
+    public boolean isInstalled(@NonNull final String packageName) {
+        final Boolean cached = installed.get(packageName);
+        if (cached != null) {
+            return cached;
+        }
+        boolean isInstalled;
+        try {
+            isInstalled = context.getPackageManager().getPackageInfo(packageName, 0) != null;
+        } catch (PackageManager.NameNotFoundException ignore) {
+            isInstalled = false;
+        }
+        installed.put(packageName, isInstalled);
+        return isInstalled;
+    }
+
+    /**
+     * Checks if any installed package matches supplied pattern.
+     * <br>
+     * Candidates are checked first, full list of installed packages is only used if none of them
+     * is installed.
+     *
+     * @param pattern    Pattern to match package names against.
+     * @param candidates Most likely package names that match pattern.
+     * @return True if matching package is installed, false otherwise.
+     */
+    public boolean isInstalled(@NonNull final Pattern pattern,
+                               @NonNull final String... candidates) {
+        for (final String candidate : candidates) {
+            if (isInstalled(candidate)) {
+                return true;
+            }
+        }
+        final String key = pattern.pattern();
+        final Boolean cached = matches.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        boolean matched = false;
+        for (final String packageName : getPackages()) {
+            if (pattern.matcher(packageName).matches()) {
+                matched = true;
+                break;
+            }
+        }
+        matches.put(key, matched);
+        return matched;
+    }
+
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        final Uri data = intent.getData();
+        final String packageName = data == null ? null : data.getSchemeSpecificPart();
+        OPFLog.d("Package changed: %s, %s", packageName, intent.getAction());
+        if (packageName == null) {
+            installed.clear();
+        } else {
+            installed.remove(packageName);
+        }
+        matches.clear();
+        packages = null;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2012-2015 One Platform Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.onepf.opfiab.verification;
+
+import android.support.annotation.NonNull;
+
+import org.onepf.opfiab.model.billing.Purchase;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * {@link PurchaseVerifier} capable of verifying multiple purchases at once.
+ * <br>
+ * Used by library to verify whole inventory instead of one purchase at a time.
+ */
+public interface BatchPurchaseVerifier extends PurchaseVerifier {
+
+    /**
+     * Attempts to verify that all supplied purchases are owned by user.
+     * <br>
+     * Intended to be called from background thread, because it may perform long time operations.
+     *
+     * @param purchases Purchase objects to verify.
+     * @return Verification results in iteration order of {@code purchases}.
+     */
+    @NonNull
+    List<VerificationResult> verifyAll(@NonNull final Collection<Purchase> purchases);
+}
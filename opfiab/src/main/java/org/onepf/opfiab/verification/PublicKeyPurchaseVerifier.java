@@ -26,12 +26,25 @@ import org.onepf.opfutils.OPFLog;
 
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -40,11 +53,78 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
  * <br>
  * This class attempts to confirm that purchase data which was returned from {@link #getData(Purchase)}
  * was signed with a private key corresponding to one returned from {@link #getPublicKey()}.
+ * <br>
+ * Decoded public key is cached, {@link Signature} objects are reused per thread and results are
+ * memoized by data and signature digest.
  */
-public abstract class PublicKeyPurchaseVerifier implements PurchaseVerifier {
+public abstract class PublicKeyPurchaseVerifier implements BatchPurchaseVerifier {
 
     protected static final String KEY_FACTORY_ALGORITHM = "RSA";
     protected static final String SIGNATURE_ALGORITHM = "SHA1withRSA";
+    protected static final String DIGEST_ALGORITHM = "SHA-256";
+
+    /**
+     * Maximum number of memoized verification results.
+     */
+    private static final int MEMO_SIZE = 1000;
+    /**
+     * Minimum number of purchases worth verifying in parallel.
+     */
+    private static final int PARALLEL_THRESHOLD = 8;
+    private static final int CORES = Runtime.getRuntime().availableProcessors();
+    /**
+     * Time after which idle verification threads are terminated.
+     */
+    private static final long KEEP_ALIVE = 30000L; // 30 seconds
+
+    /**
+     * Executor shared by all verifiers for parallel batch verification.
+     */
+    @Nullable
+    private static ExecutorService executor;
+
+    @NonNull
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+                    CORES, CORES, KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>());
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+            executor = threadPoolExecutor;
+        }
+        return executor;
+    }
+
+
+    private final boolean parallel;
+    /**
+     * Signature objects initialized for verification, one per thread.
+     */
+    private final ThreadLocal<SignatureHolder> signatures = new ThreadLocal<>();
+    private final ThreadLocal<MessageDigest> digests = new ThreadLocal<>();
+    @SuppressWarnings("serial")
+    private final Map<String, VerificationResult> results =
+            new LinkedHashMap<String, VerificationResult>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        final Map.Entry<String, VerificationResult> eldest) {
+                    return size() > MEMO_SIZE;
+                }
+            };
+    @Nullable
+    private volatile KeyHolder keyHolder;
+
+    protected PublicKeyPurchaseVerifier() {
+        this(false);
+    }
+
+    /**
+     * @param parallel True if {@link #verifyAll(Collection)} should use multiple threads.
+     */
+    protected PublicKeyPurchaseVerifier(final boolean parallel) {
+        super();
+        this.parallel = parallel;
+    }
 
     /**
      * Gets public key used for verification.
@@ -73,15 +153,26 @@ public abstract class PublicKeyPurchaseVerifier implements PurchaseVerifier {
     protected abstract String getSignature(@NonNull final Purchase purchase);
 
     @NonNull
-    private PublicKey publicKey() {
+    private KeyHolder keyHolder() {
         final String publicKey = getPublicKey();
         if (TextUtils.isEmpty(publicKey)) {
             throw new IllegalStateException("Public key can't be null.");
         }
+        final KeyHolder keyHolder = this.keyHolder;
+        if (keyHolder != null && keyHolder.encodedKey.equals(publicKey)) {
+            return keyHolder;
+        }
         final byte[] decodedKey = Base64.decode(publicKey, Base64.DEFAULT);
         try {
             final KeyFactory keyFactory = KeyFactory.getInstance(KEY_FACTORY_ALGORITHM);
-            return keyFactory.generatePublic(new X509EncodedKeySpec(decodedKey));
+            final PublicKey key = keyFactory.generatePublic(new X509EncodedKeySpec(decodedKey));
+            final KeyHolder newKeyHolder = new KeyHolder(publicKey, key);
+            this.keyHolder = newKeyHolder;
+            synchronized (results) {
+                // Results obtained with previous key are no longer valid
+                results.clear();
+            }
+            return newKeyHolder;
         } catch (NoSuchAlgorithmException | InvalidKeySpecException exception) {
             throw new IllegalStateException("Can't create PublicKey.", exception);
         }
@@ -89,17 +180,46 @@ public abstract class PublicKeyPurchaseVerifier implements PurchaseVerifier {
 
     @SuppressFBWarnings({"DM_DEFAULT_ENCODING", "MDM_STRING_BYTES_ENCODING"})
     @NonNull
-    private Signature signature(@NonNull final String data) {
+    private Signature signature(@NonNull final PublicKey publicKey, @NonNull final String data) {
         try {
-            final Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
-            signature.initVerify(publicKey());
-            signature.update(data.getBytes());
-            return signature;
+            SignatureHolder holder = signatures.get();
+            if (holder == null || holder.publicKey != publicKey) {
+                final Signature signature = Signature.getInstance(SIGNATURE_ALGORITHM);
+                signature.initVerify(publicKey);
+                holder = new SignatureHolder(publicKey, signature);
+                signatures.set(holder);
+            }
+            // Signature is reset by each verify() call, no need to initialize it again
+            holder.signature.update(data.getBytes());
+            return holder.signature;
         } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException exception) {
             throw new IllegalStateException("Can't initialize Signature.", exception);
         }
     }
 
+    @SuppressFBWarnings({"DM_DEFAULT_ENCODING", "MDM_STRING_BYTES_ENCODING"})
+    @NonNull
+    private String digest(@NonNull final String encodedKey,
+                          @NonNull final String data,
+                          @NonNull final String signature) {
+        MessageDigest digest = digests.get();
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException exception) {
+                throw new IllegalStateException("Can't create MessageDigest.", exception);
+            }
+            digests.set(digest);
+        }
+        // Key is a part of digest, so results obtained with a different key never match
+        digest.update(encodedKey.getBytes());
+        digest.update((byte) 0);
+        digest.update(data.getBytes());
+        digest.update((byte) 0);
+        digest.update(signature.getBytes());
+        return Base64.encodeToString(digest.digest(), Base64.NO_WRAP);
+    }
+
     @NonNull
     protected final VerificationResult verify(@Nullable final String data,
                                               @Nullable final String signature) {
@@ -107,14 +227,29 @@ public abstract class PublicKeyPurchaseVerifier implements PurchaseVerifier {
             OPFLog.e("Either data or signature is empty.");
             return VerificationResult.ERROR;
         }
+        final KeyHolder keyHolder = keyHolder();
+        final String digest = digest(keyHolder.encodedKey, data, signature);
+        synchronized (results) {
+            final VerificationResult result = results.get(digest);
+            if (result != null) {
+                return result;
+            }
+        }
+        final VerificationResult result;
         try {
             final byte[] decodedSignature = Base64.decode(signature, Base64.DEFAULT);
-            final boolean result = signature(data).verify(decodedSignature);
-            return result ? VerificationResult.SUCCESS : VerificationResult.FAILED;
+            final boolean verified = signature(keyHolder.publicKey, data).verify(decodedSignature);
+            result = verified ? VerificationResult.SUCCESS : VerificationResult.FAILED;
         } catch (SignatureException | IllegalArgumentException exception) {
             OPFLog.e("Error verifying purchase.", exception);
+            // Signature might be left in unknown state
+            signatures.remove();
             return VerificationResult.ERROR;
         }
+        synchronized (results) {
+            results.put(digest, result);
+        }
+        return result;
     }
 
     @NonNull
@@ -122,4 +257,77 @@ public abstract class PublicKeyPurchaseVerifier implements PurchaseVerifier {
     public VerificationResult verify(@NonNull final Purchase purchase) {
         return verify(getData(purchase), getSignature(purchase));
     }
+
+    @NonNull
+    private List<VerificationResult> verifySequentially(@NonNull final List<Purchase> purchases) {
+        final List<VerificationResult> verificationResults = new ArrayList<>(purchases.size());
+        for (final Purchase purchase : purchases) {
+            verificationResults.add(verify(purchase));
+        }
+        return verificationResults;
+    }
+
+    @NonNull
+    @Override
+    public List<VerificationResult> verifyAll(@NonNull final Collection<Purchase> purchases) {
+        final List<Purchase> purchaseList = new ArrayList<>(purchases);
+        final int size = purchaseList.size();
+        if (!parallel || CORES < 2 || size < PARALLEL_THRESHOLD) {
+            return verifySequentially(purchaseList);
+        }
+        final int chunkSize = (size + CORES - 1) / CORES;
+        final List<Callable<List<VerificationResult>>> tasks = new ArrayList<>(CORES);
+        for (int first = 0; first < size; first += chunkSize) {
+            final List<Purchase> chunk = purchaseList.subList(first, Math.min(first + chunkSize, size));
+            tasks.add(new Callable<List<VerificationResult>>() {
+                @Override
+                public List<VerificationResult> call() {
+                    return verifySequentially(chunk);
+                }
+            });
+        }
+        final List<VerificationResult> verificationResults = new ArrayList<>(size);
+        try {
+            for (final Future<List<VerificationResult>> future : getExecutor().invokeAll(tasks)) {
+                verificationResults.addAll(future.get());
+            }
+        } catch (InterruptedException exception) {
+            OPFLog.e("Parallel verification interrupted.", exception);
+            Thread.currentThread().interrupt();
+            return verifySequentially(purchaseList);
+        } catch (ExecutionException exception) {
+            final Throwable cause = exception.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        return verificationResults;
+    }
+
+    private static final class KeyHolder {
+
+        @NonNull
+        private final String encodedKey;
+        @NonNull
+        private final PublicKey publicKey;
+
+        KeyHolder(@NonNull final String encodedKey, @NonNull final PublicKey publicKey) {
+            this.encodedKey = encodedKey;
+            this.publicKey = publicKey;
+        }
+    }
+
+    private static final class SignatureHolder {
+
+        @NonNull
+        private final PublicKey publicKey;
+        @NonNull
+        private final Signature signature;
+
+        SignatureHolder(@NonNull final PublicKey publicKey, @NonNull final Signature signature) {
+            this.publicKey = publicKey;
+            this.signature = signature;
+        }
+    }
 }